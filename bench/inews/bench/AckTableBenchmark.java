@@ -0,0 +1,140 @@
+package inews.bench;
+
+import inews.dataStructures.AckMessage;
+import inews.dataStructures.AckTable;
+import java.util.TreeMap;
+
+/**
+ * Compares the table of messages waiting for acknowledgement with the synchronized TreeMap it replaced
+ * Each thread inserts sequence numbers in order, looks up one in the middle of its window and removes the oldest one,
+ * as the sender, the receiver of the ACKs and the retransmission timers do
+ *
+ * Prints the time of each operation with 1, 4 and 8 threads; only the last round is printed, the others warm up the JIT
+ * @author Luis Portela
+ * @see AckTable
+ */
+public final class AckTableBenchmark {
+
+	/**
+	 * Number of sequence numbers inserted by each thread
+	 */
+	public static final int OPERATIONS = 2000000;
+
+	/**
+	 * Number of messages waiting for acknowledgement by each thread
+	 */
+	public static final int WINDOW = 64;
+
+	/**
+	 * Number of rounds, the last one is printed
+	 */
+	public static final int ROUNDS = 5;
+
+	private static final int[] THREADS = {1, 4, 8};
+
+	/**
+	 * Operations of one thread over a table
+	 */
+	private interface Workload {
+
+		/**
+		 * Runs the operations of one thread
+		 * @param base first sequence number of the thread
+		 */
+		public void run(int base);
+	}
+
+	/**
+	 * Private constructor, the benchmark is run by the main method
+	 */
+	private AckTableBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark
+	 * @param args not used
+	 * @throws InterruptedException if the benchmark is interrupted
+	 */
+	public static void main(String[] args) throws InterruptedException {
+
+		final AckMessage message = new AckMessage(1, 3, 100, null);
+
+		for (int round = 0; round < ROUNDS; round++) {
+			for (int threads : THREADS) {
+				final AckTable table = new AckTable();
+				final TreeMap<Integer, AckMessage> tree = new TreeMap<Integer, AckMessage>();
+
+				long tableTime = run(threads, new Workload() {
+
+					@Override
+					public void run(int base) {
+						for (int i = 0; i < OPERATIONS; i++) {
+							table.put(base + i, message);
+							table.get(base + i - WINDOW / 2);
+							if (i >= WINDOW) {
+								table.remove(base + i - WINDOW);
+							}
+						}
+					}
+				});
+				long treeTime = run(threads, new Workload() {
+
+					@Override
+					public void run(int base) {
+						for (int i = 0; i < OPERATIONS; i++) {
+							synchronized (tree) {
+								tree.put(base + i, message);
+							}
+							synchronized (tree) {
+								tree.get(base + i - WINDOW / 2);
+							}
+							if (i >= WINDOW) {
+								synchronized (tree) {
+									tree.remove(base + i - WINDOW);
+								}
+							}
+						}
+					}
+				});
+
+				if (round == ROUNDS - 1) {
+					System.out.printf("%d threads: AckTable %.1f ns/op, synchronized TreeMap %.1f ns/op%n",
+							threads, tableTime / (double) OPERATIONS, treeTime / (double) OPERATIONS);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Runs the workload on several threads, each one with its own range of sequence numbers
+	 * @param threads number of threads
+	 * @param workload operations of each thread
+	 * @return elapsed time in nanoseconds
+	 * @throws InterruptedException if the wait for the threads is interrupted
+	 */
+	private static long run(int threads, final Workload workload) throws InterruptedException {
+
+		Thread[] workers = new Thread[threads];
+		long start;
+
+		for (int i = 0; i < threads; i++) {
+			final int base = i * 100000000;
+			workers[i] = new Thread(new Runnable() {
+
+				@Override
+				public void run() {
+					workload.run(base);
+				}
+			}, "AckTableBenchmark-" + i);
+		}
+
+		start = System.nanoTime();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		return System.nanoTime() - start;
+	}
+}
@@ -0,0 +1,282 @@
+package inews.bench;
+
+import inews.ExecutionMode;
+import inews.dataStructures.IPStruct;
+import inews.dataStructures.MessageData;
+import inews.dataStructures.MessageDataType;
+import inews.dataStructures.MessageType;
+import inews.dataStructures.Packet;
+import inews.dataStructures.PacketCodec;
+import inews.dataStructures.PacketView;
+import inews.dataStructures.UserStruct;
+import inews.interfaces.INewsWindow;
+import inews.interfaces.NewsWindowClient;
+import inews.interfaces.UDPConnection;
+import inews.server.DatagramBufferPool;
+import inews.server.HandleReceivedMessages;
+import inews.server.MessageDispatcher;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Memory allocated by the reception of the PING and ACTIVE messages, the most frequent ones
+ * The messages of 500 peers are dispatched to the platform workers of the message dispatcher as the network listener does,
+ * and the bytes allocated by the dispatching thread and by the workers are measured with the allocation counters of the JVM,
+ * together with the garbage collections made during the measured rounds
+ *
+ * The parse of the messages by the packet view is also measured alone, on the benchmark thread, reading the fields that
+ * the handlers read; the allocation of the workers includes the calls to the window and client stubs, that are proxies
+ * and create the arrays of the arguments
+ * The logs of each message are off, as by default; they are on with the system property inews.log.verbose
+ * @author Luis Portela
+ * @see MessageDispatcher
+ * @see HandleReceivedMessages
+ */
+public final class AllocationBenchmark {
+
+	/**
+	 * Number of peers sending messages
+	 */
+	public static final int PEERS = 500;
+
+	/**
+	 * Number of rounds run before measuring
+	 */
+	public static final int WARMUP_ROUNDS = 200;
+
+	/**
+	 * Number of measured rounds; each round dispatches one PING and one ACTIVE of each peer
+	 */
+	public static final int ROUNDS = 200;
+
+	private final AtomicInteger processed = new AtomicInteger(0);
+	private final ConcurrentHashMap<String, UserStruct> users = new ConcurrentHashMap<String, UserStruct>();
+	private final PacketView parseView = new PacketView();
+	private final String[] parseNames = new String[1024];
+	private ByteBuffer[] parseBuffers = null;
+	private final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+	/**
+	 * Private constructor, the benchmark is run by the main method
+	 */
+	private AllocationBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark
+	 * @param args not used
+	 * @throws Exception if the benchmark is interrupted
+	 */
+	public static void main(String[] args) throws Exception {
+
+		PrintStream out = System.out;
+
+		// os handlers escrevem cada mensagem no output
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			new AllocationBenchmark().run(out);
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	/**
+	 * Dispatches the rounds of messages and prints the allocation of each message
+	 * @param out stream to print the results
+	 * @throws InterruptedException if the wait is interrupted
+	 */
+	private void run(PrintStream out) throws InterruptedException {
+
+		final UserStruct me = new UserStruct("bench", new IPStruct("10.0.0.1", 4000));
+		final DatagramBufferPool bufferPool = new DatagramBufferPool(2 * PEERS, Packet.MAX_DATAGRAM_SIZE);
+		final UDPConnection connection = BurstBenchmark.stub(UDPConnection.class, null);
+		final INewsWindow newsWindow = BurstBenchmark.stub(INewsWindow.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("getUserFromName")) {
+					return users.get((String) args[0]);
+				}
+				if (method.getName().equals("addToList")) {
+					users.put((String) args[0], (UserStruct) args[1]);
+					return args[1];
+				}
+				if (method.getName().equals("refreshUsersList")) {
+					processed.incrementAndGet();
+				}
+				return null;
+			}
+		});
+		final NewsWindowClient client = BurstBenchmark.stub(NewsWindowClient.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("activePacket")) {
+					processed.incrementAndGet();
+				}
+				return null;
+			}
+		});
+		MessageDispatcher dispatcher = new MessageDispatcher(MessageDispatcher.DEFAULT_WORKERS, 2 * PEERS, ExecutionMode.PLATFORM, bufferPool,
+				new Supplier<HandleReceivedMessages>() {
+
+					@Override
+					public HandleReceivedMessages get() {
+						return new HandleReceivedMessages(me, connection, bufferPool, newsWindow, client);
+					}
+				});
+		IPStruct[] peers = new IPStruct[PEERS];
+		byte[][] pings = new byte[PEERS][];
+		byte[][] actives = new byte[PEERS][];
+		long parseBytes, dispatchBytes, workersBytes, collections, collectionTime;
+
+		for (int i = 0; i < PEERS; i++) {
+			UserStruct peer = new UserStruct("peer" + i, new IPStruct("10.1." + (i / 250) + "." + (i % 250 + 1), 4000));
+			LinkedList<MessageData> fields = new LinkedList<MessageData>();
+
+			fields.add(new MessageData(MessageDataType.NUMBER, "42"));
+			fields.add(new MessageData(MessageDataType.DATE, String.valueOf(System.currentTimeMillis())));
+			peers[i] = peer.getIp();
+			pings[i] = PacketCodec.TEXT.encode(new Packet(MessageType.PING, peer, peer.getIp(), i, null));
+			actives[i] = PacketCodec.TEXT.encode(new Packet(MessageType.ACTIVE, peer, peer.getIp(), PEERS + i, fields));
+		}
+
+		for (int round = 0; round < WARMUP_ROUNDS; round++) {
+			parse(pings, actives);
+		}
+		parseBytes = this.threads.getCurrentThreadAllocatedBytes();
+		for (int round = 0; round < ROUNDS; round++) {
+			parse(pings, actives);
+		}
+		parseBytes = this.threads.getCurrentThreadAllocatedBytes() - parseBytes;
+
+		dispatcher.start();
+
+		for (int round = 0; round < WARMUP_ROUNDS; round++) {
+			this.round(dispatcher, bufferPool, peers, pings, actives);
+		}
+
+		dispatchBytes = this.threads.getCurrentThreadAllocatedBytes();
+		workersBytes = this.getWorkersAllocatedBytes();
+		collections = getCollections(false);
+		collectionTime = getCollections(true);
+
+		for (int round = 0; round < ROUNDS; round++) {
+			this.round(dispatcher, bufferPool, peers, pings, actives);
+		}
+
+		dispatchBytes = this.threads.getCurrentThreadAllocatedBytes() - dispatchBytes;
+		workersBytes = this.getWorkersAllocatedBytes() - workersBytes;
+		collections = getCollections(false) - collections;
+		collectionTime = getCollections(true) - collectionTime;
+
+		dispatcher.shutdown();
+
+		out.printf("%d messages: parse %.1f bytes/message, dispatch %.1f bytes/message, processing %.1f bytes/message, "
+				+ "%d collections (%d ms)%n", ROUNDS * 2 * PEERS, parseBytes / (double) (ROUNDS * 2 * PEERS),
+				dispatchBytes / (double) (ROUNDS * 2 * PEERS), workersBytes / (double) (ROUNDS * 2 * PEERS), collections, collectionTime);
+	}
+
+	/**
+	 * Reads the PING and ACTIVE messages of all the peers with a packet view, as the handlers do
+	 * The messages are copied once to direct buffers, like the receive buffers, that are reused on every round
+	 * @param pings PING message of each peer
+	 * @param actives ACTIVE message of each peer
+	 * @return sum of the values read, so they are not discarded
+	 */
+	private long parse(byte[][] pings, byte[][] actives) {
+
+		long sum = 0;
+
+		if (this.parseBuffers == null) {
+			this.parseBuffers = new ByteBuffer[2 * PEERS];
+			for (int i = 0; i < PEERS; i++) {
+				this.parseBuffers[2 * i] = ByteBuffer.allocateDirect(pings[i].length).put(pings[i]);
+				this.parseBuffers[2 * i + 1] = ByteBuffer.allocateDirect(actives[i].length).put(actives[i]);
+			}
+		}
+
+		for (ByteBuffer buf : this.parseBuffers) {
+			buf.flip();
+			if (this.parseView.wrap(buf) != null) {
+				sum += this.parseView.getSequence() + this.parseView.getUserName(this.parseNames).length();
+				sum += this.parseView.getInt(MessageDataType.NUMBER, 0) + this.parseView.getLong(MessageDataType.DATE, 0)
+						+ this.parseView.getLong(MessageDataType.CHECKSUM, -1);
+			}
+			buf.position(buf.limit());
+		}
+
+		return sum;
+	}
+
+	/**
+	 * Dispatches one PING and one ACTIVE of each peer and waits for all of them to be processed
+	 * @param dispatcher dispatcher of the messages
+	 * @param bufferPool pool of the receive buffers
+	 * @param peers address of each peer
+	 * @param pings PING message of each peer
+	 * @param actives ACTIVE message of each peer
+	 */
+	private void round(MessageDispatcher dispatcher, DatagramBufferPool bufferPool, IPStruct[] peers, byte[][] pings, byte[][] actives) {
+
+		ByteBuffer buf;
+
+		this.processed.set(0);
+
+		for (int i = 0; i < PEERS; i++) {
+			buf = bufferPool.acquire();
+			buf.put(pings[i]).flip();
+			dispatcher.dispatch(buf, MessageType.PING, peers[i]);
+			buf = bufferPool.acquire();
+			buf.put(actives[i]).flip();
+			dispatcher.dispatch(buf, MessageType.ACTIVE, peers[i]);
+		}
+
+		while (this.processed.get() < 2 * PEERS) {
+			Thread.onSpinWait();
+		}
+	}
+
+	/**
+	 * Returns the bytes allocated by the worker threads of the message dispatcher
+	 * @return allocated bytes
+	 */
+	private long getWorkersAllocatedBytes() {
+
+		long bytes = 0;
+
+		for (ThreadInfo info : this.threads.getThreadInfo(this.threads.getAllThreadIds())) {
+			if ((info != null) && info.getThreadName().startsWith("MessageDispatcher-")) {
+				bytes += this.threads.getThreadAllocatedBytes(info.getThreadId());
+			}
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Returns the garbage collections made since the JVM started
+	 * @param time true to return the time spent on the collections ; false to return the number of collections
+	 * @return time in milliseconds or number of collections
+	 */
+	private static long getCollections(boolean time) {
+
+		long total = 0;
+
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			total += Math.max(time ? collector.getCollectionTime() : collector.getCollectionCount(), 0);
+		}
+
+		return total;
+	}
+}
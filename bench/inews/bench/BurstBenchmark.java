@@ -0,0 +1,185 @@
+package inews.bench;
+
+import inews.ExecutionMode;
+import inews.dataStructures.IPStruct;
+import inews.dataStructures.MessageType;
+import inews.dataStructures.Packet;
+import inews.dataStructures.PacketCodec;
+import inews.dataStructures.UserStruct;
+import inews.interfaces.INewsWindow;
+import inews.interfaces.NewsWindowClient;
+import inews.interfaces.UDPConnection;
+import inews.server.DatagramBufferPool;
+import inews.server.HandleReceivedMessages;
+import inews.server.MessageDispatcher;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Supplier;
+
+/**
+ * Burst of PING messages from 500 peers processed by the message dispatcher
+ * Each PING is answered with an ACTIVE that blocks for a few milliseconds, as a send on a busy socket, so the benchmark
+ * shows how many messages are processed at once by the workers of each execution mode
+ *
+ * Prints the number of workers, the peak of platform threads and the latency from the dispatch of each message until
+ * its answer; run once for each mode: BurstBenchmark platform|virtual
+ * @author Luis Portela
+ * @see MessageDispatcher
+ * @see ExecutionMode
+ */
+public final class BurstBenchmark {
+
+	/**
+	 * Number of peers sending messages
+	 */
+	public static final int PEERS = 500;
+
+	/**
+	 * Number of PING messages sent by each peer
+	 */
+	public static final int MESSAGES_PER_PEER = 4;
+
+	/**
+	 * Time the answer of each message blocks, in milliseconds
+	 */
+	public static final long BLOCK_TIME = 5;
+
+	private final long[] dispatched = new long[PEERS * MESSAGES_PER_PEER];
+	private final long[] latencies = new long[PEERS * MESSAGES_PER_PEER];
+	private final CountDownLatch answered = new CountDownLatch(PEERS * MESSAGES_PER_PEER);
+
+	/**
+	 * Private constructor, the benchmark is run by the main method
+	 */
+	private BurstBenchmark() {
+	}
+
+	/**
+	 * Runs the benchmark
+	 * @param args execution mode (platform or virtual)
+	 * @throws Exception if the benchmark is interrupted
+	 */
+	public static void main(String[] args) throws Exception {
+
+		ExecutionMode mode = ExecutionMode.fromName(args.length > 0 ? args[0] : "platform");
+		PrintStream out = System.out;
+
+		// os handlers escrevem cada mensagem no output
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			new BurstBenchmark().run(mode, out);
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	/**
+	 * Dispatches the burst and waits for all the answers
+	 * @param mode execution mode of the workers
+	 * @param out stream to print the results
+	 * @throws InterruptedException if the wait is interrupted
+	 */
+	private void run(ExecutionMode mode, PrintStream out) throws InterruptedException {
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		final DatagramBufferPool bufferPool = new DatagramBufferPool(PEERS * MESSAGES_PER_PEER, Packet.MAX_DATAGRAM_SIZE);
+		final UserStruct me = new UserStruct("bench", new IPStruct("10.0.0.1", 4000));
+		final INewsWindow newsWindow = stub(INewsWindow.class, null);
+		final UDPConnection connection = stub(UDPConnection.class, null);
+		final NewsWindowClient client = stub(NewsWindowClient.class, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getName().equals("activePacket")) {
+					int sequence = (Integer) args[0];
+					Thread.sleep(BLOCK_TIME);
+					latencies[sequence] = System.nanoTime() - dispatched[sequence];
+					answered.countDown();
+				}
+				return null;
+			}
+		});
+		MessageDispatcher dispatcher = new MessageDispatcher(MessageDispatcher.getDefaultWorkers(mode), PEERS * MESSAGES_PER_PEER, mode, bufferPool,
+				new Supplier<HandleReceivedMessages>() {
+
+					@Override
+					public HandleReceivedMessages get() {
+						return new HandleReceivedMessages(me, connection, bufferPool, newsWindow, client);
+					}
+				});
+		IPStruct[] peers = new IPStruct[PEERS];
+		byte[][] messages = new byte[PEERS * MESSAGES_PER_PEER][];
+		long start, total;
+		ByteBuffer buf;
+
+		for (int i = 0; i < PEERS; i++) {
+			peers[i] = new IPStruct("10.1." + (i / 250) + "." + (i % 250 + 1), 4000);
+		}
+		for (int sequence = 0; sequence < messages.length; sequence++) {
+			UserStruct peer = new UserStruct("peer" + (sequence % PEERS), peers[sequence % PEERS]);
+			messages[sequence] = PacketCodec.TEXT.encode(new Packet(MessageType.PING, peer, peer.getIp(), sequence, null));
+		}
+
+		dispatcher.start();
+		Thread.sleep(200);
+		threads.resetPeakThreadCount();
+
+		start = System.nanoTime();
+		for (int sequence = 0; sequence < messages.length; sequence++) {
+			buf = bufferPool.acquire();
+			buf.put(messages[sequence]).flip();
+			this.dispatched[sequence] = System.nanoTime();
+			dispatcher.dispatch(buf, MessageType.PING, peers[sequence % PEERS]);
+		}
+		this.answered.await();
+		total = System.nanoTime() - start;
+
+		dispatcher.shutdown();
+
+		Arrays.sort(this.latencies);
+		out.printf("%s: %d peers x %d PING, %d workers, peak %d platform threads, total %d ms, latency p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+				mode, PEERS, MESSAGES_PER_PEER, MessageDispatcher.getDefaultWorkers(mode), threads.getPeakThreadCount(), total / 1000000,
+				this.latencies[this.latencies.length / 2] / 1e6, this.latencies[this.latencies.length * 99 / 100] / 1e6,
+				this.latencies[this.latencies.length - 1] / 1e6);
+	}
+
+	/**
+	 * Creates an implementation of an interface that returns the default values
+	 * The methods returning boolean return true, so the peers are known and the connection is running
+	 * @param type interface to implement
+	 * @param handler handler of the methods with behaviour or null
+	 * @return the implementation
+	 */
+	@SuppressWarnings("unchecked")
+	static <T> T stub(Class<T> type, final InvocationHandler handler) {
+
+		return (T) Proxy.newProxyInstance(BurstBenchmark.class.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+				Object value = handler != null ? handler.invoke(proxy, method, args) : null;
+				Class<?> returnType = method.getReturnType();
+
+				if ((value != null) || (!returnType.isPrimitive())) {
+					return value;
+				}
+				if (returnType == boolean.class) {
+					return Boolean.TRUE;
+				}
+				if (returnType == long.class) {
+					return 0L;
+				}
+				return returnType == void.class ? null : (Object) 0;
+			}
+		});
+	}
+}
@@ -0,0 +1,158 @@
+package inews.bench;
+
+import inews.NewsDirWatcher;
+import inews.dataStructures.IPStruct;
+import inews.dataStructures.NewsIndex;
+import inews.dataStructures.UserStruct;
+import inews.interfaces.INewsWindow;
+import inews.interfaces.NewsWindowClient;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Checks that a news file edited in place changes the checksum announced by the local user
+ * The edit keeps the date and the total of news, so only the checksum tells the other users that the news changed;
+ * the watcher must update the local user from the news index before it sends the new information
+ * It is run on an empty working directory, where the news directory is created
+ * @author Luis Portela
+ * @see NewsDirWatcher
+ * @see NewsIndex#updateUser(inews.dataStructures.UserStruct)
+ */
+public final class NewsDirWatcherCheck {
+
+	/**
+	 * Time to wait for the watcher to send the new information, in seconds
+	 */
+	public static final int TIMEOUT = 10;
+
+	private final Semaphore sent = new Semaphore(0);
+	private final UserStruct me = new UserStruct("me", new IPStruct("127.0.0.1", 4000));
+
+	/**
+	 * Private constructor, the check is run by the main method
+	 */
+	private NewsDirWatcherCheck() {
+	}
+
+	/**
+	 * Runs the check
+	 * @param args not used
+	 * @throws Exception if the news files can't be written or the check fails
+	 */
+	public static void main(String[] args) throws Exception {
+
+		PrintStream out = System.out;
+
+		// o watcher escreve cada alteracao no output
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		try {
+			new NewsDirWatcherCheck().run(out);
+		} finally {
+			System.setOut(out);
+		}
+	}
+
+	/**
+	 * Edits a news file in place and compares the checksum of the local user before and after
+	 * @param out output of the results
+	 * @throws Exception if the news files can't be written or the check fails
+	 */
+	private void run(PrintStream out) throws Exception {
+
+		File dir = new File("_news");
+		File news = new File(dir, "1350000001.txt");
+		NewsIndex newsIndex;
+		NewsDirWatcher watcher;
+		long before, after;
+
+		if ((!dir.isDirectory()) && (!dir.mkdirs())) {
+			throw new IOException("Nao foi possivel criar o directorio de noticias");
+		}
+		write(new File(dir, "1350000000.txt"), "Titulo 0\nconteudo 0\n");
+		write(news, "Titulo 1\nconteudo 1\n");
+
+		newsIndex = NewsIndex.getInstance();
+		newsIndex.refresh(dir.listFiles());
+		newsIndex.updateUser(this.me);
+		before = this.me.getChecksum();
+
+		watcher = NewsDirWatcher.getInstance(this.stub(INewsWindow.class), this.stub(NewsWindowClient.class));
+		if (!watcher.start()) {
+			out.println("O sistema de ficheiros nao permite observar o directorio de noticias, verificacao ignorada");
+			return;
+		}
+
+		try {
+			// o mesmo titulo e tamanho, so o conteudo muda
+			write(news, "Titulo 1\nconteudo 2\n");
+
+			if (!this.sent.tryAcquire(TIMEOUT, TimeUnit.SECONDS)) {
+				throw new IllegalStateException("O watcher nao enviou a nova informacao");
+			}
+			after = this.me.getChecksum();
+		} finally {
+			watcher.endWatcher();
+		}
+
+		out.printf("Noticia alterada no lugar: total %d, checksum %d -> %d%n", this.me.getTotalNews(), before, after);
+
+		if ((after == before) || (after != newsIndex.getChecksum(Long.MAX_VALUE))) {
+			throw new IllegalStateException("O checksum anunciado nao corresponde as noticias alteradas");
+		}
+	}
+
+	/**
+	 * Creates a stub of the window or of the client that gives the local user and counts the sent information
+	 * @param type interface of the stub
+	 * @return the stub
+	 */
+	private <T> T stub(Class<T> type) {
+
+		return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new InvocationHandler() {
+
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) {
+
+				if (method.getName().equals("getMe")) {
+					return me;
+				}
+				if (method.getName().equals("readDirFiles")) {
+					return new File("_news").listFiles();
+				}
+				if (method.getName().equals("sendMyInfo")) {
+					sent.release();
+				}
+				if (method.getReturnType() == boolean.class) {
+					return Boolean.FALSE;
+				}
+				return null;
+			}
+		}));
+	}
+
+	/**
+	 * Writes the content of a news file
+	 * @param file news file
+	 * @param content content of the news
+	 * @throws IOException if the file can't be written
+	 */
+	private static void write(File file, String content) throws IOException {
+
+		Writer writer = new FileWriter(file);
+
+		try {
+			writer.write(content);
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,66 @@
+package inews;
+
+/**
+ * Enumerator with the kinds of threads used to run the tasks that block on sockets or sleeps
+ * The mode is selected with the system property inews.threads (platform or virtual)
+ * @author Luis Portela
+ * @see Thread
+ */
+public enum ExecutionMode {
+
+	/**
+	 * Each task runs on an operating system thread
+	 */
+	PLATFORM,
+	/**
+	 * Each task runs on a virtual thread scheduled by the JVM
+	 */
+	VIRTUAL;
+
+	private static final ExecutionMode current = ExecutionMode.fromName(System.getProperty("inews.threads", "platform"));
+
+	/**
+	 * Returns the execution mode selected for this application
+	 * @return the selected execution mode
+	 */
+	public static ExecutionMode current() {
+		return current;
+	}
+
+	/**
+	 * Returns the execution mode with the provided name
+	 * If the name is unknown returns the platform mode
+	 * @param name name of the mode
+	 * @return the execution mode matching the name
+	 */
+	public static ExecutionMode fromName(String name) {
+		return "virtual".equalsIgnoreCase(name) ? VIRTUAL : PLATFORM;
+	}
+
+	/**
+	 * Creates a thread of this mode to run the task without starting it
+	 * @param name name of the thread
+	 * @param task task to run
+	 * @return the new thread
+	 */
+	public Thread newThread(String name, Runnable task) {
+
+		if (this == VIRTUAL)
+			return Thread.ofVirtual().name(name).unstarted(task);
+
+		return new Thread(task, name);
+	}
+
+	/**
+	 * Creates and starts a thread of this mode to run the task
+	 * @param name name of the thread
+	 * @param task task to run
+	 * @return the started thread
+	 */
+	public Thread start(String name, Runnable task) {
+
+		Thread thread = this.newThread(name, task);
+		thread.start();
+		return thread;
+	}
+}
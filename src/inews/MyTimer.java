@@ -1,25 +1,32 @@
 package inews;
 
+import inews.dataStructures.NewsIndex;
 import inews.dataStructures.UserStruct;
 import inews.interfaces.INewsWindow;
 import inews.interfaces.NewsWindowClient;
 import java.io.File;
-import java.io.FilenameFilter;
 import java.util.Iterator;
-import java.util.NavigableMap;
-import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * This class simulates a timer
+ * The news directory changes are applied by the NewsDirWatcher; while it is running the timer only scans the
+ * directory every RECONCILE_PERIOD to find changes that the watch service didn't report
  * @author Luis Portela
  * @see INewsWindow
  * @see NewsWindowClient
  */
-public class MyTimer extends Thread {
+public class MyTimer implements Runnable {
+	
+	/**
+	 * Default time between the scans of the news directory while it is watched, in milliseconds
+	 */
+	public static final long DEFAULT_RECONCILE_PERIOD = 600000;
 	
 	private static MyTimer mySelf = null;
+	private final long reconcilePeriod = Long.getLong("inews.news.reconcile", DEFAULT_RECONCILE_PERIOD);
+	private long lastNewsDirCheck = 0;
 	
 	private INewsWindow newsWindow = null;
 	private NewsWindowClient newsClient = null;
@@ -55,6 +62,16 @@ public class MyTimer extends Thread {
 		return mySelf;
 	}
 
+	/**
+	 * Starts the news directory watcher and the timer on a thread of the selected execution mode
+	 * @see ExecutionMode
+	 * @see NewsDirWatcher
+	 */
+	public void start() {
+		NewsDirWatcher.getInstance(this.newsWindow, this.newsClient).start();
+		ExecutionMode.current().start("MyTimer", this);
+	}
+
 	/**
 	 * Running timer
 	 */
@@ -65,10 +82,13 @@ public class MyTimer extends Thread {
 			
 			while (running) {
 				try {
-					this.logMessage("run()", "Vou Verificar noticias!");
-					
-					// checks the news dir for changes
-					this.checkNewsDir();
+					// checks the news dir for changes, only from time to time if the watcher is running
+					if ((!NewsDirWatcher.getInstance(this.newsWindow, this.newsClient).isRunning())
+							|| ((System.currentTimeMillis() - this.lastNewsDirCheck) >= this.reconcilePeriod)) {
+						this.logMessage("run()", "Vou Verificar noticias!");
+						this.checkNewsDir();
+						this.lastNewsDirCheck = System.currentTimeMillis();
+					}
 					// sleeps 30 seconds
 					Thread.sleep(30000);
 					
@@ -113,98 +133,28 @@ public class MyTimer extends Thread {
 	
 	/**
 	 * Checks the user news directory for changes
-	 * If the number of files is different sends the news list
-	 * If are different names sends the news list
-	 * If 
+	 * The news index only reads the files that are new or changed; if anything changed sends the news list
+	 * @see NewsIndex#refresh(java.io.File[]) 
 	 */
 	private synchronized void checkNewsDir() {
 		
-		UserStruct tmpUserStruct;
-		int sendPacket = 0;
+		NewsIndex newsIndex = NewsIndex.getInstance();
 		
-		File dir = new File("_news");
-		if (dir == null)
+		File[] listOfFiles = this.newsClient.readDirFiles();
+		if (listOfFiles == null)
 			return ;
 		
-		FilenameFilter filtro = new FilenameFilter() {
-
-			@Override
-			public boolean accept(File file, String string) {
-				return ((!string.startsWith(".")) && string.toLowerCase().endsWith("txt"));
-			}
-		};
-		
 		this.logMessage("checkNewsDir", "Directorio lido com sucesso!");
 		
-		File[] listOfFiles = dir.listFiles(filtro);
-		tmpUserStruct = this.newsWindow.getMe();
-		
-		if (tmpUserStruct.getTotalNews() != listOfFiles.length) {
-			this.logMessage("checkNewsDir", "Conteudo directorio diferente ler novamente!");
-			sendPacket = this.readNewsDir(listOfFiles, 0);
-		}
-		else {
-			this.logMessage("checkNewsDir", "Conteudo directorio parece igual mas vou ler novamente!");
-			sendPacket = this.readNewsDir(listOfFiles, 1);
-		}
-		
-		if (sendPacket == 1) {
+		if (newsIndex.refresh(listOfFiles)) {
+			this.logMessage("checkNewsDir", "Conteudo directorio diferente!");
+			newsIndex.updateUser(this.newsWindow.getMe());
 			this.logMessage("checkNewsDir", "A enviar a nova informacao!");
 			this.newsClient.sendMyInfo();	
 		}
 		
 	}
 	
-	/**
-	 * Reads the news directory
-	 * @param listOfFiles list of files
-	 * @param check what is needed to check
-	 * @return if the news directory is different
-	 */
-	private int readNewsDir(File[] listOfFiles, int check) {
-		
-		UserStruct tmpUser;
-		NavigableMap<Long, String> userNewsList, tmpList;
-		Long unixTimeStamp;
-		int differentValues = 0;
-
-		tmpUser = this.newsWindow.getMe();
-		int finalIdxName;
-		
-		if (check == 1) {
-			userNewsList = tmpUser.getNewsList();
-			tmpList = new TreeMap<Long, String>();
-
-			for (File newsFile : listOfFiles) {
-				System.out.println("Nome Noticia: "+newsFile.getName());
-				finalIdxName = newsFile.getName().lastIndexOf(".");
-				finalIdxName = finalIdxName != -1 ? finalIdxName : newsFile.getName().length();
-				unixTimeStamp = Long.parseLong(newsFile.getName().substring(0, finalIdxName));
-				tmpList.put(unixTimeStamp, newsFile.getName());
-				if ((differentValues == 0) && (!userNewsList.containsKey(unixTimeStamp))) {
-					this.logMessage("checkNewsDir", "Conteudo directorio diferente!");
-					differentValues = 1;
-					tmpUser.setNewsList(tmpList);
-				}
-			}
-//			if (differentValues == 1)
-//				tmpUser.setNewsList(tmpList);
-			
-		}
-		else {
-			tmpUser.clearNewsList();
-			for (File newsFile : listOfFiles) {
-				System.out.println("Nome Noticia: "+newsFile.getName());
-				finalIdxName = newsFile.getName().lastIndexOf(".");
-				finalIdxName = finalIdxName != -1 ? finalIdxName : newsFile.getName().length();
-				tmpUser.addNewToList(Long.parseLong(newsFile.getName().substring(0, finalIdxName)), newsFile.getName());
-				
-				differentValues = 1;
-			}
-		}
-		return differentValues;
-	}
-	
 	/**
 	 * Prints the message to the system output and to the news window log area
 	 * @param func
@@ -221,6 +171,7 @@ public class MyTimer extends Thread {
 	public void endTimer() {
 		try {
 			this.running = false;
+			NewsDirWatcher.getInstance(this.newsWindow, this.newsClient).endWatcher();
 			this.finalize();
 		} catch (Throwable ex) {
 			Logger.getLogger(MyTimer.class.getName()).log(Level.SEVERE, null, ex);
@@ -0,0 +1,225 @@
+package inews;
+
+import inews.dataStructures.NewsIndex;
+import inews.dataStructures.UserStruct;
+import inews.interfaces.INewsWindow;
+import inews.interfaces.NewsWindowClient;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.LinkedHashSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class watches the news directory and updates the local user news when a news file is created, changed or removed
+ * The events that arrive together are applied at once and the new information is sent to the other users
+ * If the file system doesn't support the watch service the changes are only found by the MyTimer scan
+ * @author Luis Portela
+ * @see WatchService
+ * @see MyTimer
+ * @see NewsIndex
+ */
+public class NewsDirWatcher implements Runnable {
+
+	/**
+	 * Default time to wait for more events before applying the changes, in milliseconds
+	 */
+	public static final long DEFAULT_SETTLE_TIME = 50;
+
+	private static NewsDirWatcher mySelf = null;
+
+	private INewsWindow newsWindow = null;
+	private NewsWindowClient newsClient = null;
+	private final long settleTime = Long.getLong("inews.watch.settle", DEFAULT_SETTLE_TIME);
+
+	private volatile boolean running = false;
+	private WatchService watchService = null;
+
+	/**
+	 * Initializes a new watcher with the provided information
+	 * @param newsWindow instance of the news window interface
+	 * @param newsClient instance of the news window client
+	 * @see INewsWindow
+	 * @see NewsWindowClient
+	 */
+	private NewsDirWatcher(INewsWindow newsWindow, NewsWindowClient newsClient) {
+
+		this.newsWindow = newsWindow;
+		this.newsClient = newsClient;
+	}
+
+	/**
+	 * Returns the instance of this class
+	 * If there is any instance of this class returns if otherwise creates a one
+	 * @param newsWindow instance of the news window interface
+	 * @param newsClient instance of the news window client
+	 * @return the unique instance of this class
+	 * @see INewsWindow
+	 * @see NewsWindowClient
+	 */
+	public static NewsDirWatcher getInstance(INewsWindow newsWindow, NewsWindowClient newsClient) {
+		if (mySelf == null)
+			mySelf = new NewsDirWatcher(newsWindow, newsClient);
+
+		return mySelf;
+	}
+
+	/**
+	 * Registers the news directory on the watch service and starts the watcher on a thread of the selected execution mode
+	 * @return true if the directory is being watched ; false otherwise
+	 * @see ExecutionMode
+	 */
+	public synchronized boolean start() {
+
+		if (this.running) {
+			return true;
+		}
+
+		try {
+			this.watchService = FileSystems.getDefault().newWatchService();
+			Paths.get("_news").register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+					StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+		} catch (IOException ex) {
+			this.logMessage("start", "Nao foi possivel observar o directorio de noticias!");
+			Logger.getLogger(NewsDirWatcher.class.getName()).log(Level.SEVERE, null, ex);
+			return false;
+		} catch (UnsupportedOperationException ex) {
+			this.logMessage("start", "O sistema de ficheiros nao permite observar o directorio de noticias!");
+			return false;
+		}
+
+		this.running = true;
+		ExecutionMode.current().start("NewsDirWatcher", this);
+
+		return true;
+	}
+
+	/**
+	 * Checks if the news directory is being watched
+	 * @return true if the watcher is running ; false otherwise
+	 */
+	public boolean isRunning() {
+		return this.running;
+	}
+
+	/**
+	 * Waits for the events of the news directory and applies them
+	 */
+	@Override
+	public void run() {
+
+		LinkedHashSet<String> changedFiles = new LinkedHashSet<String>();
+		boolean overflow;
+		WatchKey key;
+
+		try {
+			while (this.running) {
+
+				key = this.watchService.take();
+				overflow = false;
+
+				// junta os eventos que chegam seguidos, por exemplo durante a escrita de um ficheiro
+				do {
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							overflow = true;
+						}
+						else {
+							changedFiles.add(event.context().toString());
+						}
+					}
+					if (!key.reset()) {
+						this.logMessage("run()", "O directorio de noticias deixou de estar acessivel!");
+						this.running = false;
+						break;
+					}
+				} while ((key = this.watchService.poll(this.settleTime, TimeUnit.MILLISECONDS)) != null);
+
+				this.applyChanges(changedFiles, overflow);
+				changedFiles.clear();
+			}
+		} catch (InterruptedException ex) {
+			this.logMessage("run()", "Thread interrompida");
+		} catch (ClosedWatchServiceException ex) {
+			this.logMessage("run()", "Watcher terminado!");
+		}
+
+		this.running = false;
+	}
+
+	/**
+	 * Updates the news index and the local user with the changed files and sends the new information if needed
+	 * The local user is updated from the whole index, so a news changed in place also changes its checksum
+	 * @param changedFiles names of the files created, changed or removed
+	 * @param overflow true if some events were lost and the whole directory must be read
+	 * @see NewsIndex#update(java.io.File)
+	 */
+	private synchronized void applyChanges(LinkedHashSet<String> changedFiles, boolean overflow) {
+
+		NewsIndex newsIndex = NewsIndex.getInstance();
+		UserStruct me = this.newsWindow.getMe();
+		boolean changed = false;
+		long date;
+
+		if (me == null) {
+			return;
+		}
+
+		if (overflow) {
+			this.logMessage("applyChanges", "Eventos perdidos, vou ler o directorio todo!");
+			changed = newsIndex.refresh(this.newsClient.readDirFiles());
+		}
+		else {
+			for (String fileName : changedFiles) {
+				if (fileName.startsWith(".") || (!fileName.toLowerCase().endsWith("txt")) || ((date = NewsIndex.getDate(fileName)) == -1)) {
+					continue;
+				}
+
+				if (newsIndex.update(new File("_news", fileName))) {
+					changed = true;
+					if (newsIndex.getItems().containsKey(date)) {
+						this.logMessage("applyChanges", "Noticia adicionada ou alterada: " + fileName);
+					}
+					else {
+						this.logMessage("applyChanges", "Noticia removida: " + fileName);
+					}
+				}
+			}
+		}
+
+		if (changed) {
+			// a lista, o total, a data e o checksum vem do indice, como no MyTimer
+			newsIndex.updateUser(me);
+			this.logMessage("applyChanges", "A enviar a nova informacao!");
+			this.newsClient.sendMyInfo();
+		}
+	}
+
+	/**
+	 * Stops the watcher
+	 */
+	public synchronized void endWatcher() {
+
+		this.running = false;
+
+		if (this.watchService != null) {
+			try {
+				this.watchService.close();
+			} catch (IOException ex) {
+				Logger.getLogger(NewsDirWatcher.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
+	}
+
+	/**
+	 * Prints the message to the system output and to the news window log area
+	 * @param func function sending the message
+	 * @param message message to print
+	 */
+	private void logMessage(String func, String message) {
+		this.newsWindow.appendTextToLogArea("[NewsDirWatcher]:["+func+"] -> " + message);
+		System.out.println("[NewsDirWatcher]:["+func+"] -> " + message);
+	}
+}
@@ -0,0 +1,216 @@
+package inews.client;
+
+import inews.dataStructures.IPStruct;
+import inews.interfaces.INewsWindow;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of the TCP connections used to send the news on the binary stream, by address of the news receiver of the peer
+ * A connection confirmed at the end of a transfer is kept open and used by the next transfer to the same peer, so the
+ * repeated requests don't connect again; each peer has at most inews.news.poolSize connections and the other
+ * transfers wait for one of them, being sent one after the other on the open connections
+ *
+ * An idle connection is checked before being used again and is closed after inews.news.poolIdle milliseconds
+ * @author Luis Portela
+ * @see TCPClientNews
+ * @see inews.server.NewsReceiver
+ */
+public final class NewsConnectionPool {
+
+	/**
+	 * Default maximum number of connections to each peer
+	 */
+	public static final int DEFAULT_MAX_PER_PEER = 2;
+
+	/**
+	 * Default time an idle connection is kept open, in milliseconds
+	 * It is lower than the time the news receiver waits for data, so the connections are closed by this side
+	 */
+	public static final long DEFAULT_IDLE_TIME = 20000;
+
+	private static NewsConnectionPool mySelf = null;
+
+	private final int maxPerPeer = Integer.getInteger("inews.news.poolSize", DEFAULT_MAX_PER_PEER);
+	private final long idleTime = Long.getLong("inews.news.poolIdle", DEFAULT_IDLE_TIME);
+	// o IPStruct nao compara as portas, as ligacoes sao guardadas pelo endereco em texto
+	private final HashMap<String, Peer> peers = new HashMap<String, Peer>();
+	private final ScheduledThreadPoolExecutor idleSweeper;
+
+	/**
+	 * Initializes the pool and schedules the closing of the idle connections
+	 */
+	private NewsConnectionPool() {
+
+		long period = Math.max(1000, this.idleTime / 2);
+
+		this.idleSweeper = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "NewsConnectionSweeper");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.idleSweeper.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				closeIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Returns the instance of this class or creates a new one and returns if it doesn't exists
+	 * @return the connection pool
+	 */
+	public static synchronized NewsConnectionPool getInstance() {
+		if (mySelf == null)
+			mySelf = new NewsConnectionPool();
+
+		return mySelf;
+	}
+
+	/**
+	 * Returns an open connection to the peer or opens a new one
+	 * When the peer has the maximum of connections in use waits until one is released
+	 * @param destination address of the news receiver of the peer
+	 * @param newsWindow instance to the news window
+	 * @return connection to the peer, to be released at the end of the transfer
+	 * @throws IOException if a new connection can't be opened
+	 * @throws InterruptedException if the thread is interrupted while waiting
+	 * @see NewsConnectionPool#release(inews.client.TCPClientNews, boolean)
+	 */
+	public TCPClientNews acquire(IPStruct destination, INewsWindow newsWindow) throws IOException, InterruptedException {
+
+		String key = destination.toString();
+		TCPClientNews connection;
+		Peer peer;
+
+		synchronized (this) {
+			if ((peer = this.peers.get(key)) == null) {
+				peer = new Peer();
+				this.peers.put(key, peer);
+			}
+
+			while (true) {
+				// a ultima ligacao usada e a que tem menos probabilidade de ter sido fechada
+				while ((connection = peer.idle.pollLast()) != null) {
+					if (connection.isHealthy()) {
+						peer.inUse++;
+						return connection;
+					}
+					connection.endClient();
+				}
+				if (peer.inUse < this.maxPerPeer) {
+					peer.inUse++;
+					break;
+				}
+				this.wait();
+			}
+		}
+
+		try {
+			return new TCPClientNews(destination, newsWindow);
+		} catch (IOException ex) {
+			synchronized (this) {
+				peer.inUse--;
+				this.notifyAll();
+			}
+			throw ex;
+		}
+	}
+
+	/**
+	 * Returns a connection to the pool at the end of a transfer
+	 * @param connection connection acquired from the pool
+	 * @param reusable true if the transfer was confirmed and the connection can be used again ; false to close it
+	 */
+	public void release(TCPClientNews connection, boolean reusable) {
+
+		Peer peer;
+
+		synchronized (this) {
+			peer = this.peers.get(connection.getDestination().toString());
+			if (peer != null) {
+				peer.inUse--;
+				if (reusable) {
+					peer.idle.addLast(connection);
+				}
+			}
+			this.notifyAll();
+		}
+
+		if ((!reusable) || (peer == null)) {
+			connection.endClient();
+		}
+	}
+
+	/**
+	 * Closes the connections idle for more than the idle time and forgets the peers without connections
+	 */
+	private void closeIdle() {
+
+		LinkedList<TCPClientNews> expired = new LinkedList<TCPClientNews>();
+		long now = System.currentTimeMillis();
+
+		synchronized (this) {
+			Iterator<Peer> peersIt = this.peers.values().iterator();
+			while (peersIt.hasNext()) {
+				Peer peer = peersIt.next();
+				Iterator<TCPClientNews> it = peer.idle.iterator();
+				while (it.hasNext()) {
+					TCPClientNews connection = it.next();
+					if ((now - connection.getLastUsed()) > this.idleTime) {
+						expired.add(connection);
+						it.remove();
+					}
+				}
+				if (peer.idle.isEmpty() && (peer.inUse == 0)) {
+					peersIt.remove();
+				}
+			}
+		}
+
+		for (TCPClientNews connection : expired) {
+			connection.endClient();
+		}
+	}
+
+	/**
+	 * Closes all the idle connections
+	 * The connections in use are closed when released
+	 */
+	public void closeAll() {
+
+		LinkedList<TCPClientNews> idle = new LinkedList<TCPClientNews>();
+
+		synchronized (this) {
+			for (Peer peer : this.peers.values()) {
+				idle.addAll(peer.idle);
+			}
+			this.peers.clear();
+			this.notifyAll();
+		}
+
+		for (TCPClientNews connection : idle) {
+			connection.endClient();
+		}
+	}
+
+	/**
+	 * Connections of a peer
+	 */
+	private static final class Peer {
+
+		private final LinkedList<TCPClientNews> idle = new LinkedList<TCPClientNews>();
+		private int inUse = 0;
+	}
+}
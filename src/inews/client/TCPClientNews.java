@@ -1,15 +1,27 @@
 package inews.client;
 
 import inews.dataStructures.IPStruct;
+import inews.dataStructures.NewsIndex;
+import inews.dataStructures.NewsStream;
 import inews.interfaces.INewsWindow;
+import inews.interfaces.NewsStore;
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Class with functinons to connect to the TCP Server and send the information
- * When its created it reads the asked files and send it to the connected server
+ * The contents of the news are read from the news store and sent to the connected server, as text or on the binary
+ * stream with the files transferred directly to the socket
+ * The connections of the binary stream are kept on the connection pool to send other transfers to the same server
+ * @see inews.interfaces.NewsStore
+ * @see NewsStream
+ * @see NewsConnectionPool
  * @author Luis Portela
  */
 public class TCPClientNews {
@@ -19,6 +31,7 @@ public class TCPClientNews {
 	private final INewsWindow newsWindow;
 	private PrintWriter out = null;
 	private BufferedReader in = null;
+	private long lastUsed = System.currentTimeMillis();
 
 	/**
 	 * Initializes the TCP Client with the provided information
@@ -33,46 +46,145 @@ public class TCPClientNews {
 		this.newsWindow = newsWindow;
 		this.destServer = destServer;
 
-		// ligar ao servidor
-		this.clientSocket = new Socket(this.destServer.getIp(), this.destServer.getPort());
+		// ligar ao servidor, o socket tem um canal para a transferencia dos ficheiros sem copias
+		this.clientSocket = SocketChannel.open(new InetSocketAddress(this.destServer.getIp(), this.destServer.getPort())).socket();
+		// o inicio e o manifesto sao escritas pequenas que nao devem esperar pelo ack da transferencia anterior
+		this.clientSocket.setTcpNoDelay(true);
 		out = new PrintWriter(clientSocket.getOutputStream(), true);
 		in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
 	}
 
 	/**
-	 * Send the files to the connected server
-	 * @param listOfFiles list of files on the news directory
-	 * @param numOfFiles num of last files to read
-	 * @see File
+	 * Send the news to the connected server
+	 * @param readedFiles contents of the news separated by '\0'
+	 * @see inews.interfaces.NewsStore#readNews(java.util.List, boolean)
 	 */
-	public void sendFilesInfo(File[] listOfFiles, int numOfFiles) {
+	public void sendFilesInfo(String readedFiles) {
 		
-		boolean running = true;
-		int indexToRead = numOfFiles == 0 ? 0 : (listOfFiles.length - numOfFiles < 0 ? 0 : listOfFiles.length - numOfFiles);
-
-		String readedFiles = this.readFiles(listOfFiles, indexToRead);
+		String txt;
 		
 		out.println(readedFiles.split("\n").length);
 		
 //		out.println("TRANSMISSION_STARTED");
-		while (running == true) {
-			try {
-				out.println(readedFiles);
-				this.logMessage("sendFilesInfo", "Enviada string para servidor");
-				out.println("TRANSMISSION_OVER");
-				String txt = in.readLine();
-				while (!txt.equalsIgnoreCase("TRANSMISSION_OVER")) {
-					txt = in.readLine();
-				}
-				if (txt.equals("TRANSMISSION_OVER"))
-					running = false;
-			} catch (IOException ex) {
+		try {
+			out.println(readedFiles);
+			this.logMessage("sendFilesInfo", "Enviada string para servidor");
+			out.println("TRANSMISSION_OVER");
+			// sem resposta a ligacao foi terminada e nao se volta a enviar
+			txt = in.readLine();
+			while ((txt != null) && (!txt.equalsIgnoreCase("TRANSMISSION_OVER"))) {
+				txt = in.readLine();
+			}
+			if (txt == null) {
 				this.logMessage("sendFilesInfo", "A ligacao com o servidor foi terminada!");
 			}
+		} catch (IOException ex) {
+			this.logMessage("sendFilesInfo", "A ligacao com o servidor foi terminada!");
 		}
 		this.endClient();
 	}
 
+	/**
+	 * Sends the news to the connected server on the binary stream and waits for the confirmation
+	 * The news store writes the manifest and transfers the contents from the files to the socket; the server answers
+	 * TRANSMISSION_OVER when it received all and keeps the connection open for other transfer
+	 * @param newsStore store of the local news
+	 * @param news news of the news index to send, sorted by date
+	 * @param sequence sequence number of the NEWS message, to match the transfer to the request
+	 * @return true if the server confirmed the transfer and the connection can be used again ; false otherwise
+	 * @see NewsStore#transferNews(java.util.List, java.nio.channels.WritableByteChannel)
+	 * @see NewsConnectionPool
+	 */
+	public boolean transferNews(NewsStore newsStore, List<NewsIndex.Item> news, int sequence) {
+
+		SocketChannel channel = this.clientSocket.getChannel();
+		int sent;
+
+		try {
+			NewsStream.writeStart(sequence, channel);
+			sent = newsStore.transferNews(news, channel);
+			this.logMessage("transferNews", "Enviadas " + sent + " noticias para o servidor");
+			if ("TRANSMISSION_OVER".equals(this.readReply(channel))) {
+				this.lastUsed = System.currentTimeMillis();
+				return true;
+			}
+			this.logMessage("transferNews", "O servidor nao confirmou a rececao das noticias");
+		} catch (IOException ex) {
+			this.logMessage("transferNews", "A ligacao com o servidor foi terminada!");
+		}
+
+		return false;
+	}
+
+	/**
+	 * Checks if an idle connection can be used again
+	 * The socket is read without blocking: the server doesn't send anything between transfers, so any data or the end
+	 * of the connection means that it can't be used
+	 * @return true if the connection is open and without data ; false otherwise
+	 */
+	public boolean isHealthy() {
+
+		SocketChannel channel = this.clientSocket.getChannel();
+		int read;
+
+		if (!channel.isOpen() || !channel.isConnected()) {
+			return false;
+		}
+
+		try {
+			channel.configureBlocking(false);
+			try {
+				read = channel.read(ByteBuffer.allocate(1));
+			} finally {
+				channel.configureBlocking(true);
+			}
+			return read == 0;
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the address of the connected server
+	 * @return address of the server
+	 */
+	public IPStruct getDestination() {
+		return this.destServer;
+	}
+
+	/**
+	 * Returns the time of the end of the last confirmed transfer, or of the connection
+	 * @return time in milliseconds
+	 */
+	public long getLastUsed() {
+		return this.lastUsed;
+	}
+
+	/**
+	 * Reads one line answered by the server from the channel
+	 * @param channel channel of the connection
+	 * @return the line without the line break or null if the connection was closed
+	 * @throws IOException if the channel can't be read
+	 */
+	private String readReply(SocketChannel channel) throws IOException {
+
+		ByteArrayOutputStream reply = new ByteArrayOutputStream();
+		ByteBuffer read = ByteBuffer.allocate(1);
+
+		while (channel.read(read) != -1) {
+			if (read.position() == 0) {
+				continue;
+			}
+			if (read.get(0) == '\n') {
+				return reply.toString();
+			}
+			reply.write(read.get(0));
+			read.clear();
+		}
+
+		return null;
+	}
+
 	/**
 	 * Ends the client connection
 	 * Closes the socket and finalize this class
@@ -91,44 +203,6 @@ public class TCPClientNews {
 		}
 	}
 	
-	/**
-	 * Reads the files information
-	 * @param listOfFiles list of files on the news directory
-	 * @param startIndex index to start read
-	 * @return String with the content of the files without titles separated by \0
-	 */
-	private String readFiles(File[] listOfFiles, int startIndex) {
-
-		BufferedReader fileReader;
-		String line = null;
-		StringBuilder finalString = new StringBuilder();
-		
-		if (listOfFiles.length > 0) {
-			for (; startIndex < listOfFiles.length; startIndex++) {
-				try {
-					fileReader = new BufferedReader(new FileReader(listOfFiles[startIndex]));
-					try {
-						while ((line = fileReader.readLine()) != null) {
-							finalString.append(line + "\n");
-						}
-					} finally {
-						fileReader.close();
-					}
-					if (startIndex < (listOfFiles.length - 1)) {
-						finalString.append('\0');
-					}
-
-				} catch (IOException ex) {
-					this.logMessage("readTitlesFile", "Nao foi possivel abrir o ficheiro para leitura");
-
-					Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
-				}
-			}
-		}
-		
-		return finalString.toString();
-	}
-
 	/**
 	 * Prints the message to the system out and the log area of news window
 	 * @param func function sending the message
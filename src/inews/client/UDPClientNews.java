@@ -2,16 +2,30 @@ package inews.client;
 
 import inews.dataStructures.*;
 import inews.interfaces.INewsWindow;
+import inews.interfaces.NewsListener;
+import inews.interfaces.NewsStore;
 import inews.interfaces.NewsWindowClient;
 import inews.interfaces.UDPConnection;
-import inews.server.TCPServerNews;
+import inews.server.NewsReceiver;
 import inews.server.TransmissionHandler;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.text.SimpleDateFormat;
+import java.util.Base64;
+import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map.Entry;
 import java.util.NavigableMap;
+import java.util.NavigableSet;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -26,6 +40,29 @@ import java.util.logging.Logger;
 public final class UDPClientNews implements NewsWindowClient {
 	
 	public static final String DATE_FORMAT = "EEE, d MMM yyyy HH:mm:ss";
+	/**
+	 * Default time to wait for the next fragment of a titles list before requesting the missing ones, in milliseconds
+	 */
+	public static final long DEFAULT_FRAGMENT_TIMEOUT = 1000;
+	/**
+	 * Maximum number of requests of the missing fragments of a titles list
+	 */
+	public static final int MAX_FRAGMENTS_REQUESTS = 3;
+	/**
+	 * Default maximum size of the news answered in the NEWS_ACK instead of the TCP transfer, in bytes
+	 */
+	public static final int DEFAULT_INLINE_BYTES = 8 * 1024;
+	
+	private static final int TITLES_RETRIES = 3;
+	private static final int TITLES_TIMEOUT = 3000;
+	// indices por pedido de fragmentos em falta para o pedido caber num datagrama
+	private static final int MAX_MISSING_PER_REQUEST = 128;
+	// indices de fragmentos em falta por pedido de noticias, o resto do datagrama fica para as datas pedidas
+	private static final int MAX_INLINE_MISSING = 32;
+	private static final String NEWS_SEPARATOR = "\t\t------------------------------------------------------------\n";
+	private static final int PRINT_PART_SIZE = 64 * 1024;
+	// intervalo entre as duas mensagens ACTIVE e as duas mensagens BYE, em milisegundos
+	private static final long ANNOUNCE_INTERVAL = 2000;
 	
 	private static UDPClientNews mySelf = null;
 	private INewsWindow newsWindow = null;
@@ -33,12 +70,24 @@ public final class UDPClientNews implements NewsWindowClient {
 	private UDPConnection udpConn;
 	private UserStruct user = null;
 	private IPStruct broadcast = null;
-	private int sequenceNumber;
+	// os pedidos sao feitos pela thread da janela e pelas threads dos workers e dos timers
+	private final AtomicInteger sequenceNumber = new AtomicInteger(0);
 	
-	private TCPServerNews serverTCP;
+	private NewsReceiver newsReceiver = null;
+	// ultima transferencia que escreveu noticias na output area, so usada na thread de entrega do news receiver
+	private NewsPrinter lastPrinter = null;
 	private NavigableMap<String, Rank> usersRank = null;
 	private NavigableMap<String, Integer> usersCount = null;
 	private Integer usersListSize = null;
+	private final NavigableMap<Integer, TitlesFragments> pendingTitles = new TreeMap<Integer, TitlesFragments>();
+	private final long fragmentTimeout = Long.getLong("inews.titles.fragmentTimeout", DEFAULT_FRAGMENT_TIMEOUT);
+	private final NavigableMap<Integer, InlineNews> pendingNews = new TreeMap<Integer, InlineNews>();
+	private final int inlineBytes = Integer.getInteger("inews.news.inlineBytes", DEFAULT_INLINE_BYTES);
+	private final ConcurrentHashMap<String, TitlesCache> titlesCaches = new ConcurrentHashMap<String, TitlesCache>();
+	private final NewsStore newsStore = "segment".equalsIgnoreCase(System.getProperty("inews.store", "dir"))
+			? SegmentNewsStore.getInstance() : DirNewsStore.getInstance();
+	private final NewsCache newsCache = new NewsCache(Long.getLong("inews.news.cacheBytes", NewsCache.DEFAULT_MAX_BYTES),
+			System.getProperty("inews.news.cacheFile") != null ? new File(System.getProperty("inews.news.cacheFile")) : null);
 
 	/**
 	 * Private constructor to create an instance of this class
@@ -56,7 +105,6 @@ public final class UDPClientNews implements NewsWindowClient {
 		this.udpConn = conn;
 		this.user = user;
 		this.broadcast = broadcast;
-		this.sequenceNumber = 0;
 		this.newsWindow = (INewsWindow) newsWindow;
 	}
 	
@@ -192,15 +240,17 @@ public final class UDPClientNews implements NewsWindowClient {
 			// caso o utilizador tenha pedido para ver a lista de titulos de um utilizador
 			else if (tokens[0].equalsIgnoreCase("TITLES")) {
 				
-				if (tokens.length > 1) {			
+				LinkedList<MessageData> query = tokens.length > 1 ? this.parseTitlesQuery(tokens) : null;
+				
+				if (query != null) {			
 					UserStruct origDestination = this.newsWindow.getUserFromName(tokens[1].toString());
 					
 					if (origDestination != null) {
-						this.titlesPacket(sequenceNumber, origDestination.getIp());
+						this.requestTitles(origDestination, query);
 					}
 					else this.newsWindow.appendCommandResultToOutputArea(tokens[0] + " " + tokens[1], "O Utilizador nao existe!");
 				}
-				else this.newsWindow.appendCommandResultToOutputArea(tokens[0], "  Usage: titles <user>");
+				else this.newsWindow.appendCommandResultToOutputArea(tokens[0], "  Usage: titles <user> [--since <data>] [--until <data>] [--limit <n>]");
 				
 			}
 			// caso o utilizador tenha pedido para ver as noticias de um utilizador
@@ -218,7 +268,14 @@ public final class UDPClientNews implements NewsWindowClient {
 						// code before send the news from the TCP connection
 //						if (origDestination.getNewsList() == null) // caso o utilizador ainda não tenha a lista de noticias de um utilizador envia um titles para obte-la
 //							this.titlesPacket(this.getSequence(), origDestination.getIp());
-						this.newsPacket(this.getSequence(), origDestination.getIp(), newsCount);
+						LinkedList<String> cachedNews = this.newsCache.getNews(origDestination, newsCount);
+						
+						// sem noticias novas anunciadas pelo utilizador as noticias sao lidas da cache
+						if (cachedNews != null) {
+							this.logMessage("textAvailable", "Noticias de " + origDestination.getName() + " lidas da cache");
+							this.newsWindow.appendCommandResultToOutputArea("news " + origDestination.getName(), this.formatNews(cachedNews));
+						}
+						else this.newsPacket(this.getSequence(), origDestination, newsCount, this.newsCache.getCatchUp(origDestination, newsCount));
 					}
 					else this.newsWindow.appendCommandResultToOutputArea("", "O utilizador " + tokens[1] + " nao existe!");
 				}
@@ -230,8 +287,7 @@ public final class UDPClientNews implements NewsWindowClient {
 				
 				this.newsWindow.appendCommandResultToOutputArea(arg, "");
 				
-				this.closeApplication();
-				this.newsWindow.closeApplication("A fechar aplicacao", 0);
+				this.closeApplication(true);
 			}
 			else if (tokens[0].equalsIgnoreCase("CLEAR")) {
 				this.newsWindow.clearOutputArea();
@@ -245,6 +301,8 @@ public final class UDPClientNews implements NewsWindowClient {
 						"\nrank <nick>\n\tLista o rank do utilizador <nick>"+
 						"\nrank <nick> <valor>\n\tAtribui rank ao utilizador com o nick <nick>"+
 						"\n\ntitles <nick>\n\tPede e Lista os titulos das noticias do utilizador <nick>"+
+						"\ntitles <nick> [--since <data>] [--until <data>] [--limit <n>]\n\tLista os titulos das noticias de <nick> entre as datas"+
+						" (unix time stamp), no maximo <n> titulos; a resposta indica a proxima pagina"+
 						"\n\nnews <nick>\n\tPede e Lista todas as noticias do utilizador <nick>"+
 						"\nnews <nick> <num ultimas noticias>\n\tLista as <num ultimas noticias> do utilizador <nick>"+
 						"\n\nquit\n\tTermina aplicacao";
@@ -262,12 +320,14 @@ public final class UDPClientNews implements NewsWindowClient {
 	public void windowClosed() {
 		
 		System.out.println("[UDPClientNews]:[windowClosed] -> A Fechar aplicacao");
-		this.closeApplication();
+		this.closeApplication(false);
 	}
 
 	/**
 	 * Sends the initial ACTIVE packets when the application opens
-	 * Its called after the application start
+	 * Its called after the application start; the second ACTIVE, the PING and the enabling of the application are
+	 * scheduled on the transmission handler, so the window isn't blocked between the two ACTIVE
+	 * @see UDPConnection#schedule(java.lang.Runnable, long)
 	 */
 	@Override
 	public void windowOpened() {
@@ -277,34 +337,59 @@ public final class UDPClientNews implements NewsWindowClient {
 		this.activePacket(this.getSequence(), this.broadcast);
 		this.logMessage("windowOpened", "Enviadas mensagens ACTIVE");
 		
-		this.waitSomeTime(2);
-			
-		this.activePacket(this.getSequence(), this.broadcast);
-		this.logMessage("windowOpened", "Enviada segunda mensagem ACTIVE");
-		
-		this.pingPacket(this.getSequence(), this.broadcast, 2, 2000);
-		this.logMessage("windowOpened", "Enviada mensagem PING");
-		
-		this.newsWindow.enableApplication();
+		this.scheduleAnnounce(new Runnable() {
+
+			@Override
+			public void run() {
+				activePacket(getSequence(), broadcast);
+				logMessage("windowOpened", "Enviada segunda mensagem ACTIVE");
+
+				pingPacket(getSequence(), broadcast, 2, 2000);
+				logMessage("windowOpened", "Enviada mensagem PING");
+
+				newsWindow.enableApplication();
+			}
+		});
 	}
 	
 	/**
 	 * Sends the BYE messages and finalize the this class
+	 * The second BYE is scheduled on the transmission handler, which is only stopped after sending it
+	 * @param exit true to close the news window and exit the application after the second BYE
 	 */
-	private void closeApplication() {
+	private void closeApplication(final boolean exit) {
 		
 		this.logMessage("closeApplication", "Fechando a aplicacao");
 		
-		this.udpConn.setRunning(false);
+		if (this.newsReceiver != null) {
+			this.newsReceiver.endReceiver();
+			this.newsReceiver = null;
+		}
+		NewsConnectionPool.getInstance().closeAll();
 		
 		this.byePacket(this.getSequence(), this.broadcast);
 		logMessage("closeApplication", "Enviada primeira mensagem BYE");
 		
-		this.waitSomeTime(2);
-			
-		this.byePacket(this.getSequence(), this.broadcast);
-		logMessage("closeApplication", "Enviada segunda mensagem BYE");
-		
+		this.scheduleAnnounce(new Runnable() {
+
+			@Override
+			public void run() {
+				byePacket(getSequence(), broadcast);
+				logMessage("closeApplication", "Enviada segunda mensagem BYE");
+
+				finishClose(exit);
+			}
+		});
+	}
+
+	/**
+	 * Stops the transmission handler and finalize this class after the second BYE
+	 * @param exit true to close the news window and exit the application
+	 */
+	private void finishClose(boolean exit) {
+
+		this.udpConn.setRunning(false);
+
 		this.broadcast = null;
 		this.udpConn = null;
 		this.user = null;
@@ -314,6 +399,22 @@ public final class UDPClientNews implements NewsWindowClient {
 		} catch (Throwable ex) {
 			Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
 		}
+
+		if (exit) {
+			this.newsWindow.closeApplication("A fechar aplicacao", 0);
+		}
+	}
+
+	/**
+	 * Runs the second part of the ACTIVE or BYE announce after the announce interval on the transmission handler
+	 * If the transmission handler was already stopped the task runs right away
+	 * @param task second part of the announce
+	 */
+	private void scheduleAnnounce(Runnable task) {
+
+		if (this.udpConn.schedule(task, ANNOUNCE_INTERVAL) == null) {
+			task.run();
+		}
 	}
 	
 	/**
@@ -379,6 +480,10 @@ public final class UDPClientNews implements NewsWindowClient {
 			LinkedList<MessageData> tmpList = new LinkedList<MessageData>();
 			tmpList.add(new MessageData(MessageDataType.NUMBER, String.valueOf(this.user.getTotalNews())));
 			tmpList.add(new MessageData(MessageDataType.DATE, String.valueOf(this.user.getLastNewDate())));
+			// as versoes antigas falham com campos desconhecidos, por isso o broadcast nao tem o checksum
+			if ((!destination.equals(this.broadcast)) && this.udpConn.supportsExtensions(destination)) {
+				tmpList.add(new MessageData(MessageDataType.CHECKSUM, String.valueOf(this.user.getChecksum())));
+			}
 			Packet msg = new Packet(MessageType.ACTIVE, this.user, destination, sequence, tmpList);
 			this.sendPacket(msg);
 			this.logMessage("activePacket", "Enviada mensagem ACTIVE com o sequence number: " + sequence);		
@@ -436,217 +541,1081 @@ public final class UDPClientNews implements NewsWindowClient {
 	}
 	
 	/**
-	 * Creates a TITLES message and sends it to the Transmission Handler
-	 * This message have acknowledge and it's retransmited 3 times with a timeout of 3 seconds
-	 * @param sequence sequence number to be used in the message
-	 * @param destination unicast IP address of the user to send the message
-	 * @see Packet
-	 * @see MessageType
-	 * @see IPStruct
-	 * @see UDPClientNews#sendPacket(inews.dataStructures.Packet, int, int) 
+	 * Reads the options of the titles command
+	 * The dates are in unix time stamp like the DATE field of the titles
+	 * @param tokens words of the command, the options start after the user name
+	 * @return list with the SINCE, UNTIL and LIMIT fields, empty if there are no options, or null if an option is not valid
 	 */
-	private void titlesPacket(int sequence, IPStruct destination) {
+	private LinkedList<MessageData> parseTitlesQuery(String[] tokens) {
 		
-		try {
-			Packet tmpPacket = new Packet(MessageType.TITLES, this.user, destination, sequence, null);
-			this.sendPacket(tmpPacket, 3, 3000);
-			this.logMessage("titlesPacket", "Enviada mensagem TITLES com o sequence number: " + sequence);
-		} catch (IOException ex) {
-			Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
+		LinkedList<MessageData> query = new LinkedList<MessageData>();
+		MessageDataType key;
+		
+		for (int i = 2; i < tokens.length; i += 2) {
+			if (tokens[i].equalsIgnoreCase("--since")) {
+				key = MessageDataType.SINCE;
+			}
+			else if (tokens[i].equalsIgnoreCase("--until")) {
+				key = MessageDataType.UNTIL;
+			}
+			else if (tokens[i].equalsIgnoreCase("--limit")) {
+				key = MessageDataType.LIMIT;
+			}
+			else {
+				return null;
+			}
+			
+			if (i + 1 >= tokens.length) {
+				return null;
+			}
+			
+			try {
+				if ((key == MessageDataType.LIMIT ? Integer.parseInt(tokens[i + 1]) : Long.parseLong(tokens[i + 1])) < 0) {
+					return null;
+				}
+			} catch (NumberFormatException ex) {
+				return null;
+			}
+			
+			query.add(new MessageData(key, tokens[i + 1]));
 		}
+		
+		return query;
 	}
 	
 	/**
-	 * Creates a PROVIDES_TITLES message and sends it to the Transmission Handler
-	 * It is an answer to TITLES message and is send to the unicast address of the TITLES message sender
-	 * @param sequence sequence number to be used in the message
-	 * @param destination IP of the TITLES message sender
-	 * @see Packet
-	 * @see MessageType
-	 * @see IPStruct
-	 * @see UDPClientNews#sendPacket(inews.dataStructures.Packet, int, int) 
+	 * Shows the titles of a user using its titles cache when possible
+	 * When the user announced the same total of news, last news date and checksum of the cache the titles are shown without messages;
+	 * otherwise only the titles after the last news date of the cache are requested with the checksum of the cache, and the user
+	 * sends all the titles when its older news changed
+	 * The old versions don't know the page and checksum fields, so they are asked for all the titles
+	 * @param destination user of the titles
+	 * @param query SINCE, UNTIL and LIMIT fields to request only a page of the titles; empty to request all
+	 * @see TitlesCache
+	 * @see UDPClientNews#titlesPacket(int, inews.dataStructures.IPStruct, java.util.LinkedList, boolean) 
 	 */
-	@Override
-	public synchronized void provideTitlesPacket(int sequence, IPStruct destination) {
+	private void requestTitles(UserStruct destination, LinkedList<MessageData> query) {
 		
-		LinkedList<MessageData> titlesList;
-		Packet tmpPacket;
+		TitlesCache cache;
+		LinkedList<MessageData> deltaQuery;
 		
-		if ((titlesList = readTitleFiles(readDirFiles())) != null) {
-			try {
-				tmpPacket = new Packet(MessageType.PROVIDE_TITLES, this.user, destination, sequence, titlesList);
-				this.sendPacket(tmpPacket);
-			} catch (IOException ex) {
-				Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
-			}
+		// as versoes antigas nao conhecem os campos das paginas e falham com eles
+		if ((!query.isEmpty()) && (!this.udpConn.supportsExtensions(destination.getIp()))) {
+			this.logMessage("requestTitles", "Versao antiga de " + destination.getName() + " sem paginas, pedidos todos os titulos");
+			query = new LinkedList<MessageData>();
+		}
+		
+		cache = query.isEmpty() ? this.titlesCaches.get(destination.getName().toLowerCase()) : null;
+		
+		if ((cache != null) && cache.isCurrent(destination)) {
+			this.logMessage("requestTitles", "Titulos de " + destination.getName() + " sem alteracoes, usada a cache");
+			this.newsWindow.appendCommandResultToOutputArea("titles " + destination.getName(), this.formatTitles(destination.getName(), cache.getTitles()));
+		}
+		else if ((cache != null) && (cache.getChecksum() != -1) && this.udpConn.supportsExtensions(destination.getIp())) {
+			deltaQuery = new LinkedList<MessageData>();
+			deltaQuery.add(new MessageData(MessageDataType.SINCE, String.valueOf(cache.getNextSince())));
+			deltaQuery.add(new MessageData(MessageDataType.BASE, String.valueOf(cache.getChecksum())));
+			this.logMessage("requestTitles", "Pedidos titulos de " + destination.getName() + " desde " + cache.getNextSince());
+			this.titlesPacket(this.getSequence(), destination.getIp(), deltaQuery, true);
 		}
 		else {
-			this.logMessage("provideTitlesPacket", "Erro ao ler os ficheiros!");
+			this.titlesPacket(this.getSequence(), destination.getIp(), query, false);
 		}
 	}
 	
 	/**
-	 * Creates a NEWS message and sends it to the Transmission Handler and the TCP server to receive the news
-	 * It can retrieve all the messages from the user or only a number specified by the user
-	 * @param sequence sequence number to use on the packet
-	 * @param destination destinatino of the packet; the unicast address of the user to retrieve the news
-	 * @param newsCount number of latest news to retrieve
+	 * Creates a TITLES message and sends it to the Transmission Handler
+	 * This message have acknowledge and it's retransmited 3 times with a timeout of 3 seconds
+	 * The answer is waited on the pending titles list until all its fragments are received
+	 * @param sequence sequence number to be used in the message
+	 * @param destination unicast IP address of the user to send the message
+	 * @param query SINCE, UNTIL and LIMIT fields to request only a page of the titles; empty to request all
+	 * @param delta true if the query requests the titles newer than the titles cache
 	 * @see Packet
 	 * @see MessageType
 	 * @see IPStruct
-	 * @see MessageData
+	 * @see TitlesFragments
 	 * @see UDPClientNews#sendPacket(inews.dataStructures.Packet, int, int) 
 	 */
-	private void newsPacket(int sequence, IPStruct destination, int newsCount) {
-
-		LinkedList<MessageData> dataList = new LinkedList<MessageData>();
+	private void titlesPacket(int sequence, IPStruct destination, LinkedList<MessageData> query, boolean delta) {
+		
+		final TitlesFragments pending = new TitlesFragments(sequence, destination, query, delta);
+		
+		synchronized (this.pendingTitles) {
+			this.pendingTitles.put(sequence, pending);
+		}
+		
+		// se nao chegar nenhum fragmento a falta de resposta e tratada pelo ack da mensagem TITLES
+		// o pedido sai depois das retransmissoes, com mais uma de margem, calculadas com o RTT medido ao destino
+		pending.setTimer(this.udpConn.schedule(new Runnable() {
 
+			@Override
+			public void run() {
+				if (!pending.hasFragments()) {
+					removePendingTitles(pending);
+				}
+			}
+		}, this.udpConn.getAckTimeout(destination, TITLES_RETRIES + 1, TITLES_TIMEOUT)));
+		
 		try {
-			serverTCP = new TCPServerNews((INewsWindow) this.newsWindow, (this.broadcast.getPort() + 1001));
-			dataList.add(new MessageData(MessageDataType.NUMBER, String.valueOf(newsCount)));
-			dataList.add(new MessageData(MessageDataType.PORT, String.valueOf(serverTCP.getPort())));
-			Packet tmpPacket = new Packet(MessageType.NEWS, this.user, destination, sequence, dataList);
-			this.logMessage("newsPacket", "Enviada mensagem NEWS com o sequence number: " + sequence);
-			this.sendPacket(tmpPacket, 3, 3000);
+			// sem campos a mensagem fica igual a das versoes antigas
+			Packet tmpPacket = new Packet(MessageType.TITLES, this.user, destination, sequence, pending.isPage() ? query : null);
+			this.sendPacket(tmpPacket, TITLES_RETRIES, TITLES_TIMEOUT);
+			this.logMessage("titlesPacket", "Enviada mensagem TITLES com o sequence number: " + sequence);
 		} catch (IOException ex) {
-			this.logMessage("newsPacket", "Não foi possivel enviar a mensagem de news");
-			dataList = null;
-			this.serverTCP = null;
+			Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
 		}
 	}
 	
 	/**
-	 * Creates a NEWS_ACK message and sends it to the Transmission Handler
-	 * It is normally send to response a NEWS message
-	 * @param sequence sequence number to be used in the message
-	 * @param destination unicast address of the NEWS sender
-	 * @see Packet
-	 * @see MessageType
-	 * @see IPStruct
-	 * @see UDPClientNews#sendPacket(inews.dataStructures.Packet) 
+	 * Creates a TITLES message requesting the fragments not received of a titles list
+	 * It uses the sequence number and the page fields of the original request and has no acknowledge; the missing fragments are the answer
+	 * @param pending titles list being received
+	 * @see TitlesFragments
 	 */
-	@Override
-	public synchronized void newsAckPacket(int sequence, IPStruct destination) {
+	private void missingTitlesPacket(TitlesFragments pending) {
+		
+		LinkedList<MessageData> dataList = new LinkedList<MessageData>();
+		
 		try {
-			Packet tmpPacket = new Packet(MessageType.NEWS_ACK, this.user, destination, sequence, null);
+			if (pending.isPage()) {
+				dataList.addAll(pending.getQuery());
+			}
+			dataList.add(new MessageData(MessageDataType.MISSING, pending.getMissing(MAX_MISSING_PER_REQUEST)));
+			Packet tmpPacket = new Packet(MessageType.TITLES, this.user, pending.getSource(), pending.getSequence(), dataList);
 			this.sendPacket(tmpPacket);
+			this.logMessage("missingTitlesPacket", "Pedidos fragmentos em falta da mensagem " + pending.getSequence() + ": " + dataList.getLast().getValue());
 		} catch (IOException ex) {
 			Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
 		}
 	}
 	
 	/**
-	 * Creates a RANK message and sends it to the Transmission Handler
-	 * It's send to an user to retrieve ohter user rank
+	 * Creates a PROVIDES_TITLES message and sends it to the Transmission Handler
+	 * It is an answer to TITLES message and is send to the unicast address of the TITLES message sender
+	 * When the titles don't fit in a datagram the answer is split in fragments with the fields FRAGMENT, FRAGMENTS and NUMBER;
+	 * an answer with only one fragment is sent as before, and the old versions, that fail on the fragment fields, only receive
+	 * the titles of the first fragment
+	 * The page is a view of the news index sorted by date, so the titles are sent without reading the news files;
+	 * when there are more news after the limit or after TitlesFragments.MAX_FRAGMENTS fragments the answer has the SINCE field
+	 * with the date of the next one
+	 * The answers to the new versions have the checksum of the news; when the request has the checksum of the older news
+	 * of the sender the newer titles are only sent if it matches, with the BASE field repeated, and all the titles otherwise
 	 * @param sequence sequence number to be used in the message
-	 * @param destination unicast address of the user to send the message
-	 * @param nick user identification to retrieve the rank
-	 * @see MessageData
+	 * @param destination IP of the TITLES message sender
+	 * @param since date of the oldest news to send
+	 * @param until date of the newest news to send
+	 * @param limit maximum number of news to send or 0 to send all
+	 * @param missing indexes of the fragments to send again separated by commas or null to send all
+	 * @param base checksum of the news before since that the sender has or -1 if it didn't send it
 	 * @see Packet
 	 * @see MessageType
 	 * @see IPStruct
 	 * @see UDPClientNews#sendPacket(inews.dataStructures.Packet, int, int) 
 	 */
-	private void rankPacket(int sequence, IPStruct destination, String nick) {
+	@Override
+	public synchronized void provideTitlesPacket(int sequence, IPStruct destination, long since, long until, int limit, String missing, long base) {
+		
+		LinkedList<MessageData> titlesList, headerList = new LinkedList<MessageData>(), fragmentList;
+		LinkedList<LinkedList<MessageData>> fragments;
+		NavigableMap<Long, NewsIndex.Item> news = NewsIndex.getInstance().getItems(), page;
+		Iterator<Long> dates;
+		Packet tmpPacket;
 		
 		try {
-			LinkedList<MessageData> dataList = new LinkedList<MessageData>();
-			dataList.add(new MessageData(MessageDataType.TARGET, nick));
-			Packet tmpPacket = new Packet(MessageType.RANK, this.user, destination, sequence, dataList);
-			this.sendPacket(tmpPacket, 3, 3000);
+			// as noticias anteriores foram alteradas ou removidas, o pedido passa a ser de todos os titulos
+			if ((base != -1) && (NewsIndex.getInstance().getChecksum(since) != base)) {
+				this.logMessage("provideTitlesPacket", "Checksum das noticias anteriores a " + since + " diferente, enviados todos os titulos");
+				since = 0;
+				base = -1;
+			}
+			
+			page = since <= until ? news.subMap(since, true, until, true) : new TreeMap<Long, NewsIndex.Item>();
+			
+			// corta a pagina na data da primeira noticia depois do limite
+			if (limit > 0) {
+				dates = page.navigableKeySet().iterator();
+				for (int i = 0; (i < limit) && dates.hasNext(); i++) {
+					dates.next();
+				}
+				if (dates.hasNext()) {
+					long nextSince = dates.next();
+					page = page.headMap(nextSince, false);
+					headerList.add(new MessageData(MessageDataType.SINCE, String.valueOf(nextSince)));
+				}
+			}
+			
+			titlesList = this.readTitles(page);
+			headerList.addFirst(titlesList.removeFirst());
+			fragments = this.splitTitles(titlesList);
+			
+			if (!this.udpConn.supportsExtensions(destination)) {
+				fragmentList = new LinkedList<MessageData>();
+				fragmentList.add(new MessageData(MessageDataType.NUMBER, String.valueOf(fragments.getFirst().size() / 2)));
+				fragmentList.addAll(fragments.getFirst());
+				tmpPacket = new Packet(MessageType.PROVIDE_TITLES, this.user, destination, sequence, fragmentList);
+				this.sendPacket(tmpPacket);
+				if (fragments.size() > 1) {
+					this.logMessage("provideTitlesPacket", "Versao antiga sem fragmentos, enviados " + fragments.getFirst().size() / 2 + " de " + page.size() + " titulos");
+				}
+				return;
+			}
+			
+			// o requerente ignora respostas com mais fragmentos, os restantes titulos ficam para a pagina seguinte
+			if (fragments.size() > TitlesFragments.MAX_FRAGMENTS) {
+				int kept = 0;
+				while (fragments.size() > TitlesFragments.MAX_FRAGMENTS) {
+					fragments.removeLast();
+				}
+				for (LinkedList<MessageData> fragment : fragments) {
+					kept += fragment.size() / 2;
+				}
+				dates = page.navigableKeySet().iterator();
+				for (int i = 0; i < kept; i++) {
+					dates.next();
+				}
+				headerList.clear();
+				headerList.add(new MessageData(MessageDataType.NUMBER, String.valueOf(kept)));
+				headerList.add(new MessageData(MessageDataType.SINCE, String.valueOf(dates.next())));
+			}
+			
+			headerList.add(new MessageData(MessageDataType.CHECKSUM, String.valueOf(NewsIndex.getInstance().getChecksum(Long.MAX_VALUE))));
+			if (base != -1) {
+				headerList.add(new MessageData(MessageDataType.BASE, String.valueOf(base)));
+			}
+			
+			if ((fragments.size() == 1) && (missing == null)) {
+				headerList.addAll(titlesList);
+				tmpPacket = new Packet(MessageType.PROVIDE_TITLES, this.user, destination, sequence, headerList);
+				this.sendPacket(tmpPacket);
+				return;
+			}
 			
+			for (int i = 0; i < fragments.size(); i++) {
+				if ((missing == null) || isFragmentMissing(missing, i)) {
+					fragmentList = new LinkedList<MessageData>();
+					fragmentList.add(new MessageData(MessageDataType.FRAGMENT, String.valueOf(i)));
+					fragmentList.add(new MessageData(MessageDataType.FRAGMENTS, String.valueOf(fragments.size())));
+					fragmentList.addAll(headerList);
+					fragmentList.addAll(fragments.get(i));
+					tmpPacket = new Packet(MessageType.PROVIDE_TITLES, this.user, destination, sequence, fragmentList);
+					this.sendPacket(tmpPacket);
+				}
+			}
+			this.logMessage("provideTitlesPacket", "Enviados titulos em " + fragments.size() + " fragmentos" + (missing != null ? " (em falta: " + missing + ")" : ""));
 		} catch (IOException ex) {
 			Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
 		}
 	}
 	
 	/**
-	 * Creates a RANK_ACK message and sends it to the Transmission Handler
-	 * It is normally send to response a RANK message
-	 * It sends the rank of a requested user
-	 * @param sequence sequence number to be used on the message
-	 * @param destination unicast address of the user to send the message
-	 * @param targetUser user identification of the user who's rank is been asked
-	 * @see Packet
-	 * @see MessageType
-	 * @see IPStruct
-	 * @see MessageData
-	 * @see MessageDataType
+	 * Splits the titles in groups that fit in a datagram with the fragment fields
+	 * The size is calculated with the text encoding that is bigger than the binary
+	 * @param titlesList list with the TITLE and DATE fields
+	 * @return list with the TITLE and DATE fields of each fragment
+	 * @see Packet#MAX_DATAGRAM_SIZE
 	 */
-	@Override
-	public synchronized void rankAckPacket(int sequence, IPStruct destination, String targetUser) {
-
-		UserStruct tmpUser = this.newsWindow.getUserFromName(targetUser);
-		if ((tmpUser != null) && (tmpUser.getRank() != 0)) {
-			try {
-				LinkedList<MessageData> dataList = new LinkedList<MessageData>();
-				dataList.add(new MessageData(MessageDataType.TARGET, targetUser));
-				dataList.add(new MessageData(MessageDataType.SCORE, String.valueOf(tmpUser.getRank())));
-				Packet tmpPacket = new Packet(MessageType.RANK_ACK, this.user, destination, sequence, dataList);
-				this.sendPacket(tmpPacket);
-				this.logMessage("rankAckPacket", "Enviada mensagem de RANK_ACK");
-			} catch (IOException ex) {
-				Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
+	private LinkedList<LinkedList<MessageData>> splitTitles(LinkedList<MessageData> titlesList) {
+		
+		LinkedList<LinkedList<MessageData>> fragments = new LinkedList<LinkedList<MessageData>>();
+		LinkedList<MessageData> fragment = new LinkedList<MessageData>();
+		Iterator<MessageData> it = titlesList.iterator();
+		MessageData title, date;
+		int size = 0, pairSize;
+		// cabecalho com os maiores valores possiveis e o anuncio do codec depois do '\0'
+		int budget = Packet.MAX_DATAGRAM_SIZE - 32 - ("PROVIDE_TITLES\nUSER: " + this.user.getName() + "\nSEQUENCE: -2147483648\nFRAGMENT: 2147483647\n"
+				+ "FRAGMENTS: 2147483647\nNUMBER: 2147483647\nSINCE: -9223372036854775808\nCHECKSUM: 4294967295\nBASE: 4294967295\n").getBytes().length;
+		
+		while (it.hasNext()) {
+			title = it.next();
+			date = it.hasNext() ? it.next() : new MessageData(MessageDataType.DATE, "0");
+			pairSize = fieldSize(title) + fieldSize(date);
+			
+			// um titulo que sozinho nao cabe no datagrama e cortado
+			if (pairSize > budget) {
+				String value = title.getValue();
+				while ((pairSize > budget) && (value.length() > 0)) {
+					value = value.substring(0, value.length() - 1);
+					title = new MessageData(MessageDataType.TITLE, value);
+					pairSize = fieldSize(title) + fieldSize(date);
+				}
+			}
+			
+			if ((size + pairSize > budget) && (!fragment.isEmpty())) {
+				fragments.add(fragment);
+				fragment = new LinkedList<MessageData>();
+				size = 0;
 			}
+			
+			fragment.add(title);
+			fragment.add(date);
+			size += pairSize;
 		}
+		
+		fragments.add(fragment);
+		
+		return fragments;
 	}
 	
 	/**
-	 * Creates a BYE message and sends it to the Transmission Handler
-	 * This message is send to the broadcast address
-	 * @param sequence sequence number to be used on the message
-	 * @param destination broadcast address
-	 * @see Packet
-	 * @see MessageType
-	 * @see IPStruct
-	 * @see UDPClientNews#sendPacket(inews.dataStructures.Packet) 
+	 * Returns the size of a field in the text encoding
+	 * @param field field of the message
+	 * @return size in bytes with the end of line
 	 */
-	private void byePacket(int sequence, IPStruct destination) {
+	private static int fieldSize(MessageData field) {
+		return (field.getKey() + ": " + field.getValue() + "\n").getBytes().length;
+	}
+	
+	/**
+	 * Checks if the index is in the list of missing fragments
+	 * @param missing indexes separated by commas
+	 * @param index index of the fragment
+	 * @return true if the fragment is missing ; false otherwise
+	 */
+	private static boolean isFragmentMissing(String missing, int index) {
 		
-		try {
-			Packet tmpPacket = new Packet(MessageType.BYE, this.user, destination, sequence, null);
-			this.sendPacket(tmpPacket);
-			this.logMessage("byePacket", "Enviada mensagem BYE com o sequence number: " + sequence);
-		} catch (IOException ex) {
-			Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
+		for (String token : missing.split(",")) {
+			if (token.trim().equals(String.valueOf(index))) {
+				return true;
+			}
 		}
 		
+		return false;
 	}
 	
-	/* --------------------------------------------------------------------------------------------------------------- */
-	
 	/**
-	 * Sends RANK messages to all the connected users requesting a user rank
-	 * It creates the lists to calculate the rank when all the messages are received
-	 * @param userNick name of the user to get the rank
-	 * @see UserStruct
-	 * @see UDPClientNews#rankPacket(int, inews.dataStructures.IPStruct, java.lang.String) 
-	 * @see INewsWindow#getUserListIterator() 
+	 * Processes a received PROVIDE_TITLES message or fragment
+	 * The messages without fragment fields are the answers of the old versions and are the only fragment of the list
+	 * When a fragment is missing for some time the missing fragments are requested again up to MAX_FRAGMENTS_REQUESTS times
+	 * @param packet received message
+	 * @see TitlesFragments
 	 */
-	private synchronized void getRankForUser(String userNick) {
+	@Override
+	public void receiveTitles(Packet packet) {
 		
-		UserStruct tmpUser;
-		Iterator<UserStruct> usersList = this.newsWindow.getUserListIterator();
+		final TitlesFragments pending;
+		LinkedList<MessageData> titles = new LinkedList<MessageData>();
+		int index = 0, count = 1, total = -1;
 		
-		if ((tmpUser = this.newsWindow.getUserFromName(userNick)) != null) {
-			this.usersCount.put(userNick, 1);
-			this.usersRank.put(userNick, new Rank(tmpUser.getRank(), 1));
+		synchronized (this.pendingTitles) {
+			pending = this.pendingTitles.get(packet.getSequence());
 		}
-		else {
-			this.usersCount.put(userNick, 0);
-			this.usersRank.put(userNick, new Rank());
+		
+		if ((pending == null) || (packet.getDataList() == null)) {
+			this.logMessage("receiveTitles", "Ignorados titulos sem pedido com o sequence number: " + packet.getSequence());
+			return;
 		}
 		
-		while (usersList.hasNext()) {
-			tmpUser = usersList.next();
-			if (!userNick.toString().equals(tmpUser.getName().toString())) {
-				this.rankPacket(this.getSequence(), tmpUser.getIp(), userNick);
-				this.logMessage("getRankForUser", "Enviado pedido rank para utilizador " + tmpUser.getName());
+		try {
+			for (MessageData field : packet.getDataList()) {
+				switch (field.getKey()) {
+					case FRAGMENT: {
+						index = Integer.parseInt(field.getValue());
+						break;
+					}
+					case FRAGMENTS: {
+						count = Integer.parseInt(field.getValue());
+						break;
+					}
+					case NUMBER: {
+						total = Integer.parseInt(field.getValue());
+						break;
+					}
+					case SINCE: {
+						pending.setNextSince(Long.parseLong(field.getValue()));
+						break;
+					}
+					case CHECKSUM: {
+						pending.setChecksum(Long.parseLong(field.getValue()));
+						break;
+					}
+					case BASE: {
+						pending.setBase(Long.parseLong(field.getValue()));
+						break;
+					}
+					case TITLE:
+					case DATE: {
+						titles.add(field);
+						break;
+					}
+				}
 			}
+		} catch (NumberFormatException ex) {
+			this.logMessage("receiveTitles", "Fragmento mal formado!");
+			return;
 		}
-	}
-	
-	/**
+		
+		if (!pending.addFragment(index, count, total, titles)) {
+			return;
+		}
+		
+		if (pending.isComplete()) {
+			pending.setTimer(null);
+			if (this.removePendingTitles(pending)) {
+				this.processTitles(packet.getUser().getName(), pending);
+			}
+			return;
+		}
+		
+		final String titlesUser = packet.getUser().getName();
+		
+		// espera pelo proximo fragmento; se nao chegar pede os que faltam
+		pending.setTimer(this.udpConn.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				checkMissingTitles(titlesUser, pending, this);
+			}
+		}, this.fragmentTimeout));
+	}
+	
+	/**
+	 * Requests the missing fragments of a titles list or gives up if there were too many requests
+	 * @param titlesUser user that is sending the titles
+	 * @param pending titles list being received
+	 * @param task task that checks the fragments, scheduled again after the request
+	 */
+	private void checkMissingTitles(String titlesUser, TitlesFragments pending, Runnable task) {
+		
+		if (pending.isComplete()) {
+			return;
+		}
+		
+		if (pending.newRequest() <= MAX_FRAGMENTS_REQUESTS) {
+			this.missingTitlesPacket(pending);
+			pending.setTimer(this.udpConn.schedule(task, this.fragmentTimeout));
+		}
+		else if (this.removePendingTitles(pending)) {
+			this.newsWindow.appendCommandResultToOutputArea("titles " + titlesUser, "\nLista de titulos incompleta: recebidos "
+					+ pending.getReceivedFragments() + " de " + pending.getFragmentsCount() + " fragmentos!");
+		}
+	}
+	
+	/**
+	 * Removes a titles list from the pending list
+	 * @param pending titles list to remove
+	 * @return true if it was removed by this call ; false if it was already removed
+	 */
+	private boolean removePendingTitles(TitlesFragments pending) {
+		synchronized (this.pendingTitles) {
+			return this.pendingTitles.remove(pending.getSequence()) == pending;
+		}
+	}
+	
+	/**
+	 * Prints the received titles and saves them on the user that sent them
+	 * The titles of a page are added to the titles already known of the user
+	 * A complete list is kept on the titles cache of the user and the answer to a delta request is added to it when it repeats
+	 * the checksum of the cache; otherwise the answer has all the titles and replaces the cache
+	 * @param titlesUser user that sent the titles
+	 * @param pending titles list with all the fragments
+	 * @see TitlesCache
+	 */
+	private void processTitles(String titlesUser, TitlesFragments pending) {
+		
+		LinkedList<MessageData> titlesList = pending.getTitles();
+		NavigableMap<Long, String> userTitlesList;
+		MessageData tmpEntry1, tmpEntry2;
+		String commandResult;
+		TitlesCache cache;
+		UserStruct tmpUser;
+		
+		if (pending.getTotalTitles() == ((int) titlesList.size() / 2)) {
+			userTitlesList = new TreeMap<Long, String>();
+			
+			while ((tmpEntry1 = titlesList.pollFirst()) != null) {
+				tmpEntry2 = titlesList.pollFirst();
+				userTitlesList.put(Long.parseLong(tmpEntry2.getValue()), tmpEntry1.getValue());
+			}
+			
+			tmpUser = this.newsWindow.getUserFromName(titlesUser);
+			
+			cache = pending.isDelta() ? this.titlesCaches.get(titlesUser.toLowerCase()) : null;
+			
+			if ((cache != null) && (pending.getBase() != -1) && (pending.getBase() == cache.getChecksum())) {
+				cache.merge(userTitlesList, pending.getChecksum());
+				this.logMessage("processTitles", "Adicionados " + userTitlesList.size() + " titulos a cache de " + titlesUser);
+				commandResult = this.formatTitles(titlesUser, cache.getTitles());
+				if (tmpUser != null) {
+					tmpUser.setNewsList(cache.getTitles());
+				}
+			}
+			else {
+				// uma resposta cortada pelo limite de fragmentos nao tem todos os titulos
+				if (((!pending.isPage()) || pending.isDelta()) && (pending.getNextSince() == -1)) {
+					this.titlesCaches.put(titlesUser.toLowerCase(), new TitlesCache(userTitlesList, pending.getChecksum()));
+				}
+				commandResult = this.formatTitles(titlesUser, userTitlesList);
+				if (tmpUser != null) {
+					if (pending.isPage() && (!pending.isDelta()) && (tmpUser.getNewsList() != null)) {
+						tmpUser.getNewsList().putAll(userTitlesList);
+					}
+					else {
+						tmpUser.setNewsList(userTitlesList);
+					}
+				}
+			}
+			if (pending.getNextSince() != -1) {
+				commandResult += "\nProxima pagina: titles " + titlesUser + " --since " + pending.getNextSince() + this.titlesQueryOptions(pending, MessageDataType.UNTIL, MessageDataType.LIMIT) + "\n";
+			}
+		}
+		else {
+			commandResult = "\nA lista de titulos não está consistente com o campo NUMBER!";
+		}
+		
+		this.newsWindow.appendCommandResultToOutputArea("titles " + titlesUser, commandResult);
+	}
+	
+	/**
+	 * Writes a titles list to be printed
+	 * @param titlesUser user of the titles
+	 * @param titles titles indexed by date
+	 * @return string with the titles and their dates
+	 */
+	private String formatTitles(String titlesUser, NavigableMap<Long, String> titles) {
+		
+		StringBuilder commandResult = new StringBuilder();
+		
+		commandResult.append("\ntitles ").append(titlesUser).append(" - Total: ").append(titles.size());
+		commandResult.append("\n\n<title>\t\t\t\t<data da noticia>\n");
+		
+		for (Entry<Long, String> title : titles.entrySet()) {
+			commandResult.append("\n").append(title.getValue());
+			commandResult.append("\t\t").append(formatDate(title.getKey())).append("\n");
+		}
+		
+		return commandResult.toString();
+	}
+	
+	/**
+	 * Writes the options of the titles command used to request a page
+	 * @param pending titles list requested
+	 * @param keys fields to write
+	 * @return string with the options
+	 */
+	private String titlesQueryOptions(TitlesFragments pending, MessageDataType... keys) {
+		
+		StringBuilder options = new StringBuilder();
+		
+		for (MessageDataType key : keys) {
+			for (MessageData field : pending.getQuery()) {
+				if (field.getKey() == key) {
+					options.append(" --").append(key.name().toLowerCase()).append(' ').append(field.getValue());
+				}
+			}
+		}
+		
+		return options.toString();
+	}
+	
+	/**
+	 * Formats the date
+	 * @param unixTimeStamp date in unix time stamp
+	 * @return String with the date
+	 */
+	private static String formatDate(long unixTimeStamp) {
+		
+		SimpleDateFormat dateFormat = new SimpleDateFormat(DATE_FORMAT);
+		return dateFormat.format(new Date(unixTimeStamp * 1000));
+	}
+	
+	/**
+	 * Creates a NEWS message and sends it to the Transmission Handler, registering the request on the news receiver
+	 * It can retrieve all the messages from the user or only a number specified by the user
+	 * The date of each news is requested to the new versions so the news can be kept on the news cache
+	 * The binary stream is requested to the new versions if enabled; the news receiver also accepts the text transfer of the old nodes
+	 * The small news can be answered in the NEWS_ACK, without the TCP transfer
+	 * When the news cache has the listing of the user only the news newer than the listing (SINCE field) and the news whose
+	 * contents aren't on the cache (DATES field) are requested, with the checksum of the listing (BASE field); the other news
+	 * are printed from the cache. The old nodes fail on these fields, so all the news are requested to them
+	 * @param sequence sequence number to use on the packet, that matches the transfer to this request
+	 * @param destination user to retrieve the news
+	 * @param newsCount number of latest news to retrieve
+	 * @param catchUp news to request to complete the news cache or null to request all
+	 * @see Packet
+	 * @see MessageType
+	 * @see NewsReceiver
+	 * @see MessageData
+	 * @see NewsCache#getCatchUp(inews.dataStructures.UserStruct, int)
+	 * @see UDPClientNews#sendPacket(inews.dataStructures.Packet, int, int) 
+	 */
+	private void newsPacket(int sequence, UserStruct destination, int newsCount, NewsCache.CatchUp catchUp) {
+
+		LinkedList<MessageData> dataList = new LinkedList<MessageData>();
+		LinkedList<MessageData> query = new LinkedList<MessageData>();
+
+		query.add(new MessageData(MessageDataType.NUMBER, String.valueOf(newsCount)));
+		if ((catchUp != null) && (!this.udpConn.supportsExtensions(destination.getIp()))) {
+			catchUp = null;
+		}
+		if (catchUp != null) {
+			if (catchUp.getSince() != Long.MAX_VALUE) {
+				query.add(new MessageData(MessageDataType.SINCE, String.valueOf(catchUp.getSince())));
+			}
+			if (!catchUp.getMissing().isEmpty()) {
+				query.add(new MessageData(MessageDataType.DATES, this.formatDates(catchUp.getMissing())));
+			}
+			// as datas em falta tem de caber num datagrama, senao sao pedidas todas as noticias
+			if (fieldSize(query.getLast()) > this.datesBudget()) {
+				this.logMessage("newsPacket", "Demasiadas noticias em falta na cache, pedidas todas as noticias");
+				query.subList(1, query.size()).clear();
+				catchUp = null;
+			}
+			else {
+				query.add(new MessageData(MessageDataType.BASE, String.valueOf(catchUp.getBase())));
+				this.logMessage("newsPacket", "Pedidas apenas as noticias de " + destination.getName() + " que faltam na cache");
+			}
+		}
+
+		try {
+			if (this.newsReceiver == null) {
+				this.newsReceiver = NewsReceiver.getInstance((INewsWindow) this.newsWindow, (this.broadcast.getPort() + 1001));
+			}
+			this.newsReceiver.expect(sequence, destination.getIp(), new NewsPrinter(destination.getName(), query, newsCount, catchUp));
+			dataList.addAll(query);
+			dataList.add(new MessageData(MessageDataType.PORT, String.valueOf(this.newsReceiver.getPort())));
+			// as versoes antigas falham com campos desconhecidos e enviam as noticias sem data
+			if (this.udpConn.supportsExtensions(destination.getIp())) {
+				dataList.add(new MessageData(MessageDataType.DATED, "1"));
+			}
+			if (NewsStream.isEnabled() && this.udpConn.supportsExtensions(destination.getIp())) {
+				dataList.add(new MessageData(MessageDataType.STREAM, "1"));
+			}
+			if ((this.inlineBytes > 0) && this.udpConn.supportsExtensions(destination.getIp())) {
+				dataList.add(new MessageData(MessageDataType.INLINE, String.valueOf(this.inlineBytes)));
+			}
+			Packet tmpPacket = new Packet(MessageType.NEWS, this.user, destination.getIp(), sequence, dataList);
+			this.logMessage("newsPacket", "Enviada mensagem NEWS com o sequence number: " + sequence);
+			this.sendPacket(tmpPacket, 3, 3000);
+		} catch (IOException ex) {
+			this.logMessage("newsPacket", "Não foi possivel enviar a mensagem de news");
+			if (this.newsReceiver != null) {
+				this.newsReceiver.cancel(sequence);
+			}
+		}
+	}
+	
+	/**
+	 * Writes the dates of the DATES field
+	 * @param dates dates of the news
+	 * @return dates separated by commas
+	 */
+	private String formatDates(NavigableSet<Long> dates) {
+		
+		StringBuilder formatted = new StringBuilder();
+		
+		for (Long date : dates) {
+			if (formatted.length() > 0) {
+				formatted.append(',');
+			}
+			formatted.append(date);
+		}
+		
+		return formatted.toString();
+	}
+	
+	/**
+	 * Returns the space of a datagram for the DATES field of a NEWS message
+	 * The other fields are counted with the biggest values, including the request of missing fragments
+	 * @return size in bytes
+	 */
+	private int datesBudget() {
+		return Packet.MAX_DATAGRAM_SIZE - 32 - ("NEWS\nUSER: " + this.user.getName() + "\nSEQUENCE: -2147483648\nNUMBER: 2147483647\nSINCE: -9223372036854775808\n"
+				+ "BASE: 4294967295\nPORT: 65535\nDATED: 1\nSTREAM: 1\nINLINE: 2147483647\nMISSING: \n").getBytes().length - 4 * MAX_INLINE_MISSING;
+	}
+	
+	/**
+	 * Creates a NEWS_ACK message and sends it to the Transmission Handler
+	 * It is normally send to response a NEWS message
+	 * @param sequence sequence number to be used in the message
+	 * @param destination unicast address of the NEWS sender
+	 * @see Packet
+	 * @see MessageType
+	 * @see IPStruct
+	 * @see UDPClientNews#sendPacket(inews.dataStructures.Packet) 
+	 */
+	@Override
+	public synchronized void newsAckPacket(int sequence, IPStruct destination) {
+		try {
+			Packet tmpPacket = new Packet(MessageType.NEWS_ACK, this.user, destination, sequence, null);
+			this.sendPacket(tmpPacket);
+		} catch (IOException ex) {
+			Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+	
+	/**
+	 * Answers a NEWS message with the news in NEWS_ACK messages, without the TCP transfer
+	 * The news are written as in the binary stream, without its start, and sent in Base64 on the INLINE field split in
+	 * fragments that fit in a datagram, with the fields FRAGMENT, FRAGMENTS and NUMBER as the titles list
+	 * The news bigger than inews.news.inlineBytes or than the size accepted by the sender are not sent and the NEWS is
+	 * answered with the TCP transfer
+	 * @param sequence sequence number of the NEWS message
+	 * @param destination unicast address of the NEWS sender
+	 * @param news news requested, selected from the news index
+	 * @param missing indexes of the fragments to send again separated by commas or null to send all
+	 * @param maxBytes maximum size of the news accepted by the sender in the NEWS_ACK
+	 * @return true if the news were sent ; false if they must be sent on the TCP transfer
+	 * @see NewsStream#read(java.nio.ByteBuffer, inews.interfaces.NewsListener)
+	 * @see UDPClientNews#receiveNews(inews.dataStructures.Packet)
+	 */
+	@Override
+	public synchronized boolean provideNewsPacket(int sequence, IPStruct destination, List<NewsIndex.Item> news, String missing, int maxBytes) {
+		
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		LinkedList<MessageData> fragmentList;
+		String data;
+		long size = 0;
+		int newsCount, chunkSize = this.inlineChunkSize(this.user.getName()), fragments;
+		// o limite de quem pede define o numero de fragmentos que aceita
+		int limit = Math.min(this.inlineBytes, maxBytes);
+		
+		// os tamanhos do indice evitam ler as noticias grandes
+		for (NewsIndex.Item item : news) {
+			size += item.getLength();
+			if (size > limit) {
+				return false;
+			}
+		}
+		
+		try {
+			newsCount = this.newsStore.transferNews(news, Channels.newChannel(stream));
+			if (stream.size() > limit) {
+				return false;
+			}
+			
+			data = Base64.getEncoder().encodeToString(stream.toByteArray());
+			fragments = (data.length() + chunkSize - 1) / chunkSize;
+			
+			for (int i = 0; i < fragments; i++) {
+				if ((missing == null) || isFragmentMissing(missing, i)) {
+					fragmentList = new LinkedList<MessageData>();
+					fragmentList.add(new MessageData(MessageDataType.FRAGMENT, String.valueOf(i)));
+					fragmentList.add(new MessageData(MessageDataType.FRAGMENTS, String.valueOf(fragments)));
+					fragmentList.add(new MessageData(MessageDataType.NUMBER, String.valueOf(newsCount)));
+					fragmentList.add(new MessageData(MessageDataType.INLINE, data.substring(i * chunkSize, Math.min(data.length(), (i + 1) * chunkSize))));
+					this.sendPacket(new Packet(MessageType.NEWS_ACK, this.user, destination, sequence, fragmentList));
+				}
+			}
+			this.logMessage("provideNewsPacket", "Enviadas " + newsCount + " noticias no NEWS_ACK em " + fragments + " fragmentos"
+					+ (missing != null ? " (em falta: " + missing + ")" : ""));
+		} catch (IOException ex) {
+			Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
+			return false;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Returns the size of the part of the news in Base64 sent in each NEWS_ACK
+	 * The header is counted with the biggest values and the announce of the codec after the '\0'
+	 * @param userName name of the user answering
+	 * @return size in bytes, multiple of 4 because the Base64 takes 4 bytes for each 3
+	 */
+	private int inlineChunkSize(String userName) {
+		
+		int budget = Packet.MAX_DATAGRAM_SIZE - 32 - ("NEWS_ACK\nUSER: " + userName + "\nSEQUENCE: -2147483648\nFRAGMENT: 2147483647\n"
+				+ "FRAGMENTS: 2147483647\nNUMBER: 2147483647\nINLINE: \n").getBytes().length;
+		
+		return Math.max(4, (budget / 4) * 4);
+	}
+	
+	/**
+	 * Returns the maximum number of fragments of the news answered in the NEWS_ACK to this user
+	 * The user answering doesn't send more than inews.news.inlineBytes of this user
+	 * @param userName name of the user answering
+	 * @return maximum number of fragments
+	 */
+	private int inlineFragments(String userName) {
+		
+		int chunkSize = this.inlineChunkSize(userName);
+		
+		return (4 * ((this.inlineBytes + 2) / 3) + chunkSize - 1) / chunkSize;
+	}
+	
+	/**
+	 * Processes a received NEWS_ACK message or fragment with news
+	 * The request of the news receiver is removed on the first fragment, because the news don't come on a TCP transfer;
+	 * when a fragment is missing for some time the missing fragments are requested again up to MAX_FRAGMENTS_REQUESTS times
+	 * The news are decoded and given to the listener on the delivery thread of the news receiver, as the TCP transfers
+	 * @param packet received message
+	 * @see UDPClientNews#provideNewsPacket(int, inews.dataStructures.IPStruct, java.util.List, java.lang.String, int)
+	 */
+	@Override
+	public void receiveNews(Packet packet) {
+		
+		final InlineNews pending;
+		LinkedList<MessageData> data = new LinkedList<MessageData>();
+		InlineNews tmpPending;
+		NewsPrinter listener;
+		int index = 0, count = 1, total = -1;
+		
+		synchronized (this.pendingNews) {
+			if ((tmpPending = this.pendingNews.get(packet.getSequence())) == null) {
+				// os pedidos do news receiver sao todos registados por esta classe
+				listener = this.newsReceiver != null ? (NewsPrinter) this.newsReceiver.claim(packet.getSequence(), packet.getUser().getIp()) : null;
+				if (listener == null) {
+					this.logMessage("receiveNews", "Ignoradas noticias sem pedido com o sequence number: " + packet.getSequence());
+					return;
+				}
+				tmpPending = new InlineNews(packet.getSequence(), packet.getUser().getIp(), listener, this.inlineFragments(packet.getUser().getName()));
+				this.pendingNews.put(packet.getSequence(), tmpPending);
+			}
+		}
+		pending = tmpPending;
+		
+		try {
+			for (MessageData field : packet.getDataList()) {
+				switch (field.getKey()) {
+					case FRAGMENT: {
+						index = Integer.parseInt(field.getValue());
+						break;
+					}
+					case FRAGMENTS: {
+						count = Integer.parseInt(field.getValue());
+						break;
+					}
+					case NUMBER: {
+						total = Integer.parseInt(field.getValue());
+						break;
+					}
+					case INLINE: {
+						data.add(field);
+						break;
+					}
+				}
+			}
+		} catch (NumberFormatException ex) {
+			this.logMessage("receiveNews", "Fragmento mal formado!");
+			return;
+		}
+		
+		if (!pending.addFragment(index, count, total, data)) {
+			return;
+		}
+		
+		if (pending.isComplete()) {
+			pending.setTimer(null);
+			if (this.removePendingNews(pending)) {
+				this.newsReceiver.deliver(new Runnable() {
+
+					@Override
+					public void run() {
+						processNews(pending);
+					}
+				});
+			}
+			return;
+		}
+		
+		// espera pelo proximo fragmento; se nao chegar pede os que faltam
+		pending.setTimer(this.udpConn.schedule(new Runnable() {
+
+			@Override
+			public void run() {
+				checkMissingNews(pending, this);
+			}
+		}, this.fragmentTimeout));
+	}
+	
+	/**
+	 * Requests the missing fragments of the news or gives up if there were too many requests
+	 * @param pending news being received
+	 * @param task task that checks the fragments, scheduled again after the request
+	 */
+	private void checkMissingNews(final InlineNews pending, Runnable task) {
+		
+		if (pending.isComplete()) {
+			return;
+		}
+		
+		if (pending.newRequest() <= MAX_FRAGMENTS_REQUESTS) {
+			this.missingNewsPacket(pending);
+			pending.setTimer(this.udpConn.schedule(task, this.fragmentTimeout));
+		}
+		else if (this.removePendingNews(pending)) {
+			this.logMessage("checkMissingNews", "Recebidos " + pending.getReceivedFragments() + " de " + pending.getFragmentsCount() + " fragmentos");
+			this.newsReceiver.deliver(new Runnable() {
+
+				@Override
+				public void run() {
+					pending.listener.newsEnded(false);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Creates a NEWS message requesting the fragments not received of the news answered in the NEWS_ACK
+	 * It uses the sequence number and the fields that select the news of the original request and has no acknowledge
+	 * @param pending news being received
+	 */
+	private void missingNewsPacket(InlineNews pending) {
+		
+		LinkedList<MessageData> dataList = new LinkedList<MessageData>();
+		
+		try {
+			dataList.addAll(pending.getQuery());
+			dataList.add(new MessageData(MessageDataType.INLINE, String.valueOf(this.inlineBytes)));
+			dataList.add(new MessageData(MessageDataType.MISSING, pending.getMissing(MAX_INLINE_MISSING)));
+			Packet tmpPacket = new Packet(MessageType.NEWS, this.user, pending.getSource(), pending.getSequence(), dataList);
+			this.sendPacket(tmpPacket);
+			this.logMessage("missingNewsPacket", "Pedidos fragmentos em falta da mensagem " + pending.getSequence() + ": " + dataList.getLast().getValue());
+		} catch (IOException ex) {
+			Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+	
+	/**
+	 * Removes the news answered in the NEWS_ACK from the pending list
+	 * @param pending news to remove
+	 * @return true if it was removed by this call ; false if it was already removed
+	 */
+	private boolean removePendingNews(InlineNews pending) {
+		synchronized (this.pendingNews) {
+			return this.pendingNews.remove(pending.getSequence()) == pending;
+		}
+	}
+	
+	/**
+	 * Decodes the news of all the fragments and gives them to the listener of the request
+	 * Called on the delivery thread of the news receiver
+	 * @param pending news with all the fragments
+	 * @see NewsStream#read(java.nio.ByteBuffer, inews.interfaces.NewsListener)
+	 */
+	private void processNews(InlineNews pending) {
+		
+		StringBuilder data = new StringBuilder();
+		boolean complete = false;
+		
+		for (MessageData field : pending.getFields()) {
+			data.append(field.getValue());
+		}
+		
+		try {
+			complete = NewsStream.read(ByteBuffer.wrap(Base64.getDecoder().decode(data.toString())), pending.listener) == pending.getTotalItems();
+		} catch (IllegalArgumentException ex) {
+			this.logMessage("processNews", "Noticias mal formadas!");
+		} catch (IOException ex) {
+			this.logMessage("processNews", "Noticias mal formadas: " + ex.getMessage());
+		}
+		
+		pending.listener.newsEnded(complete);
+	}
+	
+	/**
+	 * Creates a RANK message and sends it to the Transmission Handler
+	 * It's send to an user to retrieve ohter user rank
+	 * @param sequence sequence number to be used in the message
+	 * @param destination unicast address of the user to send the message
+	 * @param nick user identification to retrieve the rank
+	 * @see MessageData
+	 * @see Packet
+	 * @see MessageType
+	 * @see IPStruct
+	 * @see UDPClientNews#sendPacket(inews.dataStructures.Packet, int, int) 
+	 */
+	private void rankPacket(int sequence, IPStruct destination, String nick) {
+		
+		try {
+			LinkedList<MessageData> dataList = new LinkedList<MessageData>();
+			dataList.add(new MessageData(MessageDataType.TARGET, nick));
+			Packet tmpPacket = new Packet(MessageType.RANK, this.user, destination, sequence, dataList);
+			this.sendPacket(tmpPacket, 3, 3000);
+			
+		} catch (IOException ex) {
+			Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+	
+	/**
+	 * Creates a RANK_ACK message and sends it to the Transmission Handler
+	 * It is normally send to response a RANK message
+	 * It sends the rank of a requested user
+	 * @param sequence sequence number to be used on the message
+	 * @param destination unicast address of the user to send the message
+	 * @param targetUser user identification of the user who's rank is been asked
+	 * @see Packet
+	 * @see MessageType
+	 * @see IPStruct
+	 * @see MessageData
+	 * @see MessageDataType
+	 */
+	@Override
+	public synchronized void rankAckPacket(int sequence, IPStruct destination, String targetUser) {
+
+		UserStruct tmpUser = this.newsWindow.getUserFromName(targetUser);
+		if ((tmpUser != null) && (tmpUser.getRank() != 0)) {
+			try {
+				LinkedList<MessageData> dataList = new LinkedList<MessageData>();
+				dataList.add(new MessageData(MessageDataType.TARGET, targetUser));
+				dataList.add(new MessageData(MessageDataType.SCORE, String.valueOf(tmpUser.getRank())));
+				Packet tmpPacket = new Packet(MessageType.RANK_ACK, this.user, destination, sequence, dataList);
+				this.sendPacket(tmpPacket);
+				this.logMessage("rankAckPacket", "Enviada mensagem de RANK_ACK");
+			} catch (IOException ex) {
+				Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
+	}
+	
+	/**
+	 * Creates a BYE message and sends it to the Transmission Handler
+	 * This message is send to the broadcast address
+	 * @param sequence sequence number to be used on the message
+	 * @param destination broadcast address
+	 * @see Packet
+	 * @see MessageType
+	 * @see IPStruct
+	 * @see UDPClientNews#sendPacket(inews.dataStructures.Packet) 
+	 */
+	private void byePacket(int sequence, IPStruct destination) {
+		
+		try {
+			Packet tmpPacket = new Packet(MessageType.BYE, this.user, destination, sequence, null);
+			this.sendPacket(tmpPacket);
+			this.logMessage("byePacket", "Enviada mensagem BYE com o sequence number: " + sequence);
+		} catch (IOException ex) {
+			Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
+		}
+		
+	}
+	
+	/* --------------------------------------------------------------------------------------------------------------- */
+	
+	/**
+	 * Sends RANK messages to all the connected users requesting a user rank
+	 * It creates the lists to calculate the rank when all the messages are received
+	 * @param userNick name of the user to get the rank
+	 * @see UserStruct
+	 * @see UDPClientNews#rankPacket(int, inews.dataStructures.IPStruct, java.lang.String) 
+	 * @see INewsWindow#getUserListIterator() 
+	 */
+	private synchronized void getRankForUser(String userNick) {
+		
+		UserStruct tmpUser;
+		Iterator<UserStruct> usersList = this.newsWindow.getUserListIterator();
+		
+		if ((tmpUser = this.newsWindow.getUserFromName(userNick)) != null) {
+			this.usersCount.put(userNick, 1);
+			this.usersRank.put(userNick, new Rank(tmpUser.getRank(), 1));
+		}
+		else {
+			this.usersCount.put(userNick, 0);
+			this.usersRank.put(userNick, new Rank());
+		}
+		
+		while (usersList.hasNext()) {
+			tmpUser = usersList.next();
+			if (!userNick.toString().equals(tmpUser.getName().toString())) {
+				this.rankPacket(this.getSequence(), tmpUser.getIp(), userNick);
+				this.logMessage("getRankForUser", "Enviado pedido rank para utilizador " + tmpUser.getName());
+			}
+		}
+	}
+	
+	/**
 	 * Sends the message to the TransmissionHandler
 	 * @param packet packet with the data to send
 	 * @throws IOException 
@@ -655,7 +1624,7 @@ public final class UDPClientNews implements NewsWindowClient {
 	 */
 	private void sendPacket(Packet packet) throws IOException {
 		this.udpConn.send(packet);
-		this.logMessage("sendPacket", "Pacote Enviado - Novo Sequence Number: " + this.sequenceNumber + "!");
+		this.logMessage("sendPacket", "Pacote Enviado - Novo Sequence Number: " + this.sequenceNumber.get() + "!");
 	}
 	
 	/**
@@ -669,60 +1638,44 @@ public final class UDPClientNews implements NewsWindowClient {
 	 */
 	private void sendPacket(Packet packet, int retries, int timeout) throws IOException {
 		this.udpConn.sendWithAck(packet, retries, timeout);
-		this.logMessage("sendPacket", "Pacote Enviado - Novo Sequence Number: " + this.sequenceNumber + "!");
+		this.logMessage("sendPacket", "Pacote Enviado - Novo Sequence Number: " + this.sequenceNumber.get() + "!");
 	}
 	
 	/**
-	 * Waits for the message of the TCP server and prints it to the NewsWindow
-	 * @param user user sending the news
-	 * @see NavigableMap
-	 * @see TCPServerNews
-	 * @see INewsWindow#getUserListIterator() 
+	 * Writes the news to be printed
+	 * @param news contents of the news, the first line of each one is its title
+	 * @return string with the news
 	 */
-	@Override
-	public void receiveNews(String user) {
+	private String formatNews(LinkedList<String> news) {
 		
-		String receivedMessage = new String();
-		String[] tokens;
+		StringBuilder commandResult = new StringBuilder();
+		int i = 0;
 		
-		String commandResult = "";
-		
-		try {
+		for (String content : news) {
+			commandResult.append(this.formatNews(content));
 			
-			this.logMessage("receivedNews", "Vou por o servidor de TCP em escuta");
-			receivedMessage = serverTCP.waitForMessage();
-			
-			serverTCP.endServer();
-			serverTCP = null;
-			
-			// old code when the application do not sends the titles in the TCP connection
-//			NavigableMap<Long, String> userTitlesList = this.newsWindow.getUserFromName(user).getNewsList();
-//			
-//			tokens = receivedMessage.split("(\0)");
-//			for (int i = 0; i < tokens.length ; i++) {
-//				commandResult += "\n" + userTitlesList.values().toArray()[userTitlesList.values().size() - tokens.length + i].toString() + ":"
-//						+"\n" + tokens[i] + "\n";
-//			}
-			
-			// code to parce the received message and prints to the windows output area
-			tokens = receivedMessage.split("(\0)");
-			for (int i = 0; i < tokens.length; i++) {
-				tokens[i] = tokens[i].replaceFirst("\n", ":\n");
-				for (String eachLine : tokens[i].split("\n")) {
-					commandResult += "\n" + eachLine;
-				}
-				
-				if (i < (tokens.length - 1)) {
-					commandResult += "\n\t\t------------------------------------------------------------\n";
-				}
+			if (++i < news.size()) {
+				commandResult.append("\n").append(NEWS_SEPARATOR);
 			}
-			
-			this.newsWindow.appendCommandResultToOutputArea("news " + user, commandResult);
-			
-		} catch (IOException ex) {
-			Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
 		}
 		
+		return commandResult.toString();
+	}
+	
+	/**
+	 * Writes one news to be printed, with a line break before each line
+	 * @param content content of the news, the first line is its title
+	 * @return string with the news
+	 */
+	private String formatNews(String content) {
+		
+		StringBuilder commandResult = new StringBuilder();
+		
+		for (String eachLine : content.replaceFirst("\n", ":\n").split("\n")) {
+			commandResult.append("\n").append(eachLine);
+		}
+		
+		return commandResult.toString();
 	}
 	
 	/**
@@ -779,49 +1732,21 @@ public final class UDPClientNews implements NewsWindowClient {
 	}
 	
 	/**
-	 * Read all the titles from the files in the news dir
-	 * @param listOfFiles list of Files in the news dir
-	 * @return a list it all the titles
-	 * @see File
-	 * @see UDPClientNews#readDirFiles() 
+	 * Returns the titles of the news provided
+	 * The titles are read from the news index without opening the news files
+	 * @param news indexed news of each date
+	 * @return a list with the NUMBER field followed by the TITLE and DATE fields of each news
+	 * @see NewsIndex
 	 */
-	private LinkedList<MessageData> readTitleFiles(File[] listOfFiles) {
-		
-		int finalIdxName;
+	private LinkedList<MessageData> readTitles(NavigableMap<Long, NewsIndex.Item> news) {
 		
-		LinkedList<MessageData> filesTitles = null;
-		BufferedReader fileReader;
+		LinkedList<MessageData> filesTitles = new LinkedList<MessageData>();
 		
-		if (listOfFiles.length > 0) {
-			filesTitles = new LinkedList<MessageData>();
-			
-			filesTitles.add(new MessageData(MessageDataType.NUMBER, Integer.toString(listOfFiles.length)));
+		filesTitles.add(new MessageData(MessageDataType.NUMBER, Integer.toString(news.size())));
 		
-			for (File newsFile : listOfFiles) {
-
-				try {
-					fileReader = new BufferedReader(new FileReader(newsFile));
-
-					try {
-						finalIdxName = newsFile.getName().lastIndexOf(".");
-						finalIdxName = finalIdxName != -1 ? finalIdxName : newsFile.getName().length();
-						
-						filesTitles.add(new MessageData(MessageDataType.TITLE, fileReader.readLine()));
-						
-						filesTitles.add(new MessageData(MessageDataType.DATE, newsFile.getName().substring(0, finalIdxName)));
-						
-						this.logMessage("readTitleFiles", "Titulo ficheiro " + newsFile.getName() + " lido!");
-					}
-					finally {
-						fileReader.close();
-					}
-
-				} catch (IOException ex) {
-					this.logMessage("readTitlesFile", "Nao foi possivel abrir o ficheiro para leitura");
-
-					Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
-				}
-			}
+		for (NewsIndex.Item item : news.values()) {
+			filesTitles.add(new MessageData(MessageDataType.TITLE, item.getTitle()));
+			filesTitles.add(new MessageData(MessageDataType.DATE, String.valueOf(item.getDate())));
 		}
 		
 		return filesTitles;
@@ -850,6 +1775,16 @@ public final class UDPClientNews implements NewsWindowClient {
 		return dir.listFiles(filtro);
 	}
 	
+	/**
+	 * Returns the store with the contents of the local news
+	 * @return the segment store if the system property inews.store is segment ; the news directory store otherwise
+	 * @see NewsStore
+	 */
+	@Override
+	public NewsStore getNewsStore() {
+		return this.newsStore;
+	}
+	
 	/**
 	 * Prints the message to the system output and to the log area of the NewsWindow
 	 * @param func function sending the message
@@ -862,13 +1797,248 @@ public final class UDPClientNews implements NewsWindowClient {
 	}
 	
 	/**
-	 * Wait some time
-	 * @param timeToWait time to wait in seconds
+	 * Listener of a news transfer that prints each news to the output area when it arrives
+	 * The output is the same of the complete transfer: the command, then the news separated by a line
+	 * The transfers of many users can be received at once, so the command is printed again when the news of other
+	 * transfer were printed in the middle
+	 * The news with date are kept on the news cache and the listing of the user is saved if all its news arrived
+	 * When only the news missing on the cache were requested the news are printed at the end of the transfer, with the
+	 * news of the cache by the order of the dates
 	 */
-	private void waitSomeTime(long timeToWait) {
+	private class NewsPrinter implements NewsListener {
+		
+		private final String user;
+		private final LinkedList<MessageData> query;
+		private final int count;
+		private final NewsCache.CatchUp catchUp;
+		private final NavigableSet<Long> dates = new TreeSet<Long>();
+		// noticias recebidas de um pedido das noticias em falta, mostradas no fim
+		private final NavigableMap<Long, String> contents = new TreeMap<Long, String>();
+		private final NavigableMap<Long, File> files = new TreeMap<Long, File>();
+		private boolean started = false;
+		private boolean printedAfterCommand = false;
+		private int received = 0;
+		
+		/**
+		 * Initializes the printer of the news of the user
+		 * @param user user sending the news
+		 * @param query NUMBER, SINCE, DATES and BASE fields of the request
+		 * @param count number of latest news requested or 0 for all
+		 * @param catchUp news requested to complete the news cache or null if all were requested
+		 */
+		NewsPrinter(String user, LinkedList<MessageData> query, int count, NewsCache.CatchUp catchUp) {
+			this.user = user;
+			this.query = query;
+			this.count = count;
+			this.catchUp = catchUp;
+		}
+		
+		/**
+		 * Returns the fields that select the news requested
+		 * @return NUMBER, SINCE, DATES and BASE fields of the request
+		 */
+		LinkedList<MessageData> getQuery() {
+			return this.query;
+		}
 		
-		long start = System.currentTimeMillis();
-		while ((System.currentTimeMillis() - start) < (timeToWait * 1000));
+		/**
+		 * Prints the command of the transfer
+		 * @param count number of news of the transfer or -1 if not known
+		 */
+		@Override
+		public void newsStarted(int count) {
+			if (this.catchUp == null) {
+				this.start();
+			}
+		}
+		
+		/**
+		 * Keeps the news on the news cache and prints it
+		 * @param date date of the news or -1 if not known
+		 * @param title title of the news
+		 * @param content content of the news
+		 */
+		@Override
+		public void newsReceived(long date, String title, String content) {
+			
+			if (date != -1) {
+				newsCache.put(this.user, date, content);
+				this.dates.add(date);
+			}
+			
+			this.received++;
+			
+			if ((this.catchUp != null) && (date != -1)) {
+				this.contents.put(date, content);
+				return;
+			}
+			
+			this.start();
+			newsWindow.appendTextToOutputArea(this.separator() + formatNews(content).substring(1) + "\n");
+		}
+		
+		/**
+		 * Prints a big news from its file in parts, without keeping it on memory or on the news cache
+		 * When it must be printed at the end the file is copied, because it is removed after this method
+		 * @param date date of the news
+		 * @param title title of the news
+		 * @param content file with the content of the news
+		 */
+		@Override
+		public void newsReceived(long date, String title, File content) {
+			
+			File copy;
+			
+			this.received++;
+			
+			if ((this.catchUp != null) && (date != -1)) {
+				try {
+					copy = File.createTempFile("inews-" + date + "-", ".news");
+					Files.copy(content.toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+					this.files.put(date, copy);
+					return;
+				} catch (IOException ex) {
+					Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
+				}
+			}
+			
+			this.start();
+			this.printFile(content);
+		}
+		
+		/**
+		 * Saves the listing of the user on the news cache if all the news announced by the user were received
+		 * A catch-up answered with all the news of the user, because its older news changed, replaces the listing
+		 * @param complete true if the transfer was complete
+		 */
+		@Override
+		public void newsEnded(boolean complete) {
+			
+			UserStruct newsUser = newsWindow.getUserFromName(this.user);
+			NavigableSet<Long> listing = this.dates;
+			
+			if (this.catchUp != null) {
+				listing = new TreeSet<Long>(this.dates);
+				listing.addAll(this.files.keySet());
+				if ((newsUser == null) || (listing.size() != newsUser.getTotalNews())) {
+					listing.addAll(this.catchUp.getListing());
+				}
+				complete &= this.printCatchUp(listing);
+			}
+			
+			if (!this.started) {
+				this.start();
+			}
+			
+			if (complete && (newsUser != null) && ((this.dates.size() + this.files.size()) == this.received)
+					&& (listing.size() == newsUser.getTotalNews()) && (!listing.isEmpty()) && (listing.last() == newsUser.getLastNewDate())) {
+				newsCache.setListing(newsUser, listing);
+			}
+			// a listagem da cache deixou de corresponder as noticias do utilizador, o proximo pedido pede todas
+			else if (this.catchUp != null) {
+				newsCache.removeListing(this.user);
+			}
+			
+			if (!complete) {
+				newsWindow.appendTextToOutputArea("\nTransferencia das noticias de " + this.user + " incompleta\n");
+			}
+		}
+		
+		/**
+		 * Prints the latest news of the listing with the news received and the news of the cache
+		 * @param listing dates of all the news of the user
+		 * @return true if all the news were printed ; false if a news was neither received nor on the cache
+		 */
+		private boolean printCatchUp(NavigableSet<Long> listing) {
+			
+			Iterator<Long> it = listing.descendingIterator();
+			LinkedList<Long> latest = new LinkedList<Long>();
+			boolean complete = true;
+			String content;
+			File file;
+			
+			for (int i = 0; ((this.count == 0) || (i < this.count)) && it.hasNext(); i++) {
+				latest.addFirst(it.next());
+			}
+			
+			for (Long date : latest) {
+				if ((file = this.files.get(date)) != null) {
+					this.start();
+					this.printFile(file);
+				}
+				else if (((content = this.contents.get(date)) != null) || ((content = this.catchUp.getCached().get(date)) != null)) {
+					this.start();
+					newsWindow.appendTextToOutputArea(this.separator() + formatNews(content).substring(1) + "\n");
+				}
+				else {
+					complete = false;
+				}
+			}
+			
+			for (File copy : this.files.values()) {
+				copy.delete();
+			}
+			
+			return complete;
+		}
+		
+		/**
+		 * Prints a news from its file in parts
+		 * @param content file with the content of the news
+		 */
+		private void printFile(File content) {
+			
+			StringBuilder part;
+			BufferedReader fileReader;
+			String line;
+			boolean firstLine = true;
+			
+			part = new StringBuilder(this.separator());
+			
+			try {
+				fileReader = new BufferedReader(new FileReader(content));
+				try {
+					while ((line = fileReader.readLine()) != null) {
+						part.append(line).append(firstLine ? ":\n" : "\n");
+						firstLine = false;
+						if (part.length() >= PRINT_PART_SIZE) {
+							newsWindow.appendTextToOutputArea(part.toString());
+							part.setLength(0);
+						}
+					}
+				} finally {
+					fileReader.close();
+				}
+			} catch (IOException ex) {
+				Logger.getLogger(UDPClientNews.class.getName()).log(Level.SEVERE, null, ex);
+			}
+			
+			newsWindow.appendTextToOutputArea(part.toString());
+		}
+		
+		/**
+		 * Prints the command before the first news or again if other transfer printed after the last news
+		 */
+		private void start() {
+			if ((!this.started) || (lastPrinter != this)) {
+				newsWindow.appendCommandResultToOutputArea("news " + this.user + (this.started ? " (continuacao)" : ""), "");
+				this.started = true;
+				this.printedAfterCommand = false;
+				lastPrinter = this;
+			}
+		}
+		
+		/**
+		 * Returns the separator to print before a news and marks that a news is printed after the command
+		 * @return the line between news or empty before the first one after the command
+		 */
+		private String separator() {
+			
+			String separator = this.printedAfterCommand ? NEWS_SEPARATOR + "\n" : "";
+			
+			this.printedAfterCommand = true;
+			return separator;
+		}
 	}
 	
 	/*
@@ -962,7 +2132,28 @@ public final class UDPClientNews implements NewsWindowClient {
 	 * @return the sequence number to use
 	 */
 	private int getSequence() {
-		return this.sequenceNumber++;
+		return this.sequenceNumber.getAndIncrement();
 	}
 	
+	/**
+	 * Fragments of the news answered in the NEWS_ACK, with the listener of the NEWS request
+	 * The fields of the fragments are the INLINE fields and the total of items is the number of news
+	 */
+	private static final class InlineNews extends FragmentsAssembly {
+		
+		private final NewsPrinter listener;
+		
+		InlineNews(int sequence, IPStruct source, NewsPrinter listener, int maxFragments) {
+			super(sequence, source, maxFragments);
+			this.listener = listener;
+		}
+		
+		/**
+		 * Returns the fields that select the news requested
+		 * @return NUMBER, SINCE, DATES and BASE fields of the NEWS message
+		 */
+		LinkedList<MessageData> getQuery() {
+			return this.listener.getQuery();
+		}
+	}
 }
\ No newline at end of file
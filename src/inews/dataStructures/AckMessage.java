@@ -1,7 +1,13 @@
 package inews.dataStructures;
 
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Class with the information of a message that needs to be retransmited and/or acknowledge
+ * The acknowledge and retries state is atomic because it is changed by the retransmission scheduler and by the threads processing the answers
+ * Each message has a deadline after which it is expired from the acknowledge list even if its retransmission was lost
  * @author Luis Portela
  * @see Packet
  */
@@ -10,9 +16,15 @@ public class AckMessage {
 	private final int sequenceNumber;
 	private final int timeout;
 	private final Packet sendPacket;
+	private final long creationTime;
+	private final long deadline;
 	
-	private int retries;
-	private boolean ackReceived;
+	private final AtomicInteger retries;
+	private final AtomicBoolean ackReceived;
+	private final AtomicBoolean completed;
+	private ScheduledFuture<?> timer = null;
+	private int transmissions = 0;
+	private long lastSendTime = 0;
 	
 	/**
 	 * Initializes this class with the provided values
@@ -24,11 +36,15 @@ public class AckMessage {
 	 */
 	public AckMessage(int sequenceNumber, int retries, int timeout, Packet sendPacket) {
 		
-		this.retries = retries;
+		this.retries = new AtomicInteger(retries);
 		this.sequenceNumber = sequenceNumber;
 		this.timeout = timeout;
-		this.ackReceived = false;
+		this.ackReceived = new AtomicBoolean(false);
+		this.completed = new AtomicBoolean(false);
 		this.sendPacket = sendPacket;
+		this.creationTime = System.currentTimeMillis();
+		// todas as tentativas com o maior timeout possivel e mais uma de folga
+		this.deadline = this.creationTime + ((long) retries + 1) * Math.max(timeout, RttEstimator.MAX_TIMEOUT);
 	}
 
 	/**
@@ -36,18 +52,20 @@ public class AckMessage {
 	 * @return true if the acknowledge as received ; false otherwise
 	 */
 	public boolean isAckReceived() {
-		return ackReceived;
+		return this.ackReceived.get();
 	}
 
 	/**
-	 * Returns the number of retries of this acknowledge message
-	 * @return number of retries
+	 * Returns the number of retries of this acknowledge message and decrements it
+	 * @return number of retries before the decrement
 	 */
 	public int getRetries() {
 		
-		int tmpRetries = this.retries;
+		int tmpRetries;
 		
-		this.retries = tmpRetries != 0 ? (tmpRetries) - 1 : 0;
+		do {
+			tmpRetries = this.retries.get();
+		} while ((tmpRetries != 0) && (!this.retries.compareAndSet(tmpRetries, tmpRetries - 1)));
 		
 		return tmpRetries;
 	}
@@ -61,8 +79,10 @@ public class AckMessage {
 	}
 
 	/**
-	 * Returns the timeout between the messages
+	 * Returns the default timeout between the messages
+	 * Used while there is no round trip time measured to the destination
 	 * @return timeout
+	 * @see RttEstimator
 	 */
 	public int getTimeout() {
 		return timeout;
@@ -79,8 +99,84 @@ public class AckMessage {
 	
 	/**
 	 * Set this message as have received the acknowledge
+	 * @return true if this call marked the acknowledge ; false if it was already received
+	 */
+	public boolean ackReceived() {
+		return this.ackReceived.compareAndSet(false, true);
+	}
+	
+	/**
+	 * Marks this message as completed, the acknowledge was received or there are no more retries
+	 * @return true if this call completed the message ; false if it was already completed
+	 */
+	public boolean complete() {
+		return this.completed.compareAndSet(false, true);
+	}
+	
+	/**
+	 * Checks if the message is completed
+	 * @return true if it is completed ; false otherwise
+	 */
+	public boolean isCompleted() {
+		return this.completed.get();
+	}
+	
+	/**
+	 * Returns the time when the message was created
+	 * @return creation time in milliseconds
+	 */
+	public long getCreationTime() {
+		return this.creationTime;
+	}
+	
+	/**
+	 * Checks if the message is waiting longer than all its retries could take
+	 * @param now current time in milliseconds
+	 * @return true if the deadline has passed ; false otherwise
+	 */
+	public boolean isExpired(long now) {
+		return now > this.deadline;
+	}
+	
+	/**
+	 * Registers a new transmission of the message
+	 */
+	public synchronized void markSent() {
+		this.transmissions++;
+		this.lastSendTime = System.currentTimeMillis();
+	}
+	
+	/**
+	 * Returns the number of times the message was sent
+	 * @return number of transmissions
+	 */
+	public synchronized int getTransmissions() {
+		return this.transmissions;
+	}
+	
+	/**
+	 * Returns the round trip time of the message until now
+	 * If the message was retransmited it is not possible to know which transmission is being acknowledged (Karn's rule)
+	 * @return round trip time in milliseconds or -1 if the message was sent more than once
+	 */
+	public synchronized long getRoundTripSample() {
+		return this.transmissions == 1 ? System.currentTimeMillis() - this.lastSendTime : -1;
+	}
+	
+	/**
+	 * Defines the next scheduled retransmission of this message
+	 * @param timer scheduled retransmission
+	 * @see ScheduledFuture
+	 */
+	public synchronized void setTimer(ScheduledFuture<?> timer) {
+		this.timer = timer;
+	}
+	
+	/**
+	 * Cancels the next scheduled retransmission of this message if it has not started yet
+	 * @return true if the retransmission was cancelled ; false if there is none or it is already running
 	 */
-	public void ackReceived() {
-		this.ackReceived = true;
+	public synchronized boolean cancelTimer() {
+		return (this.timer != null) && this.timer.cancel(false);
 	}
 }
@@ -0,0 +1,237 @@
+package inews.dataStructures;
+
+import java.util.LinkedList;
+
+/**
+ * Table with the messages waiting for acknowledge indexed by their sequence number
+ * The sequence numbers are kept as primitive int in open addressing tables (linear probing) without boxing
+ * The table is divided in segments with their own lock so the threads working on different sequence numbers don't block each other
+ * @author Luis Portela
+ * @see AckMessage
+ */
+public class AckTable {
+
+	private static final int SEGMENTS_BITS = 4;
+	private static final int SEGMENTS = 1 << SEGMENTS_BITS;
+	private static final int INITIAL_SEGMENT_CAPACITY = 16;
+
+	private final Segment[] segments;
+
+	/**
+	 * Initializes an empty table
+	 */
+	public AckTable() {
+
+		this.segments = new Segment[SEGMENTS];
+
+		for (int i = 0; i < SEGMENTS; i++) {
+			this.segments[i] = new Segment();
+		}
+	}
+
+	/**
+	 * Returns the message with the provided sequence number
+	 * @param sequence sequence number to search
+	 * @return the message or null if it doesn't exist
+	 */
+	public AckMessage get(int sequence) {
+		int hash = hash(sequence);
+		return this.segmentFor(hash).get(sequence, hash);
+	}
+
+	/**
+	 * Adds a message to the table replacing the message with the same sequence number
+	 * @param sequence sequence number of the message
+	 * @param message message waiting for acknowledge
+	 * @return the replaced message or null if there was none
+	 */
+	public AckMessage put(int sequence, AckMessage message) {
+		int hash = hash(sequence);
+		return this.segmentFor(hash).put(sequence, hash, message);
+	}
+
+	/**
+	 * Removes the message with the provided sequence number
+	 * @param sequence sequence number of the message to remove
+	 * @return the removed message or null if it doesn't exist
+	 */
+	public AckMessage remove(int sequence) {
+		int hash = hash(sequence);
+		return this.segmentFor(hash).remove(sequence, hash);
+	}
+
+	/**
+	 * Returns the number of messages on the table
+	 * @return number of messages
+	 */
+	public int size() {
+
+		int size = 0;
+
+		for (Segment segment : this.segments) {
+			size += segment.size();
+		}
+
+		return size;
+	}
+
+	/**
+	 * Returns a copy of the messages on the table
+	 * Each segment is copied with its lock so the messages added or removed meanwhile may not be on the list
+	 * @return list with the messages
+	 */
+	public LinkedList<AckMessage> values() {
+
+		LinkedList<AckMessage> values = new LinkedList<AckMessage>();
+
+		for (Segment segment : this.segments) {
+			segment.copyValues(values);
+		}
+
+		return values;
+	}
+
+	/**
+	 * Returns the segment responsible for the hash
+	 * @param hash hash of the sequence number
+	 * @return the segment
+	 */
+	private Segment segmentFor(int hash) {
+		return this.segments[hash & (SEGMENTS - 1)];
+	}
+
+	/**
+	 * Spreads the bits of the sequence number because they are consecutive
+	 * @param sequence sequence number
+	 * @return hash of the sequence number
+	 */
+	private static int hash(int sequence) {
+		int h = sequence * 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Part of the table with its own lock
+	 * An empty slot is a slot without message so any int can be used as key
+	 */
+	private static final class Segment {
+
+		private int[] keys = new int[INITIAL_SEGMENT_CAPACITY];
+		private AckMessage[] values = new AckMessage[INITIAL_SEGMENT_CAPACITY];
+		private int count = 0;
+
+		/**
+		 * Returns the slot where the key should be without collisions
+		 * The lower bits of the hash are used to choose the segment so they are ignored
+		 * @param hash hash of the key
+		 * @param mask size of the arrays minus one
+		 * @return index on the arrays
+		 */
+		private static int slot(int hash, int mask) {
+			return (hash >>> SEGMENTS_BITS) & mask;
+		}
+
+		synchronized AckMessage get(int key, int hash) {
+
+			int mask = this.keys.length - 1;
+
+			for (int i = slot(hash, mask); this.values[i] != null; i = (i + 1) & mask) {
+				if (this.keys[i] == key) {
+					return this.values[i];
+				}
+			}
+
+			return null;
+		}
+
+		synchronized AckMessage put(int key, int hash, AckMessage value) {
+
+			AckMessage old;
+			int mask = this.keys.length - 1;
+			int i;
+
+			for (i = slot(hash, mask); this.values[i] != null; i = (i + 1) & mask) {
+				if (this.keys[i] == key) {
+					old = this.values[i];
+					this.values[i] = value;
+					return old;
+				}
+			}
+
+			this.keys[i] = key;
+			this.values[i] = value;
+
+			// mantem a ocupacao abaixo de metade para as sequencias de colisoes serem curtas
+			if (++this.count > (this.keys.length >> 1)) {
+				this.resize();
+			}
+
+			return null;
+		}
+
+		synchronized AckMessage remove(int key, int hash) {
+
+			AckMessage old;
+			int mask = this.keys.length - 1;
+			int i, j, ideal;
+
+			for (i = slot(hash, mask); this.values[i] != null; i = (i + 1) & mask) {
+				if (this.keys[i] == key) {
+
+					old = this.values[i];
+					this.values[i] = null;
+					this.count--;
+
+					// puxa para tras os elementos seguintes que deixariam de ser encontrados com o buraco
+					for (j = (i + 1) & mask; this.values[j] != null; j = (j + 1) & mask) {
+						ideal = slot(hash(this.keys[j]), mask);
+						if (((j > i) && ((ideal <= i) || (ideal > j))) || ((j < i) && (ideal <= i) && (ideal > j))) {
+							this.keys[i] = this.keys[j];
+							this.values[i] = this.values[j];
+							this.values[j] = null;
+							i = j;
+						}
+					}
+
+					return old;
+				}
+			}
+
+			return null;
+		}
+
+		synchronized int size() {
+			return this.count;
+		}
+
+		synchronized void copyValues(LinkedList<AckMessage> list) {
+			for (AckMessage value : this.values) {
+				if (value != null) {
+					list.add(value);
+				}
+			}
+		}
+
+		/**
+		 * Doubles the size of the arrays and puts again all the elements
+		 */
+		private void resize() {
+
+			int[] oldKeys = this.keys;
+			AckMessage[] oldValues = this.values;
+			int mask = (oldKeys.length << 1) - 1;
+			int i;
+
+			this.keys = new int[oldKeys.length << 1];
+			this.values = new AckMessage[oldValues.length << 1];
+
+			for (int k = 0; k < oldKeys.length; k++) {
+				if (oldValues[k] != null) {
+					for (i = slot(hash(oldKeys[k]), mask); this.values[i] != null; i = (i + 1) & mask);
+					this.keys[i] = oldKeys[k];
+					this.values[i] = oldValues[k];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package inews.dataStructures;
+
+import inews.interfaces.NewsStore;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Store that reads the contents of the news from the news directory, one file per news
+ * @author Luis Portela
+ * @see NewsIndex
+ */
+public final class DirNewsStore implements NewsStore {
+
+	private static DirNewsStore mySelf = null;
+
+	/**
+	 * Private constructor to create the instance of this class
+	 */
+	private DirNewsStore() {
+	}
+
+	/**
+	 * Returns the instance of this class or creates a new one and returns if it doesn't exists
+	 * @return the store of the news directory
+	 */
+	public static synchronized DirNewsStore getInstance() {
+		if (mySelf == null)
+			mySelf = new DirNewsStore();
+
+		return mySelf;
+	}
+
+	/**
+	 * Reads the files of the news
+	 * @param news news of the news index to read, sorted by date
+	 * @param dated true to write a line with the date of each news before its content
+	 * @return contents of the news separated by '\0'
+	 */
+	@Override
+	public String readNews(List<NewsIndex.Item> news, boolean dated) {
+
+		StringBuilder finalString = new StringBuilder();
+		BufferedReader fileReader;
+		String line;
+
+		for (NewsIndex.Item item : news) {
+			try {
+				fileReader = new BufferedReader(new FileReader(new File("_news", item.getFileName())));
+				try {
+					if (dated) {
+						finalString.append("DATE: ").append(item.getDate()).append("\n");
+					}
+					while ((line = fileReader.readLine()) != null) {
+						finalString.append(line).append("\n");
+					}
+				} finally {
+					fileReader.close();
+				}
+				if (item != news.get(news.size() - 1)) {
+					finalString.append('\0');
+				}
+			} catch (IOException ex) {
+				Logger.getLogger(DirNewsStore.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
+
+		return finalString.toString();
+	}
+
+	/**
+	 * Sends the files of the news to the connection
+	 * The manifest has the sizes of the index, so a file that can't be read stops the transfer
+	 * @param news news of the news index to send, sorted by date
+	 * @param target channel of the connection
+	 * @return number of news sent
+	 * @throws IOException if a news file can't be read or the connection can't be written
+	 */
+	@Override
+	public int transferNews(List<NewsIndex.Item> news, WritableByteChannel target) throws IOException {
+
+		LinkedList<NewsStream.Entry> entries = new LinkedList<NewsStream.Entry>();
+		FileInputStream fileIn;
+
+		for (NewsIndex.Item item : news) {
+			entries.add(new NewsStream.Entry(item.getDate(), item.getTitle(), (int) item.getLength()));
+		}
+
+		NewsStream.writeManifest(entries, target);
+
+		for (NewsIndex.Item item : news) {
+			fileIn = new FileInputStream(new File("_news", item.getFileName()));
+			try {
+				NewsStream.transfer(fileIn.getChannel(), 0, item.getLength(), target);
+			} finally {
+				fileIn.close();
+			}
+		}
+
+		return news.size();
+	}
+}
@@ -0,0 +1,191 @@
+package inews.dataStructures;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Class with the fragments received of an answer split in several messages
+ * Each fragment has its index, the total of fragments and the total of items of the answer, with the fields of the
+ * items it carries; the fragments are kept until all arrive and the missing ones can be requested again
+ * The total of fragments comes from the network, so the answers with more fragments than the limit are ignored
+ * @author Luis Portela
+ * @see Packet
+ * @see MessageDataType#FRAGMENT
+ */
+public class FragmentsAssembly {
+
+	private final int sequence;
+	private final IPStruct source;
+	private final int maxFragments;
+	private ArrayList<LinkedList<MessageData>> fragments = null;
+	private int receivedFragments = 0;
+	private int totalItems = -1;
+	private int requests = 0;
+	private ScheduledFuture<?> timer = null;
+
+	/**
+	 * Initializes an empty answer waiting for its fragments
+	 * @param sequence sequence number of the request
+	 * @param source user that will answer
+	 * @param maxFragments maximum number of fragments of the answer
+	 * @see IPStruct
+	 */
+	public FragmentsAssembly(int sequence, IPStruct source, int maxFragments) {
+		this.sequence = sequence;
+		this.source = source;
+		this.maxFragments = maxFragments;
+	}
+
+	/**
+	 * Adds a received fragment
+	 * The fragments repeated, not matching the total of fragments already received or of an answer with more fragments
+	 * than the limit are ignored
+	 * @param index index of the fragment starting on 0
+	 * @param count total of fragments of the answer
+	 * @param totalItems total of items of the answer
+	 * @param fields fields of the fragment
+	 * @return true if it is a new fragment ; false otherwise
+	 */
+	public synchronized boolean addFragment(int index, int count, int totalItems, LinkedList<MessageData> fields) {
+
+		if (this.fragments == null) {
+			if ((count <= 0) || (count > this.maxFragments)) {
+				return false;
+			}
+			this.fragments = new ArrayList<LinkedList<MessageData>>(count);
+			for (int i = 0; i < count; i++) {
+				this.fragments.add(null);
+			}
+			this.totalItems = totalItems;
+		}
+
+		if ((count != this.fragments.size()) || (index < 0) || (index >= count) || (this.fragments.get(index) != null)) {
+			return false;
+		}
+
+		this.fragments.set(index, fields);
+		this.receivedFragments++;
+
+		return true;
+	}
+
+	/**
+	 * Checks if all the fragments were received
+	 * @return true if it is complete ; false otherwise
+	 */
+	public synchronized boolean isComplete() {
+		return (this.fragments != null) && (this.receivedFragments == this.fragments.size());
+	}
+
+	/**
+	 * Checks if any fragment was received
+	 * @return true if at least one fragment was received ; false otherwise
+	 */
+	public synchronized boolean hasFragments() {
+		return this.receivedFragments > 0;
+	}
+
+	/**
+	 * Returns the indexes of the fragments not received separated by commas
+	 * @param max maximum number of indexes to return
+	 * @return string with the missing indexes
+	 */
+	public synchronized String getMissing(int max) {
+
+		StringBuilder missing = new StringBuilder();
+		int count = 0;
+
+		if (this.fragments != null) {
+			for (int i = 0; (i < this.fragments.size()) && (count < max); i++) {
+				if (this.fragments.get(i) == null) {
+					if (count++ > 0) {
+						missing.append(',');
+					}
+					missing.append(i);
+				}
+			}
+		}
+
+		return missing.toString();
+	}
+
+	/**
+	 * Returns the fields of all the fragments by their order
+	 * @return list with the fields
+	 */
+	public synchronized LinkedList<MessageData> getFields() {
+
+		LinkedList<MessageData> fields = new LinkedList<MessageData>();
+
+		if (this.fragments != null) {
+			for (LinkedList<MessageData> fragment : this.fragments) {
+				if (fragment != null) {
+					fields.addAll(fragment);
+				}
+			}
+		}
+
+		return fields;
+	}
+
+	/**
+	 * Returns the total of items announced by the user
+	 * @return total of items or -1 if no fragment was received
+	 */
+	public synchronized int getTotalItems() {
+		return this.totalItems;
+	}
+
+	/**
+	 * Returns the number of fragments received
+	 * @return number of fragments received
+	 */
+	public synchronized int getReceivedFragments() {
+		return this.receivedFragments;
+	}
+
+	/**
+	 * Returns the total of fragments of the answer
+	 * @return total of fragments or -1 if no fragment was received
+	 */
+	public synchronized int getFragmentsCount() {
+		return this.fragments != null ? this.fragments.size() : -1;
+	}
+
+	/**
+	 * Registers a new request of the missing fragments
+	 * @return number of requests made until now
+	 */
+	public synchronized int newRequest() {
+		return ++this.requests;
+	}
+
+	/**
+	 * Defines the task that checks the missing fragments, cancelling the previous one
+	 * @param timer scheduled task
+	 */
+	public synchronized void setTimer(ScheduledFuture<?> timer) {
+		if (this.timer != null) {
+			this.timer.cancel(false);
+		}
+		this.timer = timer;
+	}
+
+	/**
+	 * Returns the sequence number of the request
+	 * @return sequence number
+	 */
+	public int getSequence() {
+		return this.sequence;
+	}
+
+	/**
+	 * Returns the user answering
+	 * @return IP of the user
+	 * @see IPStruct
+	 */
+	public IPStruct getSource() {
+		return this.source;
+	}
+}
@@ -36,7 +36,59 @@ public enum MessageDataType implements Serializable {
 	/**
 	 * Rank value to the user
 	 */
-	SCORE(5);
+	SCORE(5),
+	/**
+	 * Index of the fragment of a message split in several datagrams
+	 */
+	FRAGMENT(6),
+	/**
+	 * Total of fragments of a message split in several datagrams
+	 */
+	FRAGMENTS(7),
+	/**
+	 * Indexes of the fragments not received, separated by commas
+	 */
+	MISSING(8),
+	/**
+	 * Date of the oldest news requested; in an answer is the date of the first news of the next page
+	 */
+	SINCE(9),
+	/**
+	 * Date of the newest news requested
+	 */
+	UNTIL(10),
+	/**
+	 * Maximum number of news requested
+	 */
+	LIMIT(11),
+	/**
+	 * Asks a line with the date of each news before its content on the TCP transfer
+	 */
+	DATED(12),
+	/**
+	 * Asks the binary stream of the TCP transfer, with the files of the news sent without being read to memory
+	 * @see NewsStream
+	 */
+	STREAM(13),
+	/**
+	 * Asks the news in the NEWS_ACK when they are up to the size of the field; in the NEWS_ACK is a part of the news in Base64
+	 * @see NewsStream#read(java.nio.ByteBuffer, inews.interfaces.NewsListener)
+	 */
+	INLINE(14),
+	/**
+	 * Dates of the news requested, separated by commas
+	 */
+	DATES(15),
+	/**
+	 * CRC32 of the dates and contents of the news of the user
+	 * @see NewsIndex#getChecksum(long)
+	 */
+	CHECKSUM(16),
+	/**
+	 * CRC32 of the news before the SINCE date that the requester already has; the answer repeats it when only the newer titles are sent
+	 * On a NEWS message all the news are sent when it doesn't match the news before the SINCE date
+	 */
+	BASE(17);
 	
 	private int type;
 	
@@ -57,6 +109,22 @@ public enum MessageDataType implements Serializable {
 		return MessageDataType.values()[index];
 	}
 	
+	/**
+	 * Returns the type with the provided name without throwing exceptions
+	 * @param name name of the type
+	 * @return the type or null if the name is unknown
+	 */
+	public static MessageDataType fromName(String name) {
+		
+		for (MessageDataType type : MessageDataType.values()) {
+			if (type.name().equals(name)) {
+				return type;
+			}
+		}
+		
+		return null;
+	}
+	
 	/**
 	 * Returns the code of the type
 	 * @return the code of the message
@@ -0,0 +1,446 @@
+package inews.dataStructures;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of the news received from the other users indexed by the user and the date of the news
+ * The news less used are removed when the size of the contents passes the maximum size
+ * For each user it keeps the dates of all its news when they were all received, with the total of news, last news date
+ * and checksum announced by the user at that time; while the user announces the same values its news are read from the cache
+ * When the user announces newer news or contents were removed, only the news missing on the cache are requested
+ * When a file is provided the cache is saved after each change of the listings and loaded when created
+ * @author Luis Portela
+ * @see UserStruct#getLastNewDate()
+ * @see UserStruct#getChecksum()
+ */
+public class NewsCache {
+
+	/**
+	 * Default maximum size of the contents of the news, in bytes
+	 */
+	public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+	private static final int CACHE_VERSION = 1;
+
+	// aproximacao do espaco ocupado por cada entrada alem do conteudo
+	private static final int ENTRY_OVERHEAD = 64;
+
+	private final LinkedHashMap<String, String> items = new LinkedHashMap<String, String>(64, 0.75f, true);
+	private final HashMap<String, Listing> listings = new HashMap<String, Listing>();
+	private final long maxBytes;
+	private final File file;
+	private long bytes = 0;
+
+	/**
+	 * Initializes the cache and loads the news saved on the file
+	 * @param maxBytes maximum size of the contents of the news
+	 * @param file file to save the cache or null to keep it only in memory
+	 */
+	public NewsCache(long maxBytes, File file) {
+
+		this.maxBytes = maxBytes;
+		this.file = file;
+
+		if ((this.file != null) && this.file.exists()) {
+			this.load();
+		}
+	}
+
+	/**
+	 * Adds the content of a news to the cache
+	 * @param user name of the user of the news
+	 * @param date date of the news
+	 * @param content content of the news
+	 */
+	public synchronized void put(String user, long date, String content) {
+
+		String old = this.items.put(key(user, date), content);
+
+		if (old != null) {
+			this.bytes -= size(old);
+		}
+		this.bytes += size(content);
+
+		this.evict();
+	}
+
+	/**
+	 * Returns the content of a news
+	 * @param user name of the user of the news
+	 * @param date date of the news
+	 * @return content of the news or null if it isn't on the cache
+	 */
+	public synchronized String get(String user, long date) {
+		return this.items.get(key(user, date));
+	}
+
+	/**
+	 * Registers that all the news of the user were received
+	 * Without the checksum of the user a news changed on its file couldn't be noticed, so the listing isn't kept
+	 * @param user user with the total of news, last news date and checksum announced when the news were received
+	 * @param dates dates of all the news of the user
+	 */
+	public synchronized void setListing(UserStruct user, NavigableSet<Long> dates) {
+		if (user.getChecksum() == -1) {
+			this.removeListing(user.getName());
+			return;
+		}
+		this.listings.put(user.getName().toLowerCase(), new Listing(user.getTotalNews(), user.getLastNewDate(), user.getChecksum(), dates));
+		this.save();
+	}
+
+	/**
+	 * Removes the listing of the user, so all its news are requested again
+	 * @param user name of the user
+	 */
+	public synchronized void removeListing(String user) {
+		if (this.listings.remove(user.toLowerCase()) != null) {
+			this.save();
+		}
+	}
+
+	/**
+	 * Returns the latest news of a user when the cache has all of them and the user didn't announce new or changed ones
+	 * @param user user with the total of news, last news date and checksum of its last ACTIVE message
+	 * @param count number of latest news or 0 to return all
+	 * @return contents of the news sorted by date or null if they must be requested to the user
+	 */
+	public synchronized LinkedList<String> getNews(UserStruct user, int count) {
+
+		Listing listing = this.listings.get(user.getName().toLowerCase());
+		LinkedList<String> news = new LinkedList<String>();
+		Iterator<Long> dates;
+		String content;
+
+		if ((listing == null) || (!listing.isCurrent(user))) {
+			return null;
+		}
+
+		dates = listing.dates.descendingIterator();
+
+		for (int i = 0; ((count == 0) || (i < count)) && dates.hasNext(); i++) {
+			if ((content = this.items.get(key(user.getName(), dates.next()))) == null) {
+				return null;
+			}
+			news.addFirst(content);
+		}
+
+		return news;
+	}
+
+	/**
+	 * Returns the news that must be requested to complete the latest news of a user with the cache
+	 * As on the titles cache, when the user only has news newer than its listing the newer news are requested since the
+	 * last news date of the listing; the news of the listing whose contents were removed from the cache are requested by date
+	 * The older news of a user that is behind can't be checked with its checksum, so the request carries the checksum of
+	 * the listing and the user sends all the news when its news before the SINCE date don't match it
+	 * @param user user with the total of news, last news date and checksum of its last ACTIVE message
+	 * @param count number of latest news or 0 for all
+	 * @return the news to request or null if all the news must be requested
+	 */
+	public synchronized CatchUp getCatchUp(UserStruct user, int count) {
+
+		Listing listing = this.listings.get(user.getName().toLowerCase());
+		CatchUp catchUp;
+		Iterator<Long> dates;
+		String content;
+		boolean behind;
+		long date;
+
+		if (listing == null) {
+			return null;
+		}
+
+		behind = (user.getLastNewDate() > listing.lastNewDate) && (user.getTotalNews() > listing.totalNews);
+
+		if ((!behind) && (!listing.isCurrent(user))) {
+			return null;
+		}
+
+		catchUp = new CatchUp(listing.dates, behind ? listing.lastNewDate + 1 : Long.MAX_VALUE, listing.checksum);
+		dates = listing.dates.descendingIterator();
+
+		// as noticias novas tambem contam para as ultimas, por isso podem ser pedidas noticias que ja nao sao mostradas
+		for (int i = 0; ((count == 0) || (i < count)) && dates.hasNext(); i++) {
+			date = dates.next();
+			if ((content = this.items.get(key(user.getName(), date))) != null) {
+				catchUp.cached.put(date, content);
+			}
+			else {
+				catchUp.missing.add(date);
+			}
+		}
+
+		if ((!behind) && catchUp.missing.isEmpty()) {
+			return null;
+		}
+
+		return catchUp;
+	}
+
+	/**
+	 * Returns the size of the contents on the cache
+	 * @return size in bytes
+	 */
+	public synchronized long getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * Removes the news less used until the size is under the maximum size
+	 */
+	private void evict() {
+
+		Iterator<Entry<String, String>> it = this.items.entrySet().iterator();
+
+		while ((this.bytes > this.maxBytes) && it.hasNext()) {
+			this.bytes -= size(it.next().getValue());
+			it.remove();
+		}
+	}
+
+	/**
+	 * Saves the news and the listings to the file
+	 * The news are written by the order of use, each one with its key and the UTF-8 content, and then the listings
+	 * The file is written with other name and renamed so a failed write doesn't lose the previous cache
+	 */
+	private void save() {
+
+		DataOutputStream out;
+		File tmpFile;
+		byte[] content;
+
+		if (this.file == null) {
+			return;
+		}
+
+		tmpFile = new File(this.file.getPath() + ".tmp");
+
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			try {
+				out.writeInt(CACHE_VERSION);
+				out.writeInt(this.items.size());
+				for (Entry<String, String> item : this.items.entrySet()) {
+					content = item.getValue().getBytes(StandardCharsets.UTF_8);
+					out.writeUTF(item.getKey());
+					out.writeInt(content.length);
+					out.write(content);
+				}
+				out.writeInt(this.listings.size());
+				for (Entry<String, Listing> listing : this.listings.entrySet()) {
+					out.writeUTF(listing.getKey());
+					out.writeInt(listing.getValue().totalNews);
+					out.writeLong(listing.getValue().lastNewDate);
+					out.writeLong(listing.getValue().checksum);
+					out.writeInt(listing.getValue().dates.size());
+					for (Long date : listing.getValue().dates) {
+						out.writeLong(date);
+					}
+				}
+			} finally {
+				out.close();
+			}
+			if (!tmpFile.renameTo(this.file)) {
+				this.file.delete();
+				tmpFile.renameTo(this.file);
+			}
+		} catch (IOException ex) {
+			Logger.getLogger(NewsCache.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
+	/**
+	 * Loads the news and the listings from the file
+	 * The news are added by the order of use so the less used are the first to be removed
+	 * A cache with other version is ignored; the sizes are checked against the size of the file, so a damaged file
+	 * is ignored without allocating more than the file
+	 */
+	private void load() {
+
+		LinkedHashMap<String, String> loadedItems = new LinkedHashMap<String, String>();
+		HashMap<String, Listing> loadedListings = new HashMap<String, Listing>();
+		DataInputStream in;
+		NavigableSet<Long> dates;
+		String key;
+		byte[] content;
+		int count, totalNews, length;
+		long lastNewDate, checksum;
+
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+			try {
+				if (in.readInt() != CACHE_VERSION) {
+					return;
+				}
+				count = this.readCount(in);
+				for (int i = 0; i < count; i++) {
+					key = in.readUTF();
+					content = new byte[this.readCount(in)];
+					in.readFully(content);
+					loadedItems.put(key, new String(content, StandardCharsets.UTF_8));
+				}
+				count = this.readCount(in);
+				for (int i = 0; i < count; i++) {
+					key = in.readUTF();
+					totalNews = in.readInt();
+					lastNewDate = in.readLong();
+					checksum = in.readLong();
+					length = this.readCount(in);
+					dates = new TreeSet<Long>();
+					for (int j = 0; j < length; j++) {
+						dates.add(in.readLong());
+					}
+					loadedListings.put(key, new Listing(totalNews, lastNewDate, checksum, dates));
+				}
+			} finally {
+				in.close();
+			}
+		} catch (IOException ex) {
+			Logger.getLogger(NewsCache.class.getName()).log(Level.SEVERE, null, ex);
+			return;
+		}
+
+		for (Entry<String, String> item : loadedItems.entrySet()) {
+			this.items.put(item.getKey(), item.getValue());
+			this.bytes += size(item.getValue());
+		}
+		this.listings.putAll(loadedListings);
+		this.evict();
+	}
+
+	/**
+	 * Reads a number of entries or bytes of the cache file
+	 * @param in stream of the file
+	 * @return the number read
+	 * @throws IOException if the number is negative or bigger than the file
+	 */
+	private int readCount(DataInputStream in) throws IOException {
+
+		int count = in.readInt();
+
+		if ((count < 0) || (count > this.file.length())) {
+			throw new IOException("Cache de noticias corrompida: " + this.file);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns the key of a news
+	 * @param user name of the user of the news
+	 * @param date date of the news
+	 * @return key of the news
+	 */
+	private static String key(String user, long date) {
+		return user.toLowerCase() + '\0' + date;
+	}
+
+	/**
+	 * Returns the size of a content on the cache
+	 * @param content content of a news
+	 * @return size in bytes
+	 */
+	private static long size(String content) {
+		return ((long) content.length() << 1) + ENTRY_OVERHEAD;
+	}
+
+	/**
+	 * News requested to complete the latest news of a user with the cache
+	 * @see NewsCache#getCatchUp(inews.dataStructures.UserStruct, int)
+	 */
+	public static final class CatchUp {
+
+		private final NavigableSet<Long> listing;
+		private final long since;
+		private final long base;
+		private final NavigableMap<Long, String> cached = new TreeMap<Long, String>();
+		private final NavigableSet<Long> missing = new TreeSet<Long>();
+
+		CatchUp(NavigableSet<Long> listing, long since, long base) {
+			this.listing = new TreeSet<Long>(listing);
+			this.since = since;
+			this.base = base;
+		}
+
+		/**
+		 * Returns the dates of all the news of the listing of the user
+		 * @return dates of the news
+		 */
+		public NavigableSet<Long> getListing() {
+			return this.listing;
+		}
+
+		/**
+		 * Returns the date of the first news newer than the listing
+		 * @return date after the last news date of the listing or Long.MAX_VALUE if there are no newer news
+		 */
+		public long getSince() {
+			return this.since;
+		}
+
+		/**
+		 * Returns the checksum of the news of the listing
+		 * @return CRC32 of the news announced by the user when the listing was saved
+		 * @see MessageDataType#BASE
+		 */
+		public long getBase() {
+			return this.base;
+		}
+
+		/**
+		 * Returns the contents of the latest news of the listing that are on the cache
+		 * @return contents indexed by date
+		 */
+		public NavigableMap<Long, String> getCached() {
+			return this.cached;
+		}
+
+		/**
+		 * Returns the dates of the latest news of the listing that aren't on the cache
+		 * @return dates of the news to request
+		 */
+		public NavigableSet<Long> getMissing() {
+			return this.missing;
+		}
+	}
+
+	/**
+	 * Dates of all the news of a user and the values announced by the user when they were received
+	 */
+	private static final class Listing {
+
+		private final int totalNews;
+		private final long lastNewDate;
+		private final long checksum;
+		private final TreeSet<Long> dates;
+
+		Listing(int totalNews, long lastNewDate, long checksum, NavigableSet<Long> dates) {
+			this.totalNews = totalNews;
+			this.lastNewDate = lastNewDate;
+			this.checksum = checksum;
+			this.dates = new TreeSet<Long>(dates);
+		}
+
+		/**
+		 * Checks if the user announces the same news of the listing
+		 * @param user user with the total of news, last news date and checksum of its last ACTIVE message
+		 * @return true if the user has the same news ; false otherwise
+		 */
+		boolean isCurrent(UserStruct user) {
+			return (user.getTotalNews() == this.totalNews) && (user.getLastNewDate() == this.lastNewDate) && (user.getChecksum() == this.checksum);
+		}
+	}
+}
@@ -0,0 +1,456 @@
+package inews.dataStructures;
+
+import java.io.*;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.TreeMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Index of the local news with the date, title, size and hash of each news file
+ * The index is saved on a hidden file of the news dir and loaded when created, so the titles, the total of news
+ * and the last news date are read from memory; only the files that changed since the last update are read again
+ * The indexed news are replaced by a new map on each change so the readers never see a map being changed
+ * @author Luis Portela
+ * @see UserStruct
+ */
+public final class NewsIndex {
+
+	/**
+	 * Name of the index file on the news dir
+	 */
+	public static final String INDEX_FILE = ".index";
+
+	private static final int INDEX_VERSION = 1;
+
+	private static NewsIndex mySelf = null;
+
+	private final File indexFile;
+	private volatile NavigableMap<Long, Item> items;
+
+	/**
+	 * Initializes the index of the news dir loading the saved index
+	 * @param dir news dir
+	 */
+	private NewsIndex(File dir) {
+
+		this.indexFile = new File(dir, INDEX_FILE);
+		this.items = Collections.unmodifiableNavigableMap(new TreeMap<Long, Item>());
+
+		if (this.indexFile.exists()) {
+			this.load();
+		}
+	}
+
+	/**
+	 * Returns the instance of this class or creates a new one and returns if it doesn't exists
+	 * @return the index of the news dir
+	 */
+	public static synchronized NewsIndex getInstance() {
+		if (mySelf == null)
+			mySelf = new NewsIndex(new File("_news"));
+
+		return mySelf;
+	}
+
+	/**
+	 * Updates the index with the files of the news dir and saves it if something changed
+	 * The files with the same size and modification date of the index are not read
+	 * @param listOfFiles list of files on the news dir
+	 * @return true if the indexed news changed ; false otherwise
+	 */
+	public synchronized boolean refresh(File[] listOfFiles) {
+
+		NavigableMap<Long, Item> oldItems = this.items, newItems = new TreeMap<Long, Item>();
+		boolean changed = false;
+		Item item;
+		long date;
+
+		if (listOfFiles == null) {
+			return false;
+		}
+
+		for (File newsFile : listOfFiles) {
+			if ((date = getDate(newsFile.getName())) == -1) {
+				continue;
+			}
+
+			item = oldItems.get(date);
+
+			if ((item == null) || (!item.fileName.equals(newsFile.getName())) || (item.length != newsFile.length())
+					|| (item.lastModified != newsFile.lastModified())) {
+				try {
+					item = readItem(date, newsFile);
+					changed = true;
+				} catch (IOException ex) {
+					Logger.getLogger(NewsIndex.class.getName()).log(Level.SEVERE, null, ex);
+					continue;
+				}
+			}
+
+			newItems.put(date, item);
+		}
+
+		if (changed || (newItems.size() != oldItems.size())) {
+			this.items = Collections.unmodifiableNavigableMap(newItems);
+			this.save();
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Updates the index with one news file that was created, changed or removed and saves it if something changed
+	 * An existing file is always read and it only changes the index if its title, size or hash are different
+	 * @param newsFile file of the news
+	 * @return true if the indexed news changed ; false otherwise
+	 */
+	public synchronized boolean update(File newsFile) {
+
+		NavigableMap<Long, Item> newItems;
+		long date = getDate(newsFile.getName());
+		Item oldItem, item;
+
+		if (date == -1) {
+			return false;
+		}
+
+		oldItem = this.items.get(date);
+
+		if (!newsFile.isFile()) {
+			if ((oldItem == null) || (!oldItem.fileName.equals(newsFile.getName()))) {
+				return false;
+			}
+			newItems = new TreeMap<Long, Item>(this.items);
+			newItems.remove(date);
+		}
+		else {
+			try {
+				item = readItem(date, newsFile);
+			} catch (IOException ex) {
+				Logger.getLogger(NewsIndex.class.getName()).log(Level.SEVERE, null, ex);
+				return false;
+			}
+			if ((oldItem != null) && oldItem.fileName.equals(item.fileName) && oldItem.title.equals(item.title)
+					&& (oldItem.length == item.length) && (oldItem.crc == item.crc)) {
+				return false;
+			}
+			newItems = new TreeMap<Long, Item>(this.items);
+			newItems.put(date, item);
+		}
+
+		this.items = Collections.unmodifiableNavigableMap(newItems);
+		this.save();
+
+		return true;
+	}
+
+	/**
+	 * Returns the date of a news from the name of its file, the name without the extension
+	 * @param fileName name of the news file
+	 * @return date as long or -1 if the name isn't a date
+	 */
+	public static long getDate(String fileName) {
+
+		int finalIdxName = fileName.lastIndexOf(".");
+
+		finalIdxName = finalIdxName != -1 ? finalIdxName : fileName.length();
+
+		try {
+			return Long.parseLong(fileName.substring(0, finalIdxName));
+		} catch (NumberFormatException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Returns the indexed news sorted by date
+	 * @return read only map with the news of each date
+	 */
+	public NavigableMap<Long, Item> getItems() {
+		return this.items;
+	}
+
+	/**
+	 * Selects the indexed news requested by a NEWS message
+	 * The news are the latest news with dates since the provided date and the news of the provided dates that exist
+	 * @param count number of latest news of the range or 0 for all
+	 * @param since date of the oldest news of the range or Long.MAX_VALUE to not select a range
+	 * @param dates dates of other news requested or null
+	 * @return news sorted by date
+	 * @see MessageDataType#SINCE
+	 * @see MessageDataType#DATES
+	 */
+	public LinkedList<Item> select(int count, long since, NavigableSet<Long> dates) {
+
+		NavigableMap<Long, Item> tmpItems = this.items;
+		NavigableMap<Long, Item> selected = new TreeMap<Long, Item>();
+		Iterator<Item> it = tmpItems.tailMap(since, true).descendingMap().values().iterator();
+		Item item;
+
+		for (int i = 0; ((count == 0) || (i < count)) && it.hasNext(); i++) {
+			item = it.next();
+			selected.put(item.date, item);
+		}
+
+		if (dates != null) {
+			for (Long date : dates) {
+				if ((item = tmpItems.get(date)) != null) {
+					selected.put(date, item);
+				}
+			}
+		}
+
+		return new LinkedList<Item>(selected.values());
+	}
+
+	/**
+	 * Returns the total of indexed news
+	 * @return total of news
+	 */
+	public int getTotalNews() {
+		return this.items.size();
+	}
+
+	/**
+	 * Returns the date of the newest indexed news
+	 * @return date as long or 0 if there are no news
+	 */
+	public long getLastNewDate() {
+
+		NavigableMap<Long, Item> tmpItems = this.items;
+
+		return tmpItems.isEmpty() ? 0 : tmpItems.lastKey();
+	}
+
+	/**
+	 * Returns the checksum of the indexed news older than a date
+	 * It is the CRC32 of the date and content hash of each news by date order, so a news changed on its file changes it
+	 * even when the total of news and the last news date stay the same
+	 * @param before date after the last news included or Long.MAX_VALUE for all the news
+	 * @return CRC32 of the news
+	 * @see MessageDataType#CHECKSUM
+	 */
+	public long getChecksum(long before) {
+		return checksum(this.items.headMap(before, false));
+	}
+
+	/**
+	 * Defines the news list, the total of news, the last news date and the checksum of the local user with the indexed news
+	 * @param user local user
+	 */
+	public void updateUser(UserStruct user) {
+
+		NavigableMap<Long, Item> tmpItems = this.items;
+		NavigableMap<Long, String> newsList = new TreeMap<Long, String>();
+
+		for (Item item : tmpItems.values()) {
+			newsList.put(item.date, item.fileName);
+		}
+
+		user.setNewsList(newsList);
+		user.setTotalNews(newsList.size());
+		user.setLastNewDate(newsList.isEmpty() ? 0 : newsList.lastKey());
+		user.setChecksum(checksum(tmpItems));
+	}
+
+	/**
+	 * Calculates the CRC32 of the date and content hash of each news
+	 * @param tmpItems news sorted by date
+	 * @return CRC32 of the news
+	 */
+	private static long checksum(NavigableMap<Long, Item> tmpItems) {
+
+		CRC32 crc = new CRC32();
+		byte[] entry = new byte[16];
+
+		for (Item item : tmpItems.values()) {
+			putLong(entry, 0, item.date);
+			putLong(entry, 8, item.crc);
+			crc.update(entry);
+		}
+
+		return crc.getValue();
+	}
+
+	/**
+	 * Writes a long on a byte array in big endian
+	 * @param buf array to write
+	 * @param offset position of the first byte
+	 * @param value value to write
+	 */
+	private static void putLong(byte[] buf, int offset, long value) {
+		for (int i = 7; i >= 0; i--) {
+			buf[offset + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+
+	/**
+	 * Reads the title and calculates the hash of a news file
+	 * @param date date of the news
+	 * @param newsFile file of the news
+	 * @return the index information of the news
+	 * @throws IOException if the file can't be read
+	 */
+	private static Item readItem(long date, File newsFile) throws IOException {
+
+		long lastModified = newsFile.lastModified();
+		byte[] content = new byte[(int) newsFile.length()];
+		DataInputStream in = new DataInputStream(new FileInputStream(newsFile));
+		CRC32 crc = new CRC32();
+		String title;
+		int lineEnd;
+
+		try {
+			in.readFully(content);
+		} finally {
+			in.close();
+		}
+
+		crc.update(content);
+
+		// o titulo e a primeira linha da noticia
+		title = new String(content);
+		lineEnd = title.indexOf('\n');
+		title = lineEnd != -1 ? title.substring(0, lineEnd) : title;
+		if (title.endsWith("\r")) {
+			title = title.substring(0, title.length() - 1);
+		}
+
+		return new Item(date, newsFile.getName(), title, content.length, lastModified, crc.getValue());
+	}
+
+	/**
+	 * Saves the index to the index file
+	 * The file is written with other name and renamed so a failed write doesn't lose the previous index
+	 */
+	private void save() {
+
+		File tmpFile = new File(this.indexFile.getPath() + ".tmp");
+		DataOutputStream out;
+
+		try {
+			out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+			try {
+				out.writeInt(INDEX_VERSION);
+				out.writeInt(this.items.size());
+				for (Item item : this.items.values()) {
+					out.writeLong(item.date);
+					out.writeUTF(item.fileName);
+					out.writeUTF(item.title);
+					out.writeLong(item.length);
+					out.writeLong(item.lastModified);
+					out.writeLong(item.crc);
+				}
+			} finally {
+				out.close();
+			}
+			if (!tmpFile.renameTo(this.indexFile)) {
+				this.indexFile.delete();
+				tmpFile.renameTo(this.indexFile);
+			}
+		} catch (IOException ex) {
+			Logger.getLogger(NewsIndex.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
+	/**
+	 * Loads the index from the index file
+	 * An index with other version is ignored and built again from the files
+	 */
+	private void load() {
+
+		NavigableMap<Long, Item> loadedItems = new TreeMap<Long, Item>();
+		DataInputStream in;
+		Item item;
+		int count;
+
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.indexFile)));
+			try {
+				if (in.readInt() != INDEX_VERSION) {
+					return;
+				}
+				count = in.readInt();
+				for (int i = 0; i < count; i++) {
+					item = new Item(in.readLong(), in.readUTF(), in.readUTF(), in.readLong(), in.readLong(), in.readLong());
+					loadedItems.put(item.date, item);
+				}
+			} finally {
+				in.close();
+			}
+			this.items = Collections.unmodifiableNavigableMap(loadedItems);
+		} catch (IOException ex) {
+			Logger.getLogger(NewsIndex.class.getName()).log(Level.SEVERE, null, ex);
+		}
+	}
+
+	/**
+	 * Index information of a news file
+	 */
+	public static final class Item {
+
+		private final long date;
+		private final String fileName;
+		private final String title;
+		private final long length;
+		private final long lastModified;
+		private final long crc;
+
+		private Item(long date, String fileName, String title, long length, long lastModified, long crc) {
+			this.date = date;
+			this.fileName = fileName;
+			this.title = title;
+			this.length = length;
+			this.lastModified = lastModified;
+			this.crc = crc;
+		}
+
+		/**
+		 * Returns the date of the news
+		 * @return date as long
+		 */
+		public long getDate() {
+			return this.date;
+		}
+
+		/**
+		 * Returns the name of the news file
+		 * @return name of the file
+		 */
+		public String getFileName() {
+			return this.fileName;
+		}
+
+		/**
+		 * Returns the title of the news, the first line of the file
+		 * @return title of the news
+		 */
+		public String getTitle() {
+			return this.title;
+		}
+
+		/**
+		 * Returns the size of the news file
+		 * @return size in bytes
+		 */
+		public long getLength() {
+			return this.length;
+		}
+
+		/**
+		 * Returns the CRC32 of the content of the news file
+		 * @return hash of the content
+		 */
+		public long getCrc() {
+			return this.crc;
+		}
+	}
+}
@@ -0,0 +1,274 @@
+package inews.dataStructures;
+
+import inews.interfaces.NewsListener;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Binary stream of the TCP transfer of the news
+ * The stream starts with the magic bytes, the version, the sequence number of the NEWS message and a manifest with the
+ * number of news and the date, size and title of each one, followed by the contents of the news without separators;
+ * the contents are sent from the files to the socket with FileChannel.transferTo
+ * With the manifest the receiver knows the size of the transfer before the contents and doesn't look for markers
+ *
+ * Start: magic bytes, version (byte) and sequence number (int)
+ * Manifest: count (int) and for each news the date (long), the size of the content (int) and the UTF-8 title
+ * (int size followed by the bytes)
+ *
+ * A NEWS message with the STREAM field asks this stream. The old nodes fail on unknown fields, so the field is only sent
+ * to the nodes that announce their version; the others send the text transfer, which doesn't start with the magic bytes,
+ * so the receiver accepts both
+ * The stream is not asked with the system property inews.news.transfer=text
+ * @author Luis Portela
+ * @see MessageDataType#STREAM
+ * @see inews.interfaces.NewsStore#transferNews(java.util.List, java.nio.channels.WritableByteChannel)
+ */
+public final class NewsStream {
+
+	/**
+	 * Bytes that start the stream, without the version
+	 */
+	public static final byte[] MAGIC = {'I', 'N', 'W', 'S'};
+
+	/**
+	 * Version of the stream, the byte after the magic bytes
+	 */
+	public static final int VERSION = 3;
+
+	/**
+	 * Maximum size of the title of a news on the manifest
+	 */
+	public static final int MAX_TITLE_BYTES = 1024;
+
+	/**
+	 * Minimum size of a news on the manifest: date, size of the content and size of the title
+	 */
+	private static final int MIN_ENTRY_BYTES = 8 + 4 + 4;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final boolean enabled = !"text".equalsIgnoreCase(System.getProperty("inews.news.transfer", "stream"));
+
+	/**
+	 * Private constructor, this class only has static methods
+	 */
+	private NewsStream() {
+	}
+
+	/**
+	 * Checks if this node asks the binary stream on the NEWS messages
+	 * @return true if the stream is enabled ; false otherwise
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Writes the magic bytes, the version and the sequence number that start the stream
+	 * @param sequence sequence number of the NEWS message answered
+	 * @param target channel of the connection
+	 * @throws IOException if the channel can't be written
+	 */
+	public static void writeStart(int sequence, WritableByteChannel target) throws IOException {
+
+		ByteBuffer start = ByteBuffer.allocate(MAGIC.length + 1 + 4);
+
+		start.put(MAGIC).put((byte) VERSION).putInt(sequence).flip();
+		writeFully(start, target);
+	}
+
+	/**
+	 * Writes the manifest with the news of the stream
+	 * @param entries news that are sent after the manifest, by the same order
+	 * @param target channel of the connection
+	 * @throws IOException if the channel can't be written
+	 */
+	public static void writeManifest(List<Entry> entries, WritableByteChannel target) throws IOException {
+
+		ByteBuffer manifest;
+		byte[][] titles = new byte[entries.size()][];
+		int size = 4, i = 0;
+
+		for (Entry entry : entries) {
+			titles[i] = entry.title.getBytes(UTF8);
+			// o titulo e cortado no limite sem partir um caracter
+			if (titles[i].length > MAX_TITLE_BYTES) {
+				int end = MAX_TITLE_BYTES;
+				while ((end > 0) && ((titles[i][end] & 0xC0) == 0x80)) {
+					end--;
+				}
+				byte[] title = new byte[end];
+				System.arraycopy(titles[i], 0, title, 0, end);
+				titles[i] = title;
+			}
+			size += 8 + 4 + 4 + titles[i++].length;
+		}
+
+		manifest = ByteBuffer.allocate(size);
+		manifest.putInt(entries.size());
+
+		i = 0;
+		for (Entry entry : entries) {
+			manifest.putLong(entry.date).putInt(entry.length).putInt(titles[i].length).put(titles[i++]);
+		}
+
+		manifest.flip();
+		writeFully(manifest, target);
+	}
+
+	/**
+	 * Reads the manifest and the contents of the news sent in memory, without the start of the stream
+	 * Used for the news answered in the NEWS_ACK; the news are given to the listener as in the TCP transfer
+	 * @param data manifest followed by the contents of the news
+	 * @param listener listener of the news
+	 * @return number of news read
+	 * @throws IOException if the data ends before the news of the manifest or a size of the manifest is not valid
+	 * @see MessageDataType#INLINE
+	 */
+	public static int read(ByteBuffer data, NewsListener listener) throws IOException {
+
+		Entry[] entries;
+		byte[] title, content;
+
+		try {
+			// os tamanhos sao validados com os bytes que restam antes de alocar
+			entries = new Entry[checkSize(data.getInt(), data.remaining() / MIN_ENTRY_BYTES)];
+			for (int i = 0; i < entries.length; i++) {
+				long date = data.getLong();
+				int length = data.getInt();
+				title = new byte[checkSize(data.getInt(), Math.min(MAX_TITLE_BYTES, data.remaining()))];
+				data.get(title);
+				entries[i] = new Entry(date, decodeTitle(title), length);
+			}
+
+			listener.newsStarted(entries.length);
+
+			for (Entry entry : entries) {
+				content = new byte[checkSize(entry.length, data.remaining())];
+				data.get(content);
+				// como na transferencia de texto o conteudo termina sempre com '\n'
+				if ((content.length == 0) || (content[content.length - 1] != '\n')) {
+					listener.newsReceived(entry.date, entry.title, new String(content) + '\n');
+				}
+				else {
+					listener.newsReceived(entry.date, entry.title, new String(content));
+				}
+			}
+		} catch (BufferUnderflowException ex) {
+			throw new EOFException("As noticias terminaram antes do fim do manifesto");
+		}
+
+		return entries.length;
+	}
+
+	/**
+	 * Checks a size read from the data before it is allocated
+	 * @param size size read
+	 * @param max maximum size allowed by the remaining data
+	 * @return the size
+	 * @throws IOException if the size is negative or bigger than the maximum
+	 */
+	private static int checkSize(int size, int max) throws IOException {
+
+		if ((size < 0) || (size > max)) {
+			throw new IOException("Manifesto mal formado");
+		}
+
+		return size;
+	}
+
+	/**
+	 * Decodes a title of the manifest
+	 * @param title bytes of the title
+	 * @return the title
+	 */
+	public static String decodeTitle(byte[] title) {
+		return new String(title, UTF8);
+	}
+
+	/**
+	 * Transfers a part of a file to the channel without copying it to memory
+	 * @param source channel of the file
+	 * @param position position of the first byte to transfer
+	 * @param count number of bytes to transfer
+	 * @param target channel of the connection
+	 * @throws IOException if the file ended before the bytes were transferred or the channel can't be written
+	 */
+	public static void transfer(FileChannel source, long position, long count, WritableByteChannel target) throws IOException {
+
+		long transferred;
+
+		// o transferTo pode enviar menos bytes do que os pedidos
+		while (count > 0) {
+			transferred = source.transferTo(position, count, target);
+			if ((transferred <= 0) && (position >= source.size())) {
+				throw new EOFException("O ficheiro terminou antes do fim da noticia");
+			}
+			position += transferred;
+			count -= transferred;
+		}
+	}
+
+	/**
+	 * Writes all the remaining bytes of the buffer
+	 * @param buffer buffer to write
+	 * @param target channel of the connection
+	 * @throws IOException if the channel can't be written
+	 */
+	private static void writeFully(ByteBuffer buffer, WritableByteChannel target) throws IOException {
+		while (buffer.hasRemaining()) {
+			target.write(buffer);
+		}
+	}
+
+	/**
+	 * News of the manifest of the stream
+	 */
+	public static final class Entry {
+
+		private final long date;
+		private final String title;
+		private final int length;
+
+		/**
+		 * Initializes the entry of a news
+		 * @param date date of the news
+		 * @param title title of the news
+		 * @param length size of the content of the news
+		 */
+		public Entry(long date, String title, int length) {
+			this.date = date;
+			this.title = title != null ? title : "";
+			this.length = length;
+		}
+
+		/**
+		 * Returns the date of the news
+		 * @return date as long
+		 */
+		public long getDate() {
+			return this.date;
+		}
+
+		/**
+		 * Returns the title of the news
+		 * @return title of the news
+		 */
+		public String getTitle() {
+			return this.title;
+		}
+
+		/**
+		 * Returns the size of the content of the news
+		 * @return size in bytes
+		 */
+		public int getLength() {
+			return this.length;
+		}
+	}
+}
@@ -4,11 +4,13 @@ import java.io.Serializable;
 import java.net.DatagramPacket;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
 
 /**
  * Class with the information of a message or packet sended to the network
  * Its used to build the packet before send and to read the received message
+ * @see PacketCodec
  * @see MessageType
  * @see UserStruct
  * @see IPStruct
@@ -16,10 +18,26 @@ import java.util.LinkedList;
  */
 public class Packet implements Serializable {
 	
+	/**
+	 * Maximum size of a datagram received from the network
+	 */
+	public static final int MAX_DATAGRAM_SIZE = 1024;
+	
+	// nomes dos tipos de mensagem em bytes para identificar o tipo sem criar objectos
+	private static final MessageType[] TYPES = MessageType.values();
+	private static final byte[][] TYPE_NAMES = new byte[TYPES.length][];
+	
+	static {
+		for (int i = 0; i < TYPES.length; i++) {
+			TYPE_NAMES[i] = TYPES[i].getTypeByte();
+		}
+	}
+	
 	private final MessageType type;
 	private final UserStruct user;
 	private final IPStruct dataPacketIP;
 	private int sequence;
+	private final PacketCodec codec;
 	
 	private final LinkedList<MessageData> dataList;
 	
@@ -45,11 +63,33 @@ public class Packet implements Serializable {
 		if (extraList != null)
 			this.dataList = new LinkedList<MessageData>(extraList);
 		else this.dataList = extraList;
+		this.codec = PacketCodec.TEXT;
+	}
+	
+	/**
+	 * Initializes a packet decoded from a received message without copying the values
+	 * @param type type of message
+	 * @param user user that sent the message
+	 * @param source sender of the message
+	 * @param sequence sequence number of the message
+	 * @param dataList list with the data different of TYPE, SEQUENCE, USER
+	 * @param codec encoding of the received message
+	 * @see PacketCodec#decode(java.nio.ByteBuffer, inews.dataStructures.IPStruct) 
+	 */
+	Packet(MessageType type, UserStruct user, IPStruct source, int sequence, LinkedList<MessageData> dataList, PacketCodec codec) {
+		
+		this.type = type;
+		this.user = user;
+		this.dataPacketIP = source;
+		this.sequence = sequence;
+		this.dataList = dataList;
+		this.codec = codec;
 	}
 	
 	/**
 	 * Builds a packet from a received message
 	 * Parses the message and create the needed value
+	 * The fields unknown to this version are ignored
 	 * @param buf buffer with byte data
 	 * @param length size of the buffer
 	 * @param source source of the message
@@ -60,6 +100,7 @@ public class Packet implements Serializable {
 		
 		// sender of the message
 		this.dataPacketIP = source;
+		this.codec = PacketCodec.TEXT;
 		
 		String content = new String(buf, 0, length);
 		content = content.substring(0, content.indexOf('\0'));
@@ -77,18 +118,76 @@ public class Packet implements Serializable {
 		if (actualIdx < tokens.length) {
 			
 			int strIdx;
+			MessageDataType key;
 
 			// parse the different data of the packet and adds to the LinkedList
 			while (actualIdx < tokens.length) {
 				strIdx = tokens[actualIdx].indexOf(": ");
 
-				this.dataList.add(new MessageData(MessageDataType.valueOf(tokens[actualIdx].substring(0, strIdx).toUpperCase()), 
-						tokens[actualIdx].substring(strIdx+2)));
+				// campos de versoes mais recentes sao ignorados
+				if ((strIdx > 0) && ((key = MessageDataType.fromName(tokens[actualIdx].substring(0, strIdx).toUpperCase())) != null)) {
+					this.dataList.add(new MessageData(key, tokens[actualIdx].substring(strIdx+2)));
+				}
 				actualIdx++;
 			}
 		}
 	}
 
+	/**
+	 * Builds a packet from a message received in a buffer
+	 * The buffer is read from its position to its limit and its position is not changed
+	 * @param buf buffer with the received message
+	 * @param source source of the message
+	 * @see Packet#Packet(byte[], int, inews.dataStructures.IPStruct) 
+	 */
+	public Packet(ByteBuffer buf, IPStruct source) {
+		this(toArray(buf), buf.remaining(), source);
+	}
+	
+	/**
+	 * Returns the type of the message in the buffer without parsing the rest of the message
+	 * Accepts the text and the binary encodings
+	 * The buffer position is not changed
+	 * @param buf buffer with the received message
+	 * @return the type of the message or null if it is not a valid message
+	 * @see MessageType
+	 */
+	public static MessageType peekType(ByteBuffer buf) {
+		
+		int start = buf.position(), length = buf.remaining();
+		byte[] name;
+		int i;
+		
+		if (PacketCodec.isBinary(buf)) {
+			return PacketCodec.peekBinaryType(buf);
+		}
+		
+		for (int t = 0; t < TYPE_NAMES.length; t++) {
+			name = TYPE_NAMES[t];
+			if (length > name.length) {
+				for (i = 0; (i < name.length) && (buf.get(start + i) == name[i]); i++);
+				// o nome do tipo tem de terminar com o fim da linha ou da mensagem
+				if ((i == name.length) && ((buf.get(start + i) == '\n') || (buf.get(start + i) == '\0'))) {
+					return TYPES[t];
+				}
+			}
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Copies the content of the buffer to a new array
+	 * @param buf buffer to copy
+	 * @return array with the bytes between the position and the limit of the buffer
+	 */
+	private static byte[] toArray(ByteBuffer buf) {
+		
+		byte[] tmp = new byte[buf.remaining()];
+		buf.duplicate().get(tmp);
+		return tmp;
+	}
+
 	/**
 	 * Returns the IP packet
 	 * @return IP of the packet
@@ -124,6 +223,15 @@ public class Packet implements Serializable {
 		return user;
 	}
 
+	/**
+	 * Returns the encoding of the received message
+	 * @return the encoding ; TEXT for the packets built locally
+	 * @see PacketCodec
+	 */
+	public PacketCodec getCodec() {
+		return codec;
+	}
+
 	/**
 	 * Returns the unusual list of data
 	 * @return data list
@@ -134,34 +242,31 @@ public class Packet implements Serializable {
 	}
 	
 	/**
-	 * Returns byte array with the information on the class
+	 * Returns byte array with the information on the class in the text encoding
 	 * @return byte array with the information
 	 * @see MessageData
+	 * @see PacketCodec#encode(inews.dataStructures.Packet) 
 	 */
 	public byte[] getBytes(){
 		
-		String tmp;
-		MessageData tmpEntry;
+		StringBuilder tmp = new StringBuilder(128);
 		// usual information of a packet
-		tmp = this.type.toString() + "\n" +
-				"USER: " + this.user.getName() + "\n"+
-				"SEQUENCE: " + String.valueOf(this.sequence);
+		tmp.append(this.type.toString()).append('\n')
+				.append("USER: ").append(this.user.getName()).append('\n')
+				.append("SEQUENCE: ").append(this.sequence);
 		
 		// the unusual information if it exists
 		if (this.dataList != null) {
 			
-			LinkedList<MessageData> tmpDataList = new LinkedList<MessageData>(this.dataList);
+			tmp.append('\n');
 			
-			tmp = tmp + "\n";
-			
-			while ((tmpEntry = tmpDataList.pollFirst()) != null) {
-				
-				tmp = tmp + (tmpEntry.getKey() + ": " + tmpEntry.getValue());
-				
-				if (tmpDataList.size() != 0) tmp = tmp + "\n";
+			for (MessageData tmpEntry : this.dataList) {
+				tmp.append(tmpEntry.getKey()).append(": ").append(tmpEntry.getValue()).append('\n');
 			}
+			
+			if (!this.dataList.isEmpty()) tmp.setLength(tmp.length() - 1);
 		}
-		return (tmp + '\0').getBytes();
+		return tmp.append('\0').toString().getBytes();
 	}
 	
 	/**
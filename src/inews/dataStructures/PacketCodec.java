@@ -0,0 +1,292 @@
+package inews.dataStructures;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * Enumerator with the encodings of the packets on the network
+ * The text encoding is understood by all the nodes; the binary encoding is only used with the peers that announced it
+ * The text packets announce the binary version supported after the '\0' that ends the message, so the old nodes ignore it;
+ * the version is 0 when the binary encoding is disabled. The nodes that announce a version ignore the fields they don't know,
+ * so the fields added after the first version are only sent to them
+ *
+ * Binary packet: one header byte (0x80 | version << 4 | type), the sequence number in a varint,
+ * the user name and each field (one byte with the MessageDataType ordinal) as a varint length followed by the UTF-8 value
+ * The binary encoding is disabled with the system property inews.codec=text
+ * @author Luis Portela
+ * @see Packet
+ */
+public enum PacketCodec {
+
+	/**
+	 * Original text encoding with one field per line
+	 */
+	TEXT,
+	/**
+	 * Compact binary encoding
+	 */
+	BINARY;
+
+	/**
+	 * Version of the binary encoding
+	 */
+	public static final int BINARY_VERSION = 1;
+
+	private static final int BINARY_FLAG = 0x80;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final MessageType[] TYPES = MessageType.values();
+	private static final MessageDataType[] DATA_TYPES = MessageDataType.values();
+	private static final byte[] TRAILER_NAME = "BINARY: ".getBytes();
+	private static final boolean binaryEnabled = !"text".equalsIgnoreCase(System.getProperty("inews.codec", "binary"));
+	private static final byte[] TRAILER = ("BINARY: " + (binaryEnabled ? BINARY_VERSION : 0) + '\0').getBytes();
+
+	/**
+	 * Version announced by the nodes that don't send the codec announce
+	 */
+	public static final int OLD_VERSION = -1;
+
+	/**
+	 * Checks if this node uses the binary encoding
+	 * @return true if the binary encoding is enabled ; false otherwise
+	 */
+	public static boolean isBinaryEnabled() {
+		return binaryEnabled;
+	}
+
+	/**
+	 * Encodes the packet to be sent to the network
+	 * @param packet packet to encode
+	 * @return byte array with the encoded packet
+	 */
+	public byte[] encode(Packet packet) {
+
+		if (this == BINARY) {
+			return encodeBinary(packet);
+		}
+
+		byte[] text = packet.getBytes();
+
+		// anuncia a versao binaria depois do fim da mensagem de texto, mesmo sem binario para o peer saber que este no ignora os campos novos
+		byte[] tmp = Arrays.copyOf(text, text.length + TRAILER.length);
+		System.arraycopy(TRAILER, 0, tmp, text.length, TRAILER.length);
+		return tmp;
+	}
+
+	/**
+	 * Builds a packet from a message received in a buffer with any of the encodings
+	 * The buffer position is not changed
+	 * @param buf buffer with the received message
+	 * @param source source of the message
+	 * @return the packet
+	 * @throws IllegalArgumentException if the binary message is malformed
+	 */
+	public static Packet decode(ByteBuffer buf, IPStruct source) {
+
+		if (isBinary(buf)) {
+			return decodeBinary(buf, source);
+		}
+
+		return new Packet(buf, source);
+	}
+
+	/**
+	 * Checks if the message in the buffer has the binary encoding
+	 * @param buf buffer with the received message
+	 * @return true if it is a binary message ; false otherwise
+	 */
+	public static boolean isBinary(ByteBuffer buf) {
+		return buf.hasRemaining() && ((buf.get(buf.position()) & BINARY_FLAG) != 0);
+	}
+
+	/**
+	 * Returns the type of a binary message without decoding the rest of the message
+	 * @param buf buffer with the received message
+	 * @return the type or null if the version or the type are unknown
+	 */
+	public static MessageType peekBinaryType(ByteBuffer buf) {
+
+		int header = buf.get(buf.position()) & 0xFF;
+		int type = header & 0x0F;
+
+		if ((((header >> 4) & 0x07) != BINARY_VERSION) || (type >= TYPES.length)) {
+			return null;
+		}
+
+		return TYPES[type];
+	}
+
+	/**
+	 * Returns the version announced by the sender of the message
+	 * A binary message has the version of its header; a text message has the version announced after its end
+	 * @param buf buffer with the received message
+	 * @return the version, 0 if the sender only uses the text encoding or OLD_VERSION if the sender doesn't announce it
+	 */
+	public static int peekPeerVersion(ByteBuffer buf) {
+
+		if (isBinary(buf)) {
+			return ((buf.get(buf.position()) & 0xFF) >> 4) & 0x07;
+		}
+
+		int start = buf.position(), end = buf.limit();
+		int i, j, version = 0;
+		byte b;
+
+		for (i = start; (i < end) && (buf.get(i) != '\0'); i++);
+
+		// procura "BINARY: <versao>" depois do '\0'
+		i++;
+		for (j = 0; (j < TRAILER_NAME.length) && (i + j < end) && (buf.get(i + j) == TRAILER_NAME[j]); j++);
+
+		if ((j < TRAILER_NAME.length) || (i + j >= end)) {
+			return OLD_VERSION;
+		}
+
+		for (i += j; (i < end) && ((b = buf.get(i)) >= '0') && (b <= '9') && (version < BINARY_FLAG); i++) {
+			version = version * 10 + (b - '0');
+		}
+
+		return version;
+	}
+
+	/**
+	 * Returns the encoding that should be used with a peer
+	 * The peer understands the binary encoding if it announced the same binary version of this node
+	 * @param version version announced by the peer
+	 * @return the encoding to use with the peer
+	 * @see PacketCodec#peekPeerVersion(java.nio.ByteBuffer)
+	 */
+	public static PacketCodec forVersion(int version) {
+		return binaryEnabled && (version == BINARY_VERSION) ? BINARY : TEXT;
+	}
+
+	/**
+	 * Encodes the packet in the binary format
+	 * @param packet packet to encode
+	 * @return byte array with the encoded packet
+	 */
+	private static byte[] encodeBinary(Packet packet) {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(64);
+
+		out.write(BINARY_FLAG | (BINARY_VERSION << 4) | packet.getType().ordinal());
+		writeVarint(out, packet.getSequence());
+		writeString(out, packet.getUser().getName());
+
+		if (packet.getDataList() != null) {
+			for (MessageData data : packet.getDataList()) {
+				out.write(data.getKey().ordinal());
+				writeString(out, data.getValue());
+			}
+		}
+
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes a binary message
+	 * The fields with types unknown to this version are ignored
+	 * @param buf buffer with the received message
+	 * @param source source of the message
+	 * @return the packet
+	 * @throws IllegalArgumentException if the message is malformed
+	 */
+	private static Packet decodeBinary(ByteBuffer buf, IPStruct source) {
+
+		MessageType type = peekBinaryType(buf);
+
+		if (type == null) {
+			throw new IllegalArgumentException("Versao ou tipo de mensagem binaria desconhecido");
+		}
+
+		byte[] data = new byte[buf.remaining()];
+		buf.duplicate().get(data);
+
+		int[] idx = new int[]{1};
+		int sequence = readVarint(data, idx);
+		String user = readString(data, idx);
+		LinkedList<MessageData> dataList = new LinkedList<MessageData>();
+		int key;
+		String value;
+
+		while (idx[0] < data.length) {
+			key = data[idx[0]++] & 0xFF;
+			value = readString(data, idx);
+			if (key < DATA_TYPES.length) {
+				dataList.add(new MessageData(DATA_TYPES[key], value));
+			}
+		}
+
+		return new Packet(type, new UserStruct(user, source), source, sequence, dataList, BINARY);
+	}
+
+	/**
+	 * Writes an int in 7 bits groups, the high bit of each byte tells if there are more bytes
+	 * @param out stream to write
+	 * @param value value to write
+	 */
+	private static void writeVarint(ByteArrayOutputStream out, int value) {
+
+		while ((value & ~0x7F) != 0) {
+			out.write((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/**
+	 * Reads an int written in 7 bits groups
+	 * @param data message
+	 * @param idx position to read, updated to the position after the value
+	 * @return value read
+	 */
+	private static int readVarint(byte[] data, int[] idx) {
+
+		int value = 0, shift = 0, b;
+
+		do {
+			if ((idx[0] >= data.length) || (shift > 28)) {
+				throw new IllegalArgumentException("Varint invalido na mensagem binaria");
+			}
+			b = data[idx[0]++];
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		return value;
+	}
+
+	/**
+	 * Writes a string in UTF-8 preceded by its length
+	 * @param out stream to write
+	 * @param value string to write
+	 */
+	private static void writeString(ByteArrayOutputStream out, String value) {
+
+		byte[] bytes = value.getBytes(UTF8);
+
+		writeVarint(out, bytes.length);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	/**
+	 * Reads a string in UTF-8 preceded by its length
+	 * @param data message
+	 * @param idx position to read, updated to the position after the string
+	 * @return string read
+	 */
+	private static String readString(byte[] data, int[] idx) {
+
+		int length = readVarint(data, idx);
+
+		if ((length < 0) || (idx[0] + length > data.length)) {
+			throw new IllegalArgumentException("Campo com tamanho invalido na mensagem binaria");
+		}
+
+		String value = new String(data, idx[0], length, UTF8);
+		idx[0] += length;
+		return value;
+	}
+}
@@ -0,0 +1,473 @@
+package inews.dataStructures;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Read only view of a received message that decodes the fields directly from the receive buffer when they are requested
+ * The type, sequence number and numeric fields are read without creating objects; only the string values create a String,
+ * except the name of the user that can be reused from a table of the caller
+ * The same view can be reused for several messages; it is not thread safe and is only valid while the buffer is not reused
+ * @author Luis Portela
+ * @see Packet
+ * @see PacketCodec
+ */
+public final class PacketView {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final byte[] USER_PREFIX = "USER: ".getBytes();
+	private static final byte[] SEQUENCE_PREFIX = "SEQUENCE: ".getBytes();
+	private static final int NAME_PROBES = 8;
+	private static final MessageDataType[] DATA_TYPES = MessageDataType.values();
+	private static final byte[][] DATA_TYPE_NAMES = new byte[DATA_TYPES.length][];
+
+	static {
+		for (int i = 0; i < DATA_TYPES.length; i++) {
+			DATA_TYPE_NAMES[i] = DATA_TYPES[i].getTypeByte();
+		}
+	}
+
+	private ByteBuffer buffer = null;
+	private MessageType type = null;
+	private PacketCodec codec = null;
+	private int start, end;
+	private boolean indexed;
+	private int sequence;
+	private int userStart, userEnd;
+	private int fieldsStart;
+	private int valueStart, valueEnd;
+	private int pos;
+	private String user;
+
+	/**
+	 * Points the view to a new message
+	 * The buffer position and limit are not changed
+	 * @param buf buffer with the received message, read from its position to its limit
+	 * @return this view or null if the message is not valid
+	 */
+	public PacketView wrap(ByteBuffer buf) {
+
+		this.buffer = buf;
+		this.start = buf.position();
+		this.end = buf.limit();
+		this.indexed = false;
+		this.user = null;
+
+		if ((this.type = Packet.peekType(buf)) == null) {
+			return null;
+		}
+
+		if (PacketCodec.isBinary(buf)) {
+			this.codec = PacketCodec.BINARY;
+		} else {
+			this.codec = PacketCodec.TEXT;
+			// a mensagem de texto termina no '\0', o que vem depois e o anuncio do codec
+			for (int i = this.start; i < this.end; i++) {
+				if (buf.get(i) == '\0') {
+					this.end = i;
+					break;
+				}
+			}
+		}
+
+		return this;
+	}
+
+	/**
+	 * Returns the type of the message
+	 * @return type of the message
+	 * @see MessageType
+	 */
+	public MessageType getType() {
+		return this.type;
+	}
+
+	/**
+	 * Returns the encoding of the message
+	 * @return encoding of the message
+	 * @see PacketCodec
+	 */
+	public PacketCodec getCodec() {
+		return this.codec;
+	}
+
+	/**
+	 * Returns the sequence number of the message
+	 * @return sequence number
+	 */
+	public int getSequence() {
+		this.index();
+		return this.sequence;
+	}
+
+	/**
+	 * Returns the name of the user that sent the message
+	 * The String is created on the first call
+	 * @return name of the user
+	 */
+	public String getUserName() {
+
+		this.index();
+
+		if (this.user == null) {
+			this.user = this.decodeString(this.userStart, this.userEnd);
+		}
+
+		return this.user;
+	}
+
+	/**
+	 * Returns the name of the user that sent the message, reusing the String of a previous message of the same user
+	 * The names are kept on the table of the caller by the hash of their bytes, so the messages of the known users don't
+	 * create the String; when the slots of a hash are full the name replaces the first one, and the names with characters
+	 * outside ASCII are always decoded
+	 * @param names table of the names, with a power of two size, reused for all the messages
+	 * @return name of the user
+	 */
+	public String getUserName(String[] names) {
+
+		int hash = 0, slot;
+		String name;
+		byte b;
+
+		this.index();
+
+		if (this.user != null) {
+			return this.user;
+		}
+
+		for (int i = this.userStart; i < this.userEnd; i++) {
+			if ((b = this.buffer.get(i)) < 0) {
+				return this.getUserName();
+			}
+			hash = 31 * hash + b;
+		}
+
+		hash *= 0x9E3779B9;
+		slot = (hash ^ (hash >>> 16)) & (names.length - 1);
+
+		// os nomes com o mesmo slot ficam nos slots seguintes
+		for (int i = 0; i < NAME_PROBES; i++) {
+			name = names[(slot + i) & (names.length - 1)];
+			if (name == null) {
+				slot = (slot + i) & (names.length - 1);
+				break;
+			}
+			if (this.isUser(name)) {
+				this.user = name;
+				return name;
+			}
+		}
+
+		name = this.getUserName();
+		names[slot] = name;
+
+		return name;
+	}
+
+	/**
+	 * Compares the ASCII user of the message with a name without creating the String of the user
+	 * @param name name to compare
+	 * @return true if the names are equal ; false otherwise
+	 */
+	private boolean isUser(String name) {
+
+		if ((this.userEnd - this.userStart) != name.length()) {
+			return false;
+		}
+
+		for (int i = 0; i < name.length(); i++) {
+			if (this.buffer.get(this.userStart + i) != name.charAt(i)) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Compares the user of the message with a name ignoring the case without creating the String of the user
+	 * @param name name to compare
+	 * @return true if the names are equal ; false otherwise
+	 */
+	public boolean isUserIgnoreCase(String name) {
+
+		this.index();
+
+		if ((this.user != null) || ((this.userEnd - this.userStart) != name.length())) {
+			return this.getUserName().equalsIgnoreCase(name);
+		}
+
+		byte b;
+
+		for (int i = 0; i < name.length(); i++) {
+			b = this.buffer.get(this.userStart + i);
+			// os nomes com caracteres fora do ASCII sao comparados depois de descodificados
+			if (b < 0) {
+				return this.getUserName().equalsIgnoreCase(name);
+			}
+			if (Character.toLowerCase((char) b) != Character.toLowerCase(name.charAt(i))) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Checks if the message has a field
+	 * @param key type of the field
+	 * @return true if the field exists ; false otherwise
+	 * @see MessageDataType
+	 */
+	public boolean hasField(MessageDataType key) {
+		return this.findField(key);
+	}
+
+	/**
+	 * Returns the numeric value of a field without creating objects
+	 * @param key type of the field
+	 * @param defaultValue value to return if the field doesn't exist or isn't a number
+	 * @return value of the field
+	 * @see MessageDataType
+	 */
+	public long getLong(MessageDataType key, long defaultValue) {
+
+		if (!this.findField(key) || (this.valueStart == this.valueEnd)) {
+			return defaultValue;
+		}
+
+		int i = this.valueStart;
+		boolean negative = this.buffer.get(i) == '-';
+		long value = 0;
+		byte b;
+
+		if (negative && (++i == this.valueEnd)) {
+			return defaultValue;
+		}
+
+		for (; i < this.valueEnd; i++) {
+			b = this.buffer.get(i);
+			if ((b < '0') || (b > '9')) {
+				return defaultValue;
+			}
+			value = value * 10 + (b - '0');
+		}
+
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Returns the numeric value of a field without creating objects
+	 * @param key type of the field
+	 * @param defaultValue value to return if the field doesn't exist or isn't a number
+	 * @return value of the field
+	 * @see PacketView#getLong(inews.dataStructures.MessageDataType, long)
+	 */
+	public int getInt(MessageDataType key, int defaultValue) {
+		return (int) this.getLong(key, defaultValue);
+	}
+
+	/**
+	 * Returns the value of a field
+	 * @param key type of the field
+	 * @return value of the field or null if it doesn't exist
+	 * @see MessageDataType
+	 */
+	public String getString(MessageDataType key) {
+
+		if (!this.findField(key)) {
+			return null;
+		}
+
+		return this.decodeString(this.valueStart, this.valueEnd);
+	}
+
+	/**
+	 * Decodes the whole message to a packet
+	 * Used by the messages with lists of fields like PROVIDE_TITLES
+	 * @param source source of the message
+	 * @return the packet
+	 * @see PacketCodec#decode(java.nio.ByteBuffer, inews.dataStructures.IPStruct)
+	 */
+	public Packet toPacket(IPStruct source) {
+		return PacketCodec.decode(this.buffer, source);
+	}
+
+	/**
+	 * Finds the positions of the user, sequence number and first field
+	 * It is only made once for each message
+	 */
+	private void index() {
+
+		if (this.indexed) {
+			return;
+		}
+
+		if (this.codec == PacketCodec.BINARY) {
+			this.pos = this.start + 1;
+			this.sequence = this.readVarint();
+			int length = this.readVarint();
+			this.userStart = this.pos;
+			this.userEnd = Math.min(this.pos + length, this.end);
+			this.fieldsStart = this.userEnd;
+		} else {
+			int line = this.lineEnd(this.start) + 1;
+
+			this.userStart = Math.min(line + USER_PREFIX.length, this.end);
+			this.userEnd = Math.max(this.userStart, this.lineEnd(line));
+			line = this.userEnd + 1;
+			this.sequence = (int) this.parseLong(Math.min(line + SEQUENCE_PREFIX.length, this.end), this.lineEnd(line));
+			this.fieldsStart = this.lineEnd(line) + 1;
+		}
+
+		this.indexed = true;
+	}
+
+	/**
+	 * Searches a field and keeps the position of its value
+	 * @param key type of the field
+	 * @return true if the field was found ; false otherwise
+	 */
+	private boolean findField(MessageDataType key) {
+
+		this.index();
+
+		int line, lineEnd, length, fieldKey;
+		byte[] name;
+
+		if (this.codec == PacketCodec.BINARY) {
+			this.pos = this.fieldsStart;
+			while (this.pos < this.end) {
+				fieldKey = this.buffer.get(this.pos++) & 0xFF;
+				length = this.readVarint();
+				if (fieldKey == key.ordinal()) {
+					this.valueStart = this.pos;
+					this.valueEnd = Math.min(this.pos + length, this.end);
+					return true;
+				}
+				this.pos += length;
+			}
+			return false;
+		}
+
+		name = DATA_TYPE_NAMES[key.ordinal()];
+
+		for (line = this.fieldsStart; line < this.end; line = lineEnd + 1) {
+			lineEnd = this.lineEnd(line);
+			if (this.matchesKey(line, lineEnd, name)) {
+				this.valueStart = line + name.length + 2;
+				this.valueEnd = lineEnd;
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Checks if a text line starts with the name of the field followed by ": "
+	 * @param line start of the line
+	 * @param lineEnd end of the line
+	 * @param name name of the field
+	 * @return true if the line is of the field ; false otherwise
+	 */
+	private boolean matchesKey(int line, int lineEnd, byte[] name) {
+
+		if (lineEnd - line < name.length + 2) {
+			return false;
+		}
+
+		for (int i = 0; i < name.length; i++) {
+			if (this.buffer.get(line + i) != name[i]) {
+				return false;
+			}
+		}
+
+		return (this.buffer.get(line + name.length) == ':') && (this.buffer.get(line + name.length + 1) == ' ');
+	}
+
+	/**
+	 * Returns the end of the text line
+	 * @param from position inside the line
+	 * @return position of the '\n' or the end of the message
+	 */
+	private int lineEnd(int from) {
+
+		int i;
+
+		for (i = from; (i < this.end) && (this.buffer.get(i) != '\n'); i++);
+
+		return i;
+	}
+
+	/**
+	 * Parses a decimal number
+	 * @param from first digit
+	 * @param to position after the last digit
+	 * @return the number
+	 * @throws IllegalArgumentException if the value isn't a number
+	 */
+	private long parseLong(int from, int to) {
+
+		boolean negative = (from < to) && (this.buffer.get(from) == '-');
+		long value = 0;
+		byte b;
+
+		if (negative) {
+			from++;
+		}
+
+		if (from >= to) {
+			throw new IllegalArgumentException("Numero invalido na mensagem");
+		}
+
+		for (int i = from; i < to; i++) {
+			b = this.buffer.get(i);
+			if ((b < '0') || (b > '9')) {
+				throw new IllegalArgumentException("Numero invalido na mensagem");
+			}
+			value = value * 10 + (b - '0');
+		}
+
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Reads an int written in 7 bits groups from the current position
+	 * @return value read
+	 * @throws IllegalArgumentException if the value is malformed
+	 */
+	private int readVarint() {
+
+		int value = 0, shift = 0, b;
+
+		do {
+			if ((this.pos >= this.end) || (shift > 28)) {
+				throw new IllegalArgumentException("Varint invalido na mensagem binaria");
+			}
+			b = this.buffer.get(this.pos++);
+			value |= (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		return value;
+	}
+
+	/**
+	 * Creates a String with the bytes between the positions in the encoding of the message
+	 * @param from first byte
+	 * @param to position after the last byte
+	 * @return the string
+	 */
+	private String decodeString(int from, int to) {
+
+		byte[] tmp = new byte[to - from];
+
+		for (int i = 0; i < tmp.length; i++) {
+			tmp[i] = this.buffer.get(from + i);
+		}
+
+		return this.codec == PacketCodec.BINARY ? new String(tmp, UTF8) : new String(tmp);
+	}
+}
@@ -0,0 +1,88 @@
+package inews.dataStructures;
+
+/**
+ * Class with the round trip time measured to a peer and the retransmission timeout calculated from it
+ * Keeps the smoothed round trip time and its variance like TCP (RFC 6298)
+ * @author Luis Portela
+ * @see AckMessage
+ */
+public class RttEstimator {
+
+	/**
+	 * Minimum retransmission timeout in milliseconds
+	 */
+	public static final long MIN_TIMEOUT = 200;
+	/**
+	 * Maximum retransmission timeout in milliseconds
+	 */
+	public static final long MAX_TIMEOUT = 10000;
+
+	private static final long CLOCK_GRANULARITY = 10;
+
+	private long smoothedRtt = 0;
+	private long rttVariance = 0;
+	private int samples = 0;
+
+	/**
+	 * Adds a new round trip time measured to the peer
+	 * Only the round trip times of messages that were not retransmited should be added (Karn's rule)
+	 * @param rtt round trip time in milliseconds
+	 */
+	public synchronized void addSample(long rtt) {
+
+		if (this.samples == 0) {
+			this.smoothedRtt = rtt;
+			this.rttVariance = rtt / 2;
+		}
+		else {
+			// RTTVAR = 3/4 RTTVAR + 1/4 |SRTT - R| ; SRTT = 7/8 SRTT + 1/8 R
+			this.rttVariance = (3 * this.rttVariance + Math.abs(this.smoothedRtt - rtt)) / 4;
+			this.smoothedRtt = (7 * this.smoothedRtt + rtt) / 8;
+		}
+		this.samples++;
+	}
+
+	/**
+	 * Checks if there is any round trip time measured to the peer
+	 * @return true if there are samples ; false otherwise
+	 */
+	public synchronized boolean hasSamples() {
+		return this.samples > 0;
+	}
+
+	/**
+	 * Returns the smoothed round trip time
+	 * @return smoothed round trip time in milliseconds
+	 */
+	public synchronized long getSmoothedRtt() {
+		return this.smoothedRtt;
+	}
+
+	/**
+	 * Returns the variance of the round trip time
+	 * @return round trip time variance in milliseconds
+	 */
+	public synchronized long getRttVariance() {
+		return this.rttVariance;
+	}
+
+	/**
+	 * Returns the retransmission timeout calculated from the measured values
+	 * @return retransmission timeout in milliseconds between MIN_TIMEOUT and MAX_TIMEOUT
+	 */
+	public synchronized long getTimeout() {
+
+		long timeout = this.smoothedRtt + Math.max(CLOCK_GRANULARITY, 4 * this.rttVariance);
+
+		return Math.min(MAX_TIMEOUT, Math.max(MIN_TIMEOUT, timeout));
+	}
+
+	/**
+	 * Formats the measured values to string
+	 * @return string with the round trip time, variance and timeout
+	 */
+	@Override
+	public synchronized String toString() {
+		return "SRTT: " + this.smoothedRtt + "ms - RTTVAR: " + this.rttVariance + "ms - RTO: " + this.getTimeout() + "ms";
+	}
+}
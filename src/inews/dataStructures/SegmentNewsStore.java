@@ -0,0 +1,419 @@
+package inews.dataStructures;
+
+import inews.interfaces.NewsStore;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Store that keeps the contents of the news in an append only segment memory mapped for the reads
+ * Each record of the segment is already in the format of the TCP transfer with the date of the news ("DATE: date\n",
+ * the content and '\0'), so the latest news are a contiguous part of the segment read at once
+ * An offset index saved with the segment has the date, position, size and CRC32 of each record
+ *
+ * The records are sorted by date: the news newer than the last record are appended; when a news is removed, changed
+ * or older than the last record the segment is written again from the news directory
+ * @author Luis Portela
+ * @see NewsIndex
+ */
+public final class SegmentNewsStore implements NewsStore {
+
+	/**
+	 * Name of the directory of the segment inside the news directory
+	 */
+	public static final String STORE_DIR = ".store";
+
+	private static final String SEGMENT_FILE = "news.log";
+	private static final String INDEX_FILE = "news.idx";
+
+	private static SegmentNewsStore mySelf = null;
+
+	private final File newsDir;
+	private final File segmentFile;
+	private final File indexFile;
+	private final ArrayList<Record> records = new ArrayList<Record>();
+	private NavigableMap<Long, NewsIndex.Item> syncedItems = null;
+	private MappedByteBuffer segment = null;
+	private long segmentSize = 0;
+
+	/**
+	 * Initializes the store loading the offset index of the segment
+	 * @param newsDir news directory
+	 */
+	private SegmentNewsStore(File newsDir) {
+
+		File storeDir = new File(newsDir, STORE_DIR);
+
+		this.newsDir = newsDir;
+		this.segmentFile = new File(storeDir, SEGMENT_FILE);
+		this.indexFile = new File(storeDir, INDEX_FILE);
+
+		storeDir.mkdirs();
+		this.load();
+	}
+
+	/**
+	 * Returns the instance of this class or creates a new one and returns if it doesn't exists
+	 * @return the segment store of the news directory
+	 */
+	public static synchronized SegmentNewsStore getInstance() {
+		if (mySelf == null)
+			mySelf = new SegmentNewsStore(new File("_news"));
+
+		return mySelf;
+	}
+
+	/**
+	 * Reads the news from the mapped segment
+	 * The segment is updated first if the news index changed
+	 * @param news news of the news index to read, sorted by date
+	 * @param dated true to write a line with the date of each news before its content
+	 * @return contents of the news separated by '\0'
+	 */
+	@Override
+	public synchronized String readNews(List<NewsIndex.Item> news, boolean dated) {
+
+		ArrayList<Record> selected = this.records(news, null);
+		StringBuilder finalString;
+		ByteBuffer tmpBuffer;
+		byte[] tmpBytes;
+		Record first, last;
+		long span = 0;
+
+		if ((this.segment == null) || selected.isEmpty()) {
+			return "";
+		}
+
+		tmpBuffer = this.segment.duplicate();
+		first = selected.get(0);
+		last = selected.get(selected.size() - 1);
+
+		for (Record record : selected) {
+			span += record.length;
+		}
+
+		if (dated && (span == (last.offset + last.length - first.offset))) {
+			// registos seguidos ja estao no formato da transferencia, sem o '\0' do ultimo
+			tmpBuffer.limit((int) (last.offset + last.length) - 1);
+			tmpBuffer.position((int) first.offset);
+			tmpBytes = new byte[tmpBuffer.remaining()];
+			tmpBuffer.get(tmpBytes);
+			return new String(tmpBytes);
+		}
+
+		finalString = new StringBuilder();
+
+		for (int i = 0; i < selected.size(); i++) {
+			Record record = selected.get(i);
+			int start = dated ? 0 : record.headerLength;
+			tmpBytes = new byte[record.length - start - 1];
+			tmpBuffer.position((int) record.offset + start);
+			tmpBuffer.get(tmpBytes);
+			finalString.append(new String(tmpBytes));
+			if (i < (selected.size() - 1)) {
+				finalString.append('\0');
+			}
+		}
+
+		return finalString.toString();
+	}
+
+	/**
+	 * Sends the news from the segment to the connection
+	 * The content of each record is transferred from the segment file, without the date line and the '\0' and the titles of the
+	 * manifest are the titles of the news index
+	 * @param news news of the news index to send, sorted by date
+	 * @param target channel of the connection
+	 * @return number of news sent
+	 * @throws IOException if the connection can't be written
+	 */
+	@Override
+	public synchronized int transferNews(List<NewsIndex.Item> news, WritableByteChannel target) throws IOException {
+
+		ArrayList<NewsStream.Entry> entries = new ArrayList<NewsStream.Entry>(news.size());
+		ArrayList<Record> selected = this.records(news, entries);
+		RandomAccessFile file;
+
+		NewsStream.writeManifest(entries, target);
+
+		if (selected.isEmpty()) {
+			return 0;
+		}
+
+		file = new RandomAccessFile(this.segmentFile, "r");
+		try {
+			for (Record record : selected) {
+				NewsStream.transfer(file.getChannel(), record.offset + record.headerLength, record.length - record.headerLength - 1, target);
+			}
+		} finally {
+			file.close();
+		}
+
+		return selected.size();
+	}
+
+	/**
+	 * Returns the records of the news, updating the segment first if the news index changed
+	 * The news that aren't on the segment are ignored
+	 * @param news news of the news index sorted by date
+	 * @param entries list to add the entry of the manifest of each record or null
+	 * @return records of the news by the same order
+	 */
+	private ArrayList<Record> records(List<NewsIndex.Item> news, List<NewsStream.Entry> entries) {
+
+		NavigableMap<Long, NewsIndex.Item> items = NewsIndex.getInstance().getItems();
+		ArrayList<Record> selected = new ArrayList<Record>(news.size());
+		int index;
+
+		// o indice e substituido em cada alteracao, por isso basta comparar a referencia
+		if (items != this.syncedItems) {
+			this.sync(items);
+		}
+
+		for (NewsIndex.Item item : news) {
+			if ((index = this.find(item.getDate())) < 0) {
+				continue;
+			}
+			Record record = this.records.get(index);
+			selected.add(record);
+			if (entries != null) {
+				entries.add(new NewsStream.Entry(record.date, item.getTitle(), record.length - record.headerLength - 1));
+			}
+		}
+
+		return selected;
+	}
+
+	/**
+	 * Finds the record of a news by binary search, the records are sorted by date
+	 * @param date date of the news
+	 * @return index of the record or -1 if the news isn't on the segment
+	 */
+	private int find(long date) {
+
+		int low = 0, high = this.records.size() - 1, middle;
+
+		while (low <= high) {
+			middle = (low + high) >>> 1;
+			if (this.records.get(middle).date < date) {
+				low = middle + 1;
+			}
+			else if (this.records.get(middle).date > date) {
+				high = middle - 1;
+			}
+			else {
+				return middle;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Updates the segment with the news of the index
+	 * When the records are the first news of the index the other news are appended, otherwise the segment is written again
+	 * @param items news of the index
+	 */
+	private void sync(NavigableMap<Long, NewsIndex.Item> items) {
+
+		Iterator<NewsIndex.Item> it = items.values().iterator();
+		NewsIndex.Item item;
+		boolean rebuild = false;
+
+		for (Record record : this.records) {
+			if (!it.hasNext()) {
+				rebuild = true;
+				break;
+			}
+			item = it.next();
+			if ((item.getDate() != record.date) || (item.getCrc() != record.crc)) {
+				rebuild = true;
+				break;
+			}
+		}
+
+		try {
+			if (rebuild) {
+				this.clear();
+				it = items.values().iterator();
+			}
+			while (it.hasNext()) {
+				this.append(it.next());
+			}
+			this.map();
+			this.syncedItems = items;
+		} catch (IOException ex) {
+			Logger.getLogger(SegmentNewsStore.class.getName()).log(Level.SEVERE, null, ex);
+			// o segmento pode ter ficado a meio, e escrito de novo na proxima leitura
+			this.records.clear();
+			this.segment = null;
+			this.segmentSize = 0;
+			this.segmentFile.delete();
+			this.indexFile.delete();
+		}
+	}
+
+	/**
+	 * Appends a news to the end of the segment and its record to the offset index
+	 * @param item indexed news
+	 * @throws IOException if the news file can't be read or the segment can't be written
+	 */
+	private void append(NewsIndex.Item item) throws IOException {
+
+		File newsFile = new File(this.newsDir, item.getFileName());
+		byte[] content = new byte[(int) newsFile.length()];
+		byte[] header = ("DATE: " + item.getDate() + "\n").getBytes();
+		boolean newLine;
+		CRC32 crc = new CRC32();
+		Record record;
+
+		DataInputStream in = new DataInputStream(new FileInputStream(newsFile));
+		try {
+			in.readFully(content);
+		} finally {
+			in.close();
+		}
+		crc.update(content);
+
+		// como na leitura por linhas o conteudo termina sempre com '\n'
+		newLine = (content.length == 0) || (content[content.length - 1] != '\n');
+		record = new Record(item.getDate(), this.segmentSize, header.length + content.length + (newLine ? 1 : 0) + 1, header.length, crc.getValue());
+
+		OutputStream segmentOut = new BufferedOutputStream(new FileOutputStream(this.segmentFile, true));
+		try {
+			segmentOut.write(header);
+			segmentOut.write(content);
+			if (newLine) {
+				segmentOut.write('\n');
+			}
+			segmentOut.write('\0');
+		} finally {
+			segmentOut.close();
+		}
+
+		DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.indexFile, true)));
+		try {
+			record.write(indexOut);
+		} finally {
+			indexOut.close();
+		}
+
+		this.records.add(record);
+		this.segmentSize += record.length;
+	}
+
+	/**
+	 * Removes all the records of the segment and the offset index
+	 * @throws IOException if the files can't be truncated
+	 */
+	private void clear() throws IOException {
+
+		new FileOutputStream(this.segmentFile).close();
+		new FileOutputStream(this.indexFile).close();
+		this.records.clear();
+		this.segment = null;
+		this.segmentSize = 0;
+	}
+
+	/**
+	 * Maps the segment to memory for reading
+	 * @throws IOException if the segment can't be mapped
+	 */
+	private void map() throws IOException {
+
+		RandomAccessFile file;
+
+		if (this.segmentSize == 0) {
+			this.segment = null;
+			return;
+		}
+
+		file = new RandomAccessFile(this.segmentFile, "r");
+		try {
+			this.segment = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, this.segmentSize);
+		} finally {
+			file.close();
+		}
+	}
+
+	/**
+	 * Loads the offset index and maps the segment
+	 * If the index doesn't match the segment the store is cleared and written again on the next read
+	 */
+	private void load() {
+
+		DataInputStream in;
+		Record record;
+
+		if (!this.indexFile.exists() || !this.segmentFile.exists()) {
+			return;
+		}
+
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.indexFile)));
+			try {
+				for (long i = this.indexFile.length() / Record.SIZE; i > 0; i--) {
+					record = Record.read(in);
+					this.records.add(record);
+					this.segmentSize = record.offset + record.length;
+				}
+			} finally {
+				in.close();
+			}
+			if (this.segmentSize != this.segmentFile.length()) {
+				this.clear();
+				return;
+			}
+			this.map();
+		} catch (IOException ex) {
+			Logger.getLogger(SegmentNewsStore.class.getName()).log(Level.SEVERE, null, ex);
+			this.records.clear();
+			this.segmentSize = 0;
+			this.segment = null;
+		}
+	}
+
+	/**
+	 * Entry of the offset index with the position of a news on the segment
+	 */
+	private static final class Record {
+
+		// data, posicao, tamanho, tamanho do cabecalho e CRC32
+		private static final int SIZE = 8 + 8 + 4 + 4 + 8;
+
+		private final long date;
+		private final long offset;
+		private final int length;
+		private final int headerLength;
+		private final long crc;
+
+		Record(long date, long offset, int length, int headerLength, long crc) {
+			this.date = date;
+			this.offset = offset;
+			this.length = length;
+			this.headerLength = headerLength;
+			this.crc = crc;
+		}
+
+		void write(DataOutputStream out) throws IOException {
+			out.writeLong(this.date);
+			out.writeLong(this.offset);
+			out.writeInt(this.length);
+			out.writeInt(this.headerLength);
+			out.writeLong(this.crc);
+		}
+
+		static Record read(DataInputStream in) throws IOException {
+			return new Record(in.readLong(), in.readLong(), in.readInt(), in.readInt(), in.readLong());
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package inews.dataStructures;
+
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Class with the titles list received from a user and the total of news, last news date and checksum that the list represents
+ * The ACTIVE messages announce the same values so the list can be shown again without asking the user
+ * when they didn't change, or completed with only the newer titles when the older ones didn't change
+ * The checksum changes when a news is changed on its file, so those changes are not hidden by the same total and date;
+ * the old versions don't send it and their lists are only checked with the total and date
+ * @author Luis Portela
+ * @see UserStruct#getTotalNews()
+ * @see UserStruct#getLastNewDate()
+ * @see UserStruct#getChecksum()
+ */
+public final class TitlesCache {
+
+	private final NavigableMap<Long, String> titles = new TreeMap<Long, String>();
+	private int totalNews = 0;
+	private long lastNewDate = 0;
+	private long checksum = -1;
+
+	/**
+	 * Initializes the cache with a complete titles list
+	 * @param titles titles of the user indexed by date
+	 * @param checksum checksum of the news of the answer or -1 if the user didn't send it
+	 */
+	public TitlesCache(NavigableMap<Long, String> titles, long checksum) {
+		this.titles.putAll(titles);
+		this.update(checksum);
+	}
+
+	/**
+	 * Adds the titles received after the last news date of the cache
+	 * @param titles newer titles of the user indexed by date
+	 * @param checksum checksum of all the news of the user sent with the answer
+	 */
+	public synchronized void merge(NavigableMap<Long, String> titles, long checksum) {
+		this.titles.putAll(titles);
+		this.update(checksum);
+	}
+
+	/**
+	 * Updates the total of news, the last news date and the checksum after the titles changed
+	 * @param checksum checksum of the news of the user
+	 */
+	private void update(long checksum) {
+		this.totalNews = this.titles.size();
+		this.lastNewDate = this.titles.isEmpty() ? 0 : this.titles.lastKey();
+		this.checksum = checksum;
+	}
+
+	/**
+	 * Checks if the titles are the ones announced by the user
+	 * A list with checksum is only current while the user announces the same checksum
+	 * @param user user with the total of news, last news date and checksum of its last ACTIVE message
+	 * @return true if the user has the same news ; false otherwise
+	 */
+	public synchronized boolean isCurrent(UserStruct user) {
+		return (user.getTotalNews() == this.totalNews) && (user.getLastNewDate() == this.lastNewDate) && (user.getChecksum() == this.checksum);
+	}
+
+	/**
+	 * Returns the checksum of the news of the titles list
+	 * It is sent in the BASE field of a delta request so the user only sends the newer titles when the older ones didn't change
+	 * @return CRC32 of the news or -1 if the user didn't send it
+	 * @see MessageDataType#BASE
+	 */
+	public synchronized long getChecksum() {
+		return this.checksum;
+	}
+
+	/**
+	 * Returns the date of the first news that the cache doesn't have
+	 * @return date after the last news date of the cache
+	 */
+	public synchronized long getNextSince() {
+		return this.lastNewDate + 1;
+	}
+
+	/**
+	 * Returns a copy of the titles
+	 * @return titles indexed by date
+	 */
+	public synchronized NavigableMap<Long, String> getTitles() {
+		return new TreeMap<Long, String>(this.titles);
+	}
+
+	/**
+	 * Returns the total of news of the titles list
+	 * @return total of news
+	 */
+	public synchronized int getTotalNews() {
+		return this.totalNews;
+	}
+
+	/**
+	 * Returns the last news date of the titles list
+	 * @return date as long or 0 if there are no titles
+	 */
+	public synchronized long getLastNewDate() {
+		return this.lastNewDate;
+	}
+}
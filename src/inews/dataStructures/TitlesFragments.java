@@ -0,0 +1,143 @@
+package inews.dataStructures;
+
+import java.util.LinkedList;
+
+/**
+ * Class with the fragments received of a titles list requested to a user
+ * The PROVIDE_TITLES answer is split in several messages when the titles don't fit in a datagram;
+ * each fragment has its index, the total of fragments and the total of titles
+ * The total of fragments comes from the network, so the answers with more than MAX_FRAGMENTS fragments are ignored
+ * @author Luis Portela
+ * @see FragmentsAssembly
+ * @see MessageDataType#FRAGMENT
+ */
+public class TitlesFragments extends FragmentsAssembly {
+
+	/**
+	 * Maximum number of fragments of an answer; the user answering sends the titles after the limit in the next page
+	 */
+	public static final int MAX_FRAGMENTS = 1024;
+
+	private final LinkedList<MessageData> query;
+	private final boolean delta;
+	private long nextSince = -1;
+	private long checksum = -1;
+	private long base = -1;
+
+	/**
+	 * Initializes an empty list waiting for the fragments of the answer
+	 * @param sequence sequence number of the TITLES message
+	 * @param source user that will answer
+	 * @param query SINCE, UNTIL and LIMIT fields of the request or null if all the titles were requested
+	 * @see IPStruct
+	 */
+	public TitlesFragments(int sequence, IPStruct source, LinkedList<MessageData> query) {
+		this(sequence, source, query, false);
+	}
+
+	/**
+	 * Initializes an empty list waiting for the fragments of the answer
+	 * @param sequence sequence number of the TITLES message
+	 * @param source user that will answer
+	 * @param query SINCE, UNTIL and LIMIT fields of the request or null if all the titles were requested
+	 * @param delta true if only the titles newer than the cached ones were requested
+	 * @see IPStruct
+	 * @see TitlesCache
+	 */
+	public TitlesFragments(int sequence, IPStruct source, LinkedList<MessageData> query, boolean delta) {
+		super(sequence, source, MAX_FRAGMENTS);
+		this.query = query;
+		this.delta = delta;
+	}
+
+	/**
+	 * Returns all the TITLE and DATE fields by the order of the fragments
+	 * @return list with the titles fields
+	 */
+	public LinkedList<MessageData> getTitles() {
+		return this.getFields();
+	}
+
+	/**
+	 * Returns the total of titles announced by the user
+	 * @return total of titles or -1 if no fragment was received
+	 */
+	public int getTotalTitles() {
+		return this.getTotalItems();
+	}
+
+	/**
+	 * Defines the date of the first news of the next page
+	 * @param nextSince date of the next news
+	 */
+	public synchronized void setNextSince(long nextSince) {
+		this.nextSince = nextSince;
+	}
+
+	/**
+	 * Returns the date of the first news of the next page
+	 * @return date of the next news or -1 if this is the last page
+	 */
+	public synchronized long getNextSince() {
+		return this.nextSince;
+	}
+
+	/**
+	 * Defines the checksum of the news of the user sent with the answer
+	 * @param checksum CRC32 of the news
+	 * @see MessageDataType#CHECKSUM
+	 */
+	public synchronized void setChecksum(long checksum) {
+		this.checksum = checksum;
+	}
+
+	/**
+	 * Returns the checksum of the news of the user sent with the answer
+	 * @return CRC32 of the news or -1 if the user didn't send it
+	 */
+	public synchronized long getChecksum() {
+		return this.checksum;
+	}
+
+	/**
+	 * Defines the checksum of the older titles repeated by the answer to a delta request
+	 * @param base checksum of the BASE field
+	 * @see MessageDataType#BASE
+	 */
+	public synchronized void setBase(long base) {
+		this.base = base;
+	}
+
+	/**
+	 * Returns the checksum of the older titles repeated by the answer to a delta request
+	 * @return checksum of the BASE field or -1 if the answer has all the titles
+	 */
+	public synchronized long getBase() {
+		return this.base;
+	}
+
+	/**
+	 * Returns the fields that select the titles requested
+	 * @return SINCE, UNTIL and LIMIT fields or null if all the titles were requested
+	 */
+	public LinkedList<MessageData> getQuery() {
+		return this.query;
+	}
+
+	/**
+	 * Checks if only a page of the titles was requested
+	 * @return true if the request has SINCE, UNTIL or LIMIT fields ; false otherwise
+	 */
+	public boolean isPage() {
+		return (this.query != null) && (!this.query.isEmpty());
+	}
+
+	/**
+	 * Checks if only the titles newer than the cached ones were requested
+	 * @return true if the answer completes the cached titles ; false otherwise
+	 * @see TitlesCache
+	 */
+	public boolean isDelta() {
+		return this.delta;
+	}
+}
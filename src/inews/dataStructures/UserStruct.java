@@ -16,6 +16,7 @@ public final class UserStruct implements Comparable<UserStruct>, Serializable {
 	private IPStruct ip;
 	private int totalNews;
 	private long lastNewDate;
+	private long checksum = -1;
 	
 	private int rank = 0;
 	private long lastConn = 0;
@@ -46,6 +47,7 @@ public final class UserStruct implements Comparable<UserStruct>, Serializable {
 		this(user.getName(), user.getIp());
 		this.totalNews = user.getTotalNews();
 		this.lastNewDate = user.getLastNewDate();
+		this.checksum = user.getChecksum();
 		this.rank = user.getRank();
 		this.newsList = new TreeMap<Long, String>(this.getNewsList());
 	}
@@ -124,6 +126,23 @@ public final class UserStruct implements Comparable<UserStruct>, Serializable {
 	public void setLastNewDate(long lastNewDate) {
 		this.lastNewDate = lastNewDate;
 	}
+
+	/**
+	 * Returns the checksum of the news of the user
+	 * @return CRC32 of the news or -1 if the user didn't announce it
+	 * @see NewsIndex#getChecksum(long)
+	 */
+	public long getChecksum() {
+		return checksum;
+	}
+
+	/**
+	 * Defines the checksum of the news of the user
+	 * @param checksum CRC32 of the news or -1 if it is unknown
+	 */
+	public void setChecksum(long checksum) {
+		this.checksum = checksum;
+	}
 	
 	/**
 	 * Add a new to the news list of the user
@@ -132,11 +151,25 @@ public final class UserStruct implements Comparable<UserStruct>, Serializable {
 	 */
 	public void addNewToList(long time, String newsFile){
 		
-		this.newsList.put(time, newsFile);
-		this.totalNews++;
+		// uma noticia alterada substitui a anterior sem contar outra vez
+		if (this.newsList.put(time, newsFile) == null)
+			this.totalNews++;
 		if (time > this.lastNewDate)
 			this.lastNewDate = time;
 	}
+	
+	/**
+	 * Removes a news from the news list of the user
+	 * @param time time of news as long
+	 */
+	public void removeNewFromList(long time){
+		
+		if (this.newsList.remove(time) != null) {
+			this.totalNews--;
+			if (time == this.lastNewDate)
+				this.lastNewDate = this.newsList.isEmpty() ? 0 : this.newsList.lastKey();
+		}
+	}
 
 	/**
 	 * Returns the rank of the user
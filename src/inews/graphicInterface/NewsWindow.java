@@ -3,6 +3,7 @@ package inews.graphicInterface;
 import inews.MyTimer;
 import inews.client.UDPClientNews;
 import inews.dataStructures.IPStruct;
+import inews.dataStructures.NewsIndex;
 import inews.dataStructures.UserStruct;
 import inews.interfaces.INewsWindow;
 import inews.interfaces.NewsWindowClient;
@@ -15,9 +16,10 @@ import java.awt.event.KeyListener;
 import java.awt.event.WindowEvent;
 import java.awt.event.WindowListener;
 import java.io.File;
-import java.io.FilenameFilter;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.swing.*;
@@ -39,7 +41,7 @@ public class NewsWindow extends JFrame implements INewsWindow, Runnable {
 	private UDPClientNews clientNews = null;
 	private TransmissionHandler udpConnector = null;
 	
-	private NavigableMap<String, UserStruct> ipUsers = null;
+	private volatile ConcurrentNavigableMap<String, UserStruct> ipUsers = null;
 	
 	private int userLogged = 0;
 	
@@ -428,32 +430,19 @@ public class NewsWindow extends JFrame implements INewsWindow, Runnable {
 	
 	/**
 	 * Read the local user news directory
+	 * The news index saved on the last execution is updated with the files that changed meanwhile
 	 * @return 1 if it successfully reads the directory
+	 * @see NewsIndex
 	 */
 	@Override
 	public int readNewsDir() {
 		
-		File dir = new File("_news");
-		if (dir == null)
+		File[] listOfFiles = this.clientNews.readDirFiles();
+		if (listOfFiles == null)
 			return 0;
 		
-		FilenameFilter filtro = new FilenameFilter() {
-
-			@Override
-			public boolean accept(File file, String string) {
-				return ((!string.startsWith(".")) && string.toLowerCase().endsWith("txt"));
-			}
-		};
-		
-		File[] listOfFiles = dir.listFiles(filtro);
-		int finalIdxName;
-		
-		for (File newsFile : listOfFiles) {
-			System.out.println("Nome Noticia: "+newsFile.getName());
-			finalIdxName = newsFile.getName().lastIndexOf(".");
-			finalIdxName = finalIdxName != -1 ? finalIdxName : newsFile.getName().length();
-			this.me.addNewToList(Long.parseLong(newsFile.getName().substring(0, finalIdxName)), newsFile.getName());
-		}
+		NewsIndex.getInstance().refresh(listOfFiles);
+		NewsIndex.getInstance().updateUser(this.me);
 		
 		return 1;
 	}
@@ -480,7 +469,7 @@ public class NewsWindow extends JFrame implements INewsWindow, Runnable {
 		}
 		
 		if (userLogged == 1) {
-			this.ipUsers = new TreeMap<String, UserStruct>();
+			this.ipUsers = new ConcurrentSkipListMap<String, UserStruct>();
 			this.setNick(this.me.getName().toString());
 			this.setVisible(true);
 			this.requestFocus();
@@ -632,12 +621,10 @@ public class NewsWindow extends JFrame implements INewsWindow, Runnable {
 	 * @see UserStruct
 	 */
 	@Override
-	public synchronized UserStruct addToList(String nick, UserStruct user) {
+	public UserStruct addToList(String nick, UserStruct user) {
 		
 		try {
-			if (!this.containsKey(nick)) {
-
-				this.ipUsers.put(nick, user);
+			if (this.ipUsers.putIfAbsent(nick, user) == null) {
 				this.appendTextToLogArea("Novo utilizador adicionado -> Utilizador: "+user.toString());			
 			}
 			else {
@@ -658,7 +645,7 @@ public class NewsWindow extends JFrame implements INewsWindow, Runnable {
 	 * @param nick name or nick of the user to remove
 	 */
 	@Override
-	public synchronized void removeFromListByName(String nick) {
+	public void removeFromListByName(String nick) {
 		try {
 			this.ipUsers.remove(nick);
 			System.out.println("Removido Utilizador: " + nick);
@@ -677,7 +664,7 @@ public class NewsWindow extends JFrame implements INewsWindow, Runnable {
 	 * @see IPStruct
 	 */
 	@Override
-	public synchronized void removeFromListByIP(IPStruct ip) {
+	public void removeFromListByIP(IPStruct ip) {
 		
 		try {
 			UserStruct tmpUser = this.getUserByIP(ip);
@@ -699,7 +686,7 @@ public class NewsWindow extends JFrame implements INewsWindow, Runnable {
 	 * @return the user struct if exists or null if it not exists
 	 */
 	@Override
-	public synchronized UserStruct getUserFromName(String nick) {
+	public UserStruct getUserFromName(String nick) {
 		UserStruct tmpUser = this.ipUsers.get(nick);
 		if (tmpUser != null) {
 			tmpUser.updateLastConn();
@@ -713,7 +700,7 @@ public class NewsWindow extends JFrame implements INewsWindow, Runnable {
 	 * @return the user struct if IP its been used by any user or null otherwise
 	 */
 	@Override
-	public synchronized UserStruct getUserByIP(IPStruct ip) {
+	public UserStruct getUserByIP(IPStruct ip) {
 		
 		UserStruct tmpUser = null;
 		boolean haveUsers = true;
@@ -758,7 +745,7 @@ public class NewsWindow extends JFrame implements INewsWindow, Runnable {
 	 * @return true if the user exists; false if don't
 	 */
 	@Override
-	public synchronized boolean containsKey(IPStruct ip) {
+	public boolean containsKey(IPStruct ip) {
 		return this.getUserByIP(ip) == null ? false : true;
 	}
 	
@@ -769,7 +756,7 @@ public class NewsWindow extends JFrame implements INewsWindow, Runnable {
 	 * @see UserStruct
 	 */
 	@Override
-	public synchronized boolean containsKey(String name) {
+	public boolean containsKey(String name) {
 		try {
 			return this.ipUsers.containsKey(name);
 		}
@@ -785,7 +772,7 @@ public class NewsWindow extends JFrame implements INewsWindow, Runnable {
 	 * @see UserStruct
 	 */
 	@Override
-	public synchronized boolean containsValue(UserStruct user) {
+	public boolean containsValue(UserStruct user) {
 		Object tmpUsers[] = this.ipUsers.values().toArray();
 		for (int i = 0; i < tmpUsers.length; i++) {
 			if (((UserStruct)tmpUsers[i]).equals(user))
@@ -799,7 +786,7 @@ public class NewsWindow extends JFrame implements INewsWindow, Runnable {
 	 */
 	@Override
 	public void clearUsersList() {
-		this.ipUsers = new TreeMap<String, UserStruct>();
+		this.ipUsers = new ConcurrentSkipListMap<String, UserStruct>();
 		this.refreshUsersList();
 	}
 	
@@ -808,7 +795,7 @@ public class NewsWindow extends JFrame implements INewsWindow, Runnable {
 	 * @return int - number of users connected
 	 */
 	@Override
-	public synchronized int getUsersCount() {
+	public int getUsersCount() {
 		try {
 			return this.ipUsers.size();
 		}
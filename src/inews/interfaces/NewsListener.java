@@ -0,0 +1,43 @@
+package inews.interfaces;
+
+import java.io.File;
+
+/**
+ * Interface with the methods called by the news receiver while the news of a transfer are received
+ * Each news is delivered when its content arrives, so the news can be shown before the end of the transfer
+ * The methods of the transfers are called on the delivery thread of the news receiver, one at a time
+ * @author Luis Portela
+ * @see inews.server.NewsReceiver#expect(int, inews.dataStructures.IPStruct, inews.interfaces.NewsListener)
+ */
+public interface NewsListener {
+
+	/**
+	 * Called when the transfer starts
+	 * @param count number of news of the transfer or -1 if the sender doesn't announce it
+	 */
+	public void newsStarted(int count);
+
+	/**
+	 * Called when a news is received
+	 * @param date date of the news or -1 if the sender doesn't send it
+	 * @param title title of the news
+	 * @param content content of the news, the first line is its title
+	 */
+	public void newsReceived(long date, String title, String content);
+
+	/**
+	 * Called when a news bigger than the spill limit is received
+	 * The content was written to a temporary file that is removed when this method returns
+	 * @param date date of the news
+	 * @param title title of the news
+	 * @param content file with the content of the news
+	 * @see inews.server.NewsReceiver#DEFAULT_SPILL_BYTES
+	 */
+	public void newsReceived(long date, String title, File content);
+
+	/**
+	 * Called when the transfer ends
+	 * @param complete true if all the news of the transfer were received ; false if the connection failed or wasn't made
+	 */
+	public void newsEnded(boolean complete);
+}
@@ -0,0 +1,39 @@
+package inews.interfaces;
+
+import inews.dataStructures.NewsIndex;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+
+/**
+ * Interface with the methods to read the contents of the local news
+ * The news directory with one file per news is always the source of the news; a store can keep them in other format
+ * and is updated with the news index when it changes
+ * @author Luis Portela
+ * @see inews.dataStructures.NewsIndex
+ */
+public interface NewsStore {
+
+	/**
+	 * Returns the contents of the news in the format of the TCP transfer
+	 * The news are separated by '\0'
+	 * @param news news of the news index to read, sorted by date
+	 * @param dated true to write a line with the date of each news before its content
+	 * @return contents of the news
+	 * @see inews.dataStructures.MessageDataType#DATED
+	 * @see NewsIndex#select(int, long, java.util.NavigableSet)
+	 */
+	public String readNews(List<NewsIndex.Item> news, boolean dated);
+
+	/**
+	 * Sends the news to the connection in the binary stream of the TCP transfer
+	 * The contents are transferred from the files without being read to memory
+	 * @param news news of the news index to send, sorted by date
+	 * @param target channel of the connection
+	 * @return number of news sent
+	 * @throws IOException if the connection can't be written
+	 * @see inews.dataStructures.NewsStream
+	 * @see NewsIndex#select(int, long, java.util.NavigableSet)
+	 */
+	public int transferNews(List<NewsIndex.Item> news, WritableByteChannel target) throws IOException;
+}
@@ -1,7 +1,10 @@
 package inews.interfaces;
 
 import inews.dataStructures.IPStruct;
+import inews.dataStructures.NewsIndex;
+import inews.dataStructures.Packet;
 import java.io.File;
+import java.util.List;
 
 /**
  * @author Jo�o Paulo Barraca <jpbarraca@ua.pt>
@@ -79,14 +82,29 @@ public interface NewsWindowClient {
 	/**
 	 * Creates a PROVIDES_TITLES message and sends it to the Transmission Handler
 	 * It is an answer to TITLES message and is send to the unicast address of the TITLES message sender
+	 * When the titles don't fit in a datagram the answer is split in fragments
+	 * Only the news with dates between since and until are sent, up to limit news
 	 * @param sequence sequence number to be used in the message
 	 * @param destination IP of the TITLES message sender
+	 * @param since date of the oldest news to send
+	 * @param until date of the newest news to send
+	 * @param limit maximum number of news to send or 0 to send all
+	 * @param missing indexes of the fragments to send again separated by commas or null to send all
+	 * @param base checksum of the news before since that the sender has or -1 if it didn't send it
 	 * @see Packet
 	 * @see MessageType
 	 * @see IPStruct
 	 * @see UDPClientNews#sendPacket(inews.dataStructures.Packet, int, int) 
 	 */
-	public void provideTitlesPacket(int sequence, IPStruct destination);
+	public void provideTitlesPacket(int sequence, IPStruct destination, long since, long until, int limit, String missing, long base);
+	
+	/**
+	 * Processes a received PROVIDE_TITLES message or fragment
+	 * When all the fragments are received the titles are printed and saved on the user
+	 * @param packet received message
+	 * @see Packet
+	 */
+	public void receiveTitles(Packet packet);
 	
 	/**
 	 * Creates a NEWS_ACK message and sends it to the Transmission Handler
@@ -100,6 +118,27 @@ public interface NewsWindowClient {
 	 */
 	public void newsAckPacket(int sequence, IPStruct destination);
 	
+	/**
+	 * Answers a NEWS message with the news in NEWS_ACK messages, split in fragments when needed
+	 * The news are only sent this way when they are smaller than inews.news.inlineBytes and than the size accepted by the sender
+	 * @param sequence sequence number of the NEWS message
+	 * @param destination unicast address of the NEWS sender
+	 * @param news news requested, selected from the news index
+	 * @param missing indexes of the fragments to send again separated by commas or null to send all
+	 * @param maxBytes maximum size of the news accepted by the sender in the NEWS_ACK
+	 * @return true if the news were sent ; false if they must be sent on the TCP transfer
+	 * @see inews.dataStructures.MessageDataType#INLINE
+	 */
+	public boolean provideNewsPacket(int sequence, IPStruct destination, List<NewsIndex.Item> news, String missing, int maxBytes);
+	
+	/**
+	 * Processes a received NEWS_ACK message or fragment with news
+	 * When all the fragments are received the news are given to the listener of the NEWS request
+	 * @param packet received message
+	 * @see Packet
+	 */
+	public void receiveNews(Packet packet);
+	
 	/**
 	 * Creates a RANK_ACK message and sends it to the Transmission Handler
 	 * It is normally send to response a RANK message
@@ -123,13 +162,11 @@ public interface NewsWindowClient {
 	public File[] readDirFiles();
 	
 	/**
-	 * Waits for the message of the TCP server and prints it to the NewsWindow
-	 * @param user user sending the news
-	 * @see NavigableMap
-	 * @see TCPServerNews
-	 * @see INewsWindow#getUserListIterator() 
+	 * Returns the store with the contents of the local news
+	 * @return the store selected with the system property inews.store
+	 * @see NewsStore
 	 */
-	public void receiveNews(String user);
+	public NewsStore getNewsStore();
 	
 	/**
 	 * Processes the received message of a rank and if all the ranks for the users are received prints the results
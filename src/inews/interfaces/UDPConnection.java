@@ -1,7 +1,9 @@
 package inews.interfaces;
 
 import inews.dataStructures.AckMessage;
+import inews.dataStructures.IPStruct;
 import inews.dataStructures.Packet;
+import java.util.concurrent.ScheduledFuture;
 
 /**
  * Interface with the methods to send messages to the network
@@ -21,7 +23,7 @@ public interface UDPConnection {
 	 * Add to the acknowledge message list the received message and creates a thread to process it
 	 * @param sendPacket message to be sent and wait for acknowledge or to be retransmited
 	 * @param retries number of times that the message should be send if not ack is received
-	 * @param timeout time between retries
+	 * @param timeout default time between retries, used while there is no round trip time measured to the destination
 	 * @see Packet
 	 */
 	public void sendWithAck(Packet sendPacket, int retries, int timeout);
@@ -52,6 +54,43 @@ public interface UDPConnection {
 	 */
 	public void removeAck(int sequence);
 
+	/**
+	 * Returns the number of messages waiting for acknowledge
+	 * @return number of messages on the acknowledge list
+	 */
+	public int getPendingAcks();
+
+	/**
+	 * Returns the time the oldest message on the acknowledge list is waiting
+	 * @return age of the oldest message in milliseconds or 0 if the list is empty
+	 */
+	public long getOldestAckAge();
+
+	/**
+	 * Checks if the peer understands the fields added after the first version of the protocol
+	 * The old nodes fail on the fields they don't know, so they only receive the fields of the first version
+	 * @param peer address of the peer
+	 * @return true if the peer ignores the unknown fields ; false otherwise
+	 */
+	public boolean supportsExtensions(IPStruct peer);
+
+	/**
+	 * Returns the time a message sent with acknowledge to the destination waits for the answer before giving up
+	 * @param destination destination of the message
+	 * @param retries number of transmissions of the message
+	 * @param timeout default time between retries
+	 * @return time to wait in milliseconds
+	 */
+	public long getAckTimeout(IPStruct destination, int retries, int timeout);
+
+	/**
+	 * Schedules a task on the thread that makes the retransmissions
+	 * @param task task to run
+	 * @param delay time to wait before running the task in milliseconds
+	 * @return the scheduled task or null if the connection is already stopped
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay);
+
 	/**
 	 * Check if the program is still running
 	 *
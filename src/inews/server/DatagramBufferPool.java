@@ -0,0 +1,78 @@
+package inews.server;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers used to receive the datagrams from the network
+ * The buffers are created when needed up to the pool capacity and reused after the message is processed
+ * When all the buffers are in use a heap buffer is created that is discarded on release
+ *
+ * @see TransmissionHandler
+ * @see HandleReceivedMessages
+ * @author Luis Portela
+ */
+public class DatagramBufferPool {
+
+	private final ArrayBlockingQueue<ByteBuffer> freeBuffers;
+	private final AtomicInteger createdBuffers;
+	private final int capacity;
+	private final int bufferSize;
+
+	/**
+	 * Initializes an empty pool with the provided limits
+	 *
+	 * @param capacity maximum number of direct buffers
+	 * @param bufferSize size of each buffer
+	 */
+	public DatagramBufferPool(int capacity, int bufferSize) {
+		this.capacity = capacity;
+		this.bufferSize = bufferSize;
+		this.freeBuffers = new ArrayBlockingQueue<ByteBuffer>(capacity);
+		this.createdBuffers = new AtomicInteger(0);
+	}
+
+	/**
+	 * Returns a cleared buffer ready to receive a datagram
+	 *
+	 * @return a free buffer of the pool, a new direct buffer or a heap buffer if the pool is exhausted
+	 */
+	public ByteBuffer acquire() {
+
+		ByteBuffer buf = this.freeBuffers.poll();
+
+		if (buf != null) {
+			return buf;
+		}
+
+		if (this.createdBuffers.incrementAndGet() <= this.capacity) {
+			return ByteBuffer.allocateDirect(this.bufferSize);
+		}
+
+		this.createdBuffers.decrementAndGet();
+		return ByteBuffer.allocate(this.bufferSize);
+	}
+
+	/**
+	 * Gives back a buffer to the pool
+	 *
+	 * @param buf buffer that is no longer used
+	 */
+	public void release(ByteBuffer buf) {
+
+		if ((buf != null) && buf.isDirect()) {
+			buf.clear();
+			this.freeBuffers.offer(buf);
+		}
+	}
+
+	/**
+	 * Returns the number of buffers ready to be used
+	 *
+	 * @return number of free buffers
+	 */
+	public int getFreeBuffers() {
+		return this.freeBuffers.size();
+	}
+}
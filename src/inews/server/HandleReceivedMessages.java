@@ -1,361 +1,428 @@
 package inews.server;
 
+import inews.ExecutionMode;
+import inews.client.NewsConnectionPool;
 import inews.client.TCPClientNews;
 import inews.dataStructures.*;
 import inews.interfaces.INewsWindow;
 import inews.interfaces.NewsWindowClient;
 import inews.interfaces.UDPConnection;
-import java.io.File;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.nio.ByteBuffer;
 import java.util.LinkedList;
-import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.TreeSet;
 
 /**
- * Class to process the received message
- * @see Thread
+ * Class to process the received messages
+ * Each worker of the message dispatcher has its own instance that is reused for all the messages it processes
+ * The fields are read from a view over the receive buffer; only the messages with lists of fields are decoded to a packet
+ * @see MessageDispatcher
+ * @see PacketView
  * @author Luis Portela
  */
-public class HandleReceivedMessages extends Thread {
+public class HandleReceivedMessages {
 
-	private Packet packet;
+	/**
+	 * Logs each received message and the PING and ACTIVE messages when true, with the system property inews.log.verbose
+	 * They are off by default because the PING and ACTIVE messages of all the users are the most frequent ones
+	 */
+	private static final boolean verbose = Boolean.getBoolean("inews.log.verbose");
+
+	/**
+	 * Size of the table of the names of the users reused by the messages of each worker
+	 */
+	private static final int USER_NAMES = 1024;
+
+	private final PacketView view = new PacketView();
+	private final String[] userNames = new String[USER_NAMES];
+	private final DatagramBufferPool bufferPool;
+	private MessageType type = null;
+	private IPStruct source = null;
 	private INewsWindow newsWindow;
 	private NewsWindowClient newsClient;
 	private UDPConnection transmiter;
 	private UserStruct me;
 
 	/**
-	 * Initializes the Thread with the provided values
+	 * Initializes the message processing with the provided values
 	 * @param myID local user
 	 * @param transmiter connection handler
-	 * @param dp datagram packet
+	 * @param bufferPool pool owning the receive buffers
 	 * @param newsWindow front-end window
 	 * @param newsClient client to send
+	 * @see DatagramBufferPool
 	 */
-	public HandleReceivedMessages(UserStruct myID, UDPConnection transmiter, DatagramPacket dp, INewsWindow newsWindow, NewsWindowClient newsClient) {
+	public HandleReceivedMessages(UserStruct myID, UDPConnection transmiter, DatagramBufferPool bufferPool, INewsWindow newsWindow,
+			NewsWindowClient newsClient) {
 		this.me = myID;
 		this.transmiter = transmiter;
-		this.packet = new Packet(dp.getData(), dp.getLength(), new IPStruct(dp.getAddress().getHostAddress(), dp.getPort()));
+		this.bufferPool = bufferPool;
 		this.newsWindow = (INewsWindow) newsWindow;
 		this.newsClient = (NewsWindowClient) newsClient;
 	}
 
 	/**
-	 * Starts the application and process the received message
+	 * Process a received message
+	 * The buffer is given back to the pool at the end, so the tasks started here must copy the values they need
+	 * @param buf buffer with the received datagram
+	 * @param type type of the received message
+	 * @param source sender of the datagram
 	 */
-	@Override
-	public void run() {
+	public void process(ByteBuffer buf, MessageType type, IPStruct source) {
 
-		if (this.transmiter.isRunning()) {
+		this.type = type;
+		this.source = source;
 
-			UserStruct updateUser;
+		try {
+			if (this.transmiter.isRunning() && (this.view.wrap(buf) != null)) {
+				this.processMessage();
+			}
+		} finally {
+			this.bufferPool.release(buf);
+			this.type = null;
+			this.source = null;
+		}
+	}
 
-			System.out.println("[HandleReceivedMessage]:[" + this.packet.getType().toString() + "] : Recebido:\n");
-			System.out.println("[HandleReceivedMessage]:[" + this.packet.getType().toString() + "] : USER: " + this.packet.getUser());
-			System.out.println("[HandleReceivedMessage]:[" + this.packet.getType().toString() + "] : IP: " + this.packet.getPacketIP());
-			System.out.println("[HandleReceivedMessage]:[" + this.packet.getType().toString() + "] : SEQUENCE: " + this.packet.getSequence());
+	/**
+	 * Process the message according to its type
+	 */
+	private void processMessage() {
 
-			switch (this.packet.getType()) {
+		UserStruct updateUser;
+		final int sequence = this.view.getSequence();
 
-				// caso a mensagem recebida seja um SENSE
-				// se o utilizador for igual ao utilizador actual envia a mensagem de DUPLICATE
-				case SENSE: {
+		if (verbose) {
+			System.out.println("[HandleReceivedMessage]:[" + this.type + "] : Recebido de " + this.source + " SEQUENCE: " + sequence);
+		}
 
-					this.logMessage("senseCASE", "Recebida mensagem SENSE");
-					if (this.packet.getUser().getName().equalsIgnoreCase(this.me.getName().toString())) {
-						this.logMessage("sensePacket", "Utilizador igual a mim!");
-						this.newsClient.duplicatePacket(this.packet.getSequence(), this.packet.getPacketIP());
-					}
+		switch (this.type) {
 
-					break;
+			// caso a mensagem recebida seja um SENSE
+			// se o utilizador for igual ao utilizador actual envia a mensagem de DUPLICATE
+			case SENSE: {
+
+				this.logMessage("senseCASE", "Recebida mensagem SENSE");
+				if (this.view.isUserIgnoreCase(this.me.getName())) {
+					this.logMessage("sensePacket", "Utilizador igual a mim!");
+					this.newsClient.duplicatePacket(sequence, this.source);
 				}
 
-				// se a mensagem for um DUPLICATE marca o ack do respectivo SENSE como recebido
-				// termina a aplicacao
-				case DUPLICATE: {
+				break;
+			}
 
-					this.transmiter.receivedAck(this.packet.getSequence());
-					this.transmiter.setRunning(false);
-					this.logMessage("senseCASE", "Recebida mensagem DUPLICATE");
+			// se a mensagem for um DUPLICATE marca o ack do respectivo SENSE como recebido
+			// termina a aplicacao
+			case DUPLICATE: {
 
-					break;
+				this.transmiter.receivedAck(sequence);
+				this.transmiter.setRunning(false);
+				this.logMessage("senseCASE", "Recebida mensagem DUPLICATE");
 
-				}
+				break;
+
+			}
 
-				// se a mensagem for ACTIVE marca o ack correspondente como recebido e processa a informacao
-				case ACTIVE: {
+			// se a mensagem for ACTIVE marca o ack correspondente como recebido e processa a informacao
+			case ACTIVE: {
 
-					AckMessage tmpAckMessage = this.transmiter.getAck(this.packet.getSequence());
+				AckMessage tmpAckMessage = this.transmiter.getAck(sequence);
 
-					if (tmpAckMessage != null) {
-						if (tmpAckMessage.getSendPacket().getType().equals(MessageType.PING)) {
-							this.transmiter.receivedAck(this.packet.getSequence());
-						}
+				if (tmpAckMessage != null) {
+					if (tmpAckMessage.getSendPacket().getType().equals(MessageType.PING)) {
+						this.transmiter.receivedAck(sequence);
 					}
+				}
 
+				if (verbose) {
 					this.logMessage("activeCASE", "Recebida mensagem ACTIVE");
-					UserStruct commUser = this.newsWindow.addToList(this.packet.getUser().getName().toString(), new UserStruct(this.packet.getUser().getName(), this.packet.getPacketIP()));
-
-					LinkedList<MessageData> dataList = this.packet.getDataList();
-					MessageData receivedInfo;
-
-					while ((receivedInfo = dataList.pollFirst()) != null) {
-
-						switch (receivedInfo.getKey()) {
-							case NUMBER: {
-								commUser.setTotalNews(Integer.valueOf(receivedInfo.getValue()));
-								this.logMessage("activeCASE", "Actualizado total noticias utilizador: " + commUser.toString());
-								break;
-							}
-							case DATE: {
-								commUser.setLastNewDate(Long.valueOf(receivedInfo.getValue()));
-								this.logMessage("activeCASE", "Actualizada ultima noticia utilizador: " + commUser.toString());
-								break;
-							}
-						}
-					}
+				}
+				String name = this.view.getUserName(this.userNames);
+				UserStruct commUser = this.newsWindow.getUserFromName(name);
 
-					this.newsWindow.refreshUsersList();
+				// o utilizador so e criado na primeira mensagem ACTIVE do peer
+				if (commUser == null) {
+					commUser = this.newsWindow.addToList(name, new UserStruct(name, this.source));
+				}
 
-					break;
+				if (this.view.hasField(MessageDataType.NUMBER)) {
+					commUser.setTotalNews(this.view.getInt(MessageDataType.NUMBER, 0));
+					if (verbose) {
+						this.logMessage("activeCASE", "Actualizado total noticias utilizador: " + commUser.toString());
+					}
 				}
+				if (this.view.hasField(MessageDataType.DATE)) {
+					commUser.setLastNewDate(this.view.getLong(MessageDataType.DATE, 0));
+					if (verbose) {
+						this.logMessage("activeCASE", "Actualizada ultima noticia utilizador: " + commUser.toString());
+					}
+				}
+				// o ACTIVE por broadcast nao tem o checksum, que fica desconhecido ate ao proximo ACTIVE unicast
+				commUser.setChecksum(this.view.getLong(MessageDataType.CHECKSUM, -1));
 
-				// caso seja um PING envia mensagem ACTIVE para o endereço unicast
-				case PING: {
+				this.newsWindow.refreshUsersList();
 
-					this.logMessage("pingCASE", "Recebida mensagem PING");
-					if (!this.newsWindow.containsKey(this.packet.getUser().getName().toString())) {
-						this.newsClient.requestUnknownUserInfo(this.packet.getPacketIP());
-					}
-					this.newsClient.activePacket(this.packet.getSequence(), this.packet.getPacketIP());
+				break;
+			}
 
-					break;
+			// caso seja um PING envia mensagem ACTIVE para o endereço unicast
+			case PING: {
+
+				if (verbose) {
+					this.logMessage("pingCASE", "Recebida mensagem PING");
+				}
+				if (!this.newsWindow.containsKey(this.view.getUserName(this.userNames))) {
+					this.newsClient.requestUnknownUserInfo(this.source);
 				}
-					
-				// caso seja um TITLES envia um PROVIDE_TITLES
-				case TITLES: {
+				this.newsClient.activePacket(sequence, this.source);
 
-					this.logMessage("titlesCASE", "Recebida mensagem TITLES ");
-					this.newsClient.provideTitlesPacket(this.packet.getSequence(), this.packet.getPacketIP());
+				break;
+			}
+				
+			// caso seja um TITLES envia um PROVIDE_TITLES
+			case TITLES: {
 
-					break;
-				}
+				this.logMessage("titlesCASE", "Recebida mensagem TITLES ");
+				this.newsClient.provideTitlesPacket(sequence, this.source, this.view.getLong(MessageDataType.SINCE, 0),
+						this.view.getLong(MessageDataType.UNTIL, Long.MAX_VALUE), this.view.getInt(MessageDataType.LIMIT, 0),
+						this.view.getString(MessageDataType.MISSING), this.view.getLong(MessageDataType.BASE, -1));
 
-				// marca o ack respectivo como recebido e processa os titulos apresentado-os e gravando-os na estrutura de dados do utilizador associado
-				case PROVIDE_TITLES: {
-
-					this.logMessage("provide_titlesCASE", "Recebida mensagem PROVIDE_TITLES");
-
-					AckMessage tmpAckMessage = this.transmiter.getAck(this.packet.getSequence());
-
-					if (tmpAckMessage != null) {
-						if (tmpAckMessage.getSendPacket().getType().equals(MessageType.TITLES)) {
-							this.transmiter.receivedAck(tmpAckMessage.getSequenceNumber());
-
-							LinkedList<MessageData> titlesList = this.packet.getDataList();
-							NavigableMap<Long, String> userTitlesList = null;
-							int totalOfTitles;
-							MessageData tmpEntry1, tmpEntry2;
-							String commandResult = new String();
-
-							if (titlesList != null) {
-
-								tmpEntry1 = titlesList.pollFirst();
-								if (tmpEntry1.getKey().equals(MessageDataType.NUMBER)) {
-									totalOfTitles = Integer.parseInt(tmpEntry1.getValue());
-									if (totalOfTitles == ((int) titlesList.size() / 2)) {
-										userTitlesList = new TreeMap<Long, String>();
-										commandResult = "\ntitles " + this.packet.getUser().getName() + " - Total: " + tmpEntry1.getValue();
-										commandResult += ("\n"
-												+ "\n<title>\t\t\t\t<data da noticia>\n");
-
-										while ((tmpEntry1 = titlesList.pollFirst()) != null) {
-											commandResult += ("\n" + tmpEntry1.getValue());
-											tmpEntry2 = titlesList.pollFirst();
-											commandResult += ("\t\t" + formatDate(Long.parseLong(tmpEntry2.getValue())) + "\n");
-											userTitlesList.put(Long.parseLong(tmpEntry2.getValue()), tmpEntry1.getValue());
-										}
-										this.newsWindow.getUserFromName(this.packet.getUser().getName()).setNewsList(userTitlesList);
-									}
-									else {
-										commandResult = "\nA lista de titulos não está consistente com o campo NUMBER!";
-									}
-								}
-							}
-							else {
-								commandResult = "\nO execucao do comando falhou!";
-							}
-							
-							this.newsWindow.appendCommandResultToOutputArea("titles " + this.packet.getUser().getName(), commandResult);
-						}
-					}
+				break;
+			}
 
-					break;
-				}
+			// marca o ack respectivo como recebido e entrega a mensagem ou fragmento ao cliente que junta os titulos
+			case PROVIDE_TITLES: {
+
+				this.logMessage("provide_titlesCASE", "Recebida mensagem PROVIDE_TITLES");
 
-				// envia o ack da mensagem de NEWS para o host que pediu noticias, espera 3 segundos e inicia o client TCP para enviar a informacao
-				case NEWS: {
-
-					File[] listOfFiles = null;
-					TCPClientNews clientTCP = null;
-					MessageData tmpMessage;
-					IPStruct serverTCP;
-					int numOfFilesToRead = 0;
-
-					this.logMessage("NEWS_CASE", "Recebida mensagem NEWS");
-					this.newsClient.newsAckPacket(this.packet.getSequence(), this.packet.getPacketIP());
-
-					this.waitSomeTime(1);
-
-					if ((listOfFiles = this.newsClient.readDirFiles()) != null) {
-
-						serverTCP = this.packet.getPacketIP();
-
-						try {
-							while ((tmpMessage = this.packet.getDataList().pollFirst()) != null) {
-								switch (tmpMessage.getKey()) {
-									case NUMBER: {
-										numOfFilesToRead = Integer.parseInt(tmpMessage.getValue());
-										break;
-									}
-									case PORT: {
-										serverTCP.setPort(Integer.parseInt(tmpMessage.getValue()));
-									}
-								}
-							}
-							clientTCP = new TCPClientNews(serverTCP, (INewsWindow) this.newsWindow);
-							clientTCP.sendFilesInfo(listOfFiles, numOfFilesToRead);
-
-						} catch (IOException ex) {
-							//Logger.getLogger(HandleReceivedMessages.class.getName()).log(Level.SEVERE, null, ex);
-							this.logMessage("newsCASE", "O servidor fechou a ligacao!");
-						} finally {
-							if (clientTCP != null) {
-								clientTCP.endClient();
-							}
-						}
+				AckMessage tmpAckMessage = this.transmiter.getAck(sequence);
+
+				if (tmpAckMessage != null) {
+					if (tmpAckMessage.getSendPacket().getType().equals(MessageType.TITLES)) {
+						this.transmiter.receivedAck(tmpAckMessage.getSequenceNumber());
 					}
+				}
+
+				// a lista de titulos precisa da mensagem completa
+				this.newsClient.receiveTitles(this.view.toPacket(this.source));
 
+				break;
+			}
+
+			// as noticias pequenas seguem nos NEWS_ACK quando o host que pediu noticias aceita
+			// nos outros casos envia o ack da mensagem de NEWS e inicia o client TCP para enviar a informacao
+			// a transferencia e feita numa thread propria (plataforma ou virtual) para nao ocupar os workers do dispatcher
+			case NEWS: {
+
+				this.logMessage("NEWS_CASE", "Recebida mensagem NEWS");
+
+				// os valores sao copiados porque o buffer volta ao pool antes da transferencia
+				final IPStruct serverTCP = new IPStruct(this.source);
+				NavigableSet<Long> dates = parseDates(this.view.getString(MessageDataType.DATES));
+				long base = this.view.getLong(MessageDataType.BASE, -1);
+				// um pedido so com datas nao inclui as ultimas noticias
+				long since = this.view.getLong(MessageDataType.SINCE, (dates != null) || (base != -1) ? Long.MAX_VALUE : 0);
+				int count = this.view.getInt(MessageDataType.NUMBER, 0);
+				// a cache de quem pede nao corresponde as noticias anteriores ao SINCE, por isso seguem todas
+				if ((base != -1) && (NewsIndex.getInstance().getChecksum(since) != base)) {
+					count = 0;
+					since = 0;
+					dates = null;
+				}
+				final LinkedList<NewsIndex.Item> news = NewsIndex.getInstance().select(count, since, dates);
+				String missing = this.view.getString(MessageDataType.MISSING);
+
+				if (this.view.hasField(MessageDataType.INLINE)
+						&& this.newsClient.provideNewsPacket(sequence, this.source, news, missing, this.view.getInt(MessageDataType.INLINE, 0))) {
+					break;
+				}
+				// o pedido dos fragmentos em falta nao tem transferencia
+				if (missing != null) {
 					break;
 				}
 
-				// marca o ack respectivo como recebido e processa as noticias
-				case NEWS_ACK: {
+				this.newsClient.newsAckPacket(sequence, this.source);
 
-					AckMessage tmpAckMessage = this.transmiter.getAck(this.packet.getSequence());
+				final boolean dated = this.view.hasField(MessageDataType.DATED);
+				final boolean stream = this.view.hasField(MessageDataType.STREAM);
+				final int newsSequence = sequence;
 
-					if (tmpAckMessage != null) {
-						if (tmpAckMessage.getSendPacket().getType().equals(MessageType.NEWS)) {
-							this.transmiter.receivedAck(this.packet.getSequence());
-						}
-					}
+				if (this.view.hasField(MessageDataType.PORT)) {
+					serverTCP.setPort(this.view.getInt(MessageDataType.PORT, serverTCP.getPort()));
+				}
 
-					this.newsClient.receiveNews(this.packet.getUser().getName());
+				ExecutionMode.current().start("NewsTransfer-" + sequence, new Runnable() {
 
-					break;
+					@Override
+					public void run() {
+						sendNews(serverTCP, news, dated, stream, newsSequence);
+					}
+				});
 
-				}
+				break;
+			}
 
-				// envia o rank para o utilizador do utilizador pedido
-				case RANK: {
+			// marca o ack respectivo como recebido, as noticias sao recebidas pelo NewsReceiver ou seguem no proprio NEWS_ACK
+			case NEWS_ACK: {
 
-					this.logMessage("RANK_CASE", "Recebida mensagem RANK");
-					MessageData tmpData = this.packet.getDataList().pollFirst();
-					if (tmpData.getKey().equals(MessageDataType.TARGET)) {
-						this.newsClient.rankAckPacket(this.packet.getSequence(), this.packet.getPacketIP(), tmpData.getValue());
+				AckMessage tmpAckMessage = this.transmiter.getAck(sequence);
 
+				if (tmpAckMessage != null) {
+					if (tmpAckMessage.getSendPacket().getType().equals(MessageType.NEWS)) {
+						this.transmiter.receivedAck(sequence);
 					}
-
-					break;
 				}
 
-				// marca o ack como recebido e processa o valor recebido apresentando a informacao caso seja o ultimo
-				case RANK_ACK: {
+				if (this.view.hasField(MessageDataType.INLINE)) {
+					this.newsClient.receiveNews(this.view.toPacket(this.source));
+				}
 
-					AckMessage tmpAckMessage = this.transmiter.getAck(this.packet.getSequence());
+				break;
 
-					if (tmpAckMessage != null) {
-						if (tmpAckMessage.getSendPacket().getType().equals(MessageType.RANK)) {
-							this.transmiter.receivedAck(this.packet.getSequence());
-						}
-					}
-					
-					LinkedList<MessageData> dataList = packet.getDataList();
-					MessageData tmpData;
-					String user;
-					if (dataList.size() >= 2) {
-						tmpData = dataList.pollFirst();
-						if (tmpData.getKey().equals(MessageDataType.TARGET)) {
-							user = tmpData.getValue();
-							tmpData = dataList.pollFirst();
-							if (tmpData.getKey().equals(MessageDataType.SCORE)) {
-								this.newsClient.processRankForUser(user, Integer.valueOf(tmpData.getValue()), true);
-								this.logMessage("RANK_ACK_CASE", "Recebido Rank para " + user);
-							}
-						}
-					}
-					else this.logMessage("RANK_ACK_CASE", "Mensagem mal formada");
+			}
 
-					break;
+			// envia o rank para o utilizador do utilizador pedido
+			case RANK: {
 
+				this.logMessage("RANK_CASE", "Recebida mensagem RANK");
+				String target = this.view.getString(MessageDataType.TARGET);
+				if (target != null) {
+					this.newsClient.rankAckPacket(sequence, this.source, target);
 				}
 
-				// caso seja um BYE remove o utilizador da lista
-				case BYE: {
+				break;
+			}
 
-					this.logMessage("BYE_CASE", "Recebida mensagem BYE");
-					updateUser = this.newsWindow.getUserFromName(this.packet.getUser().getName());
-					if (updateUser != null) {
-						this.newsWindow.removeFromListByName(this.packet.getUser().getName());
-					}
+			// marca o ack como recebido e processa o valor recebido apresentando a informacao caso seja o ultimo
+			case RANK_ACK: {
 
-					break;
+				AckMessage tmpAckMessage = this.transmiter.getAck(sequence);
+
+				if (tmpAckMessage != null) {
+					if (tmpAckMessage.getSendPacket().getType().equals(MessageType.RANK)) {
+						this.transmiter.receivedAck(sequence);
+					}
+				}
+				
+				String user = this.view.getString(MessageDataType.TARGET);
+				if ((user != null) && this.view.hasField(MessageDataType.SCORE)) {
+					this.newsClient.processRankForUser(user, this.view.getInt(MessageDataType.SCORE, 0), true);
+					this.logMessage("RANK_ACK_CASE", "Recebido Rank para " + user);
 				}
+				else this.logMessage("RANK_ACK_CASE", "Mensagem mal formada");
+
+				break;
+
 			}
 
-			// actualiza o ultimo acesso do utilizador que enviou o pacote
-			if (!this.packet.getType().equals(MessageType.DUPLICATE)) {
-				updateUser = this.newsWindow.getUserByIP(packet.getPacketIP());
+			// caso seja um BYE remove o utilizador da lista
+			case BYE: {
+
+				this.logMessage("BYE_CASE", "Recebida mensagem BYE");
+				updateUser = this.newsWindow.getUserFromName(this.view.getUserName());
 				if (updateUser != null) {
-					this.logMessage("readPacket", "Acesso de utilizador: " + updateUser.getName());
-					updateUser.updateLastConn();
+					this.newsWindow.removeFromListByName(this.view.getUserName());
 				}
+
+				break;
 			}
 		}
 
+		// actualiza o ultimo acesso do utilizador que enviou o pacote
+		if (!this.type.equals(MessageType.DUPLICATE)) {
+			updateUser = this.newsWindow.getUserByIP(this.source);
+			if (updateUser != null) {
+				this.logMessage("readPacket", "Acesso de utilizador: " + updateUser.getName());
+				updateUser.updateLastConn();
+			}
+		}
 	}
 
 	/**
-	 * Prints the message to the log area of the news window and system output
-	 * @param func function sending the message
-	 * @param message message to print
+	 * Sends the requested news files to the TCP server of the NEWS sender
+	 * The NEWS sender binds its news receiver and registers the request before sending the NEWS, so the bound port of
+	 * the PORT field is the signal that the server is listening and the connection is opened right away
+	 * The binary stream is sent on a connection of the connection pool; if the transfer fails it is sent once more on
+	 * other connection, because an idle connection can be closed by the server just before being used
+	 * @param serverTCP address of the TCP server of the NEWS sender
+	 * @param news news requested, selected from the news index
+	 * @param dated true if the NEWS sender asked the date of each news
+	 * @param stream true if the NEWS sender asked the binary stream
+	 * @param sequence sequence number of the NEWS message
+	 * @see NewsConnectionPool
 	 */
-	private void logMessage(String func, String message) {
-		this.newsWindow.appendTextToLogArea("[HandleReceivedMessage]:[" + func + "] -> " + message);
-		System.out.println("[HandleReceivedMessage]:[" + func + "] -> " + message);
+	private void sendNews(IPStruct serverTCP, List<NewsIndex.Item> news, boolean dated, boolean stream, int sequence) {
+
+		NewsConnectionPool pool = NewsConnectionPool.getInstance();
+		TCPClientNews clientTCP = null;
+		boolean sent = false;
+
+		if (stream) {
+			for (int attempt = 0; (attempt < 2) && (!sent); attempt++) {
+				try {
+					clientTCP = pool.acquire(serverTCP, this.newsWindow);
+					sent = clientTCP.transferNews(this.newsClient.getNewsStore(), news, sequence);
+					pool.release(clientTCP, sent);
+				} catch (IOException ex) {
+					this.logMessage("newsCASE", "Nao foi possivel ligar ao servidor!");
+					return;
+				} catch (InterruptedException ex) {
+					this.logMessage("newsCASE", "Envio das noticias interrompido");
+					return;
+				}
+			}
+			return;
+		}
+
+		try {
+			clientTCP = new TCPClientNews(serverTCP, (INewsWindow) this.newsWindow);
+			clientTCP.sendFilesInfo(this.newsClient.getNewsStore().readNews(news, dated));
+
+		} catch (IOException ex) {
+			//Logger.getLogger(HandleReceivedMessages.class.getName()).log(Level.SEVERE, null, ex);
+			this.logMessage("newsCASE", "O servidor fechou a ligacao!");
+		} finally {
+			if (clientTCP != null) {
+				clientTCP.endClient();
+			}
+		}
 	}
 
 	/**
-	 * Formats the date
-	 * @param unixTimeStamp date in unix time stamp
-	 * @return String with the date
+	 * Reads the dates of the DATES field of a NEWS message
+	 * @param dates dates separated by commas or null
+	 * @return the dates or null if the message doesn't have the field
 	 */
-	private String formatDate(Long unixTimeStamp) {
+	private static NavigableSet<Long> parseDates(String dates) {
+
+		NavigableSet<Long> parsed;
 
-		SimpleDateFormat dateFormat = new SimpleDateFormat("EEE, d MMM yyyy HH:mm:ss");
-		return dateFormat.format(new Date(unixTimeStamp * 1000));
+		if (dates == null) {
+			return null;
+		}
+
+		parsed = new TreeSet<Long>();
+
+		for (String token : dates.split(",")) {
+			try {
+				parsed.add(Long.parseLong(token.trim()));
+			} catch (NumberFormatException ex) {
+				// as datas mal formadas sao ignoradas
+			}
+		}
+
+		return parsed;
 	}
 
 	/**
-	 * Waits until the time is equal or bigger
-	 * @param timeToWait time to wait in seconds
+	 * Prints the message to the log area of the news window and system output
+	 * @param func function sending the message
+	 * @param message message to print
 	 */
-	private void waitSomeTime(long timeToWait) {
-
-		long start = System.currentTimeMillis();
-		while ((System.currentTimeMillis() - start) < (timeToWait * 1000));
+	private void logMessage(String func, String message) {
+		this.newsWindow.appendTextToLogArea("[HandleReceivedMessage]:[" + func + "] -> " + message);
+		System.out.println("[HandleReceivedMessage]:[" + func + "] -> " + message);
 	}
 }
@@ -0,0 +1,466 @@
+package inews.server;
+
+import inews.ExecutionMode;
+import inews.dataStructures.IPStruct;
+import inews.dataStructures.MessageType;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Class that sits between the network listener and the processing of the received messages
+ * Each peer has its own mailbox so the messages of a peer are processed in the order they were received,
+ * while the messages of different peers are processed in parallel by a fixed number of worker threads
+ * The total of messages waiting is bounded; when it is full the oldest PING/ACTIVE messages are dropped first
+ * and the acknowledge messages are never dropped
+ * The mailboxes and the envelopes of the messages are reused and each worker has its own message handler, so a received
+ * message doesn't create objects on the way to its processing
+ *
+ * @see HandleReceivedMessages
+ * @see TransmissionHandler
+ * @author Luis Portela
+ */
+public class MessageDispatcher {
+
+	/**
+	 * Default number of worker threads
+	 */
+	public static final int DEFAULT_WORKERS = 4;
+	/**
+	 * Default number of worker threads when they are virtual threads
+	 * Virtual threads are cheap so there can be one for each active peer
+	 */
+	public static final int DEFAULT_VIRTUAL_WORKERS = 512;
+	/**
+	 * Default maximum number of messages waiting to be processed
+	 */
+	public static final int DEFAULT_QUEUE_LIMIT = 256;
+
+	private final Map<IPStruct, Mailbox> mailboxes;
+	private final ArrayDeque<Mailbox> readyMailboxes;
+	private final ArrayDeque<Mailbox> freeMailboxes;
+	private final ArrayDeque<Envelope> freeEnvelopes;
+	private final DatagramBufferPool bufferPool;
+	private final Thread[] workers;
+	private final ReentrantLock lock;
+	private final Condition mailboxReady;
+	private final int queueLimit;
+	private boolean running = true;
+	private int queueSize = 0;
+	private long arrivals = 0;
+	private long droppedMessages = 0;
+
+	/**
+	 * Initializes the dispatcher with the provided limits
+	 *
+	 * @param workersCount number of threads processing the messages
+	 * @param queueLimit maximum number of messages waiting to be processed
+	 * @param mode kind of threads used by the workers
+	 * @param bufferPool pool owning the receive buffers of the messages
+	 * @param handlers creates the message handler of each worker
+	 * @see ExecutionMode
+	 * @see HandleReceivedMessages
+	 */
+	public MessageDispatcher(int workersCount, int queueLimit, ExecutionMode mode, DatagramBufferPool bufferPool,
+			Supplier<HandleReceivedMessages> handlers) {
+
+		// o emissor e identificado pela instancia de IPStruct que o TransmissionHandler guarda para cada endereco
+		this.mailboxes = new IdentityHashMap<IPStruct, Mailbox>();
+		this.readyMailboxes = new ArrayDeque<Mailbox>();
+		this.freeMailboxes = new ArrayDeque<Mailbox>();
+		this.freeEnvelopes = new ArrayDeque<Envelope>();
+		this.bufferPool = bufferPool;
+		// lock explicito em vez de synchronized para os workers virtuais nao ficarem presos a thread de plataforma enquanto esperam
+		this.lock = new ReentrantLock();
+		this.mailboxReady = this.lock.newCondition();
+		this.queueLimit = queueLimit > 0 ? queueLimit : DEFAULT_QUEUE_LIMIT;
+		this.workers = new Thread[workersCount > 0 ? workersCount : getDefaultWorkers(mode)];
+
+		for (int i = 0; i < this.workers.length; i++) {
+			this.workers[i] = mode.newThread("MessageDispatcher-" + i, new DispatchWorker(handlers.get()));
+		}
+	}
+
+	/**
+	 * Starts all the worker threads
+	 */
+	public void start() {
+		for (Thread worker : this.workers) {
+			worker.start();
+		}
+		System.out.println("[MessageDispatcher]:[start] -> Iniciados " + this.workers.length + " workers, limite da fila: " + this.queueLimit);
+	}
+
+	/**
+	 * Returns the default number of workers to the provided execution mode
+	 *
+	 * @param mode kind of threads used by the workers
+	 * @return default number of workers
+	 */
+	public static int getDefaultWorkers(ExecutionMode mode) {
+		return mode == ExecutionMode.VIRTUAL ? DEFAULT_VIRTUAL_WORKERS : DEFAULT_WORKERS;
+	}
+
+	/**
+	 * Adds a received message to the mailbox of the peer that sent it
+	 * If the queue is full removes the oldest PING/ACTIVE message; if there is none the new message is dropped unless it is an acknowledge
+	 * The buffer is given back to the pool when the message is processed or dropped
+	 *
+	 * @param buf buffer with the received datagram
+	 * @param type type of the received message
+	 * @param source sender of the datagram, the same instance for all the messages of the peer
+	 * @return true if the message was queued ; false if it was dropped
+	 */
+	public boolean dispatch(ByteBuffer buf, MessageType type, IPStruct source) {
+
+		Mailbox mailbox;
+		Envelope envelope;
+
+		this.lock.lock();
+		try {
+			if (!this.running) {
+				this.bufferPool.release(buf);
+				return false;
+			}
+
+			if ((this.queueSize >= this.queueLimit) && (!this.dropOldestDroppable()) && (!isAcknowledge(type))) {
+				this.bufferPool.release(buf);
+				this.droppedMessages++;
+				System.out.println("[MessageDispatcher]:[dispatch] -> Fila cheia, descartada mensagem " + type + " (total descartadas: " + this.droppedMessages + ")");
+				return false;
+			}
+
+			if ((mailbox = this.mailboxes.get(source)) == null) {
+				if ((mailbox = this.freeMailboxes.pollFirst()) == null) {
+					mailbox = new Mailbox();
+				}
+				mailbox.peer = source;
+				this.mailboxes.put(source, mailbox);
+			}
+
+			if ((envelope = this.freeEnvelopes.pollFirst()) == null) {
+				envelope = new Envelope();
+			}
+			envelope.set(buf, type, source, this.arrivals++);
+
+			mailbox.messages.addLast(envelope);
+			this.queueSize++;
+
+			// a mailbox so fica disponivel se nenhum worker estiver a tratar as mensagens deste peer
+			if (!mailbox.scheduled) {
+				mailbox.scheduled = true;
+				this.readyMailboxes.addLast(mailbox);
+				this.mailboxReady.signal();
+			}
+
+			return true;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the workers; the messages still on the mailboxes are discarded
+	 */
+	public void shutdown() {
+		this.lock.lock();
+		try {
+			this.running = false;
+			for (Mailbox mailbox : this.mailboxes.values()) {
+				for (Envelope envelope : mailbox.messages) {
+					this.bufferPool.release(envelope.buffer);
+				}
+			}
+			this.mailboxes.clear();
+			this.readyMailboxes.clear();
+			this.freeMailboxes.clear();
+			this.freeEnvelopes.clear();
+			this.queueSize = 0;
+			this.mailboxReady.signalAll();
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of messages waiting to be processed
+	 *
+	 * @return number of messages on all the mailboxes
+	 */
+	public int getQueueSize() {
+		this.lock.lock();
+		try {
+			return this.queueSize;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of messages dropped because the queue was full
+	 *
+	 * @return number of dropped messages
+	 */
+	public long getDroppedMessages() {
+		this.lock.lock();
+		try {
+			return this.droppedMessages;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Waits for a mailbox with messages to be processed
+	 * The mailbox stays assigned to the worker until it calls release
+	 *
+	 * @return mailbox to process or null if the dispatcher was stopped
+	 * @see MessageDispatcher#release(inews.server.MessageDispatcher.Mailbox, inews.server.MessageDispatcher.Envelope)
+	 */
+	private Mailbox take() {
+
+		this.lock.lock();
+		try {
+			while (this.running && this.readyMailboxes.isEmpty()) {
+				this.mailboxReady.await();
+			}
+
+			return this.running ? this.readyMailboxes.pollFirst() : null;
+		} catch (InterruptedException ex) {
+			return null;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes the next message of a mailbox assigned to a worker
+	 *
+	 * @param mailbox mailbox assigned to the worker
+	 * @return next message of the peer; its envelope is given back on release
+	 */
+	private Envelope next(Mailbox mailbox) {
+
+		Envelope envelope;
+
+		this.lock.lock();
+		try {
+			if ((envelope = mailbox.messages.pollFirst()) == null) {
+				return null;
+			}
+
+			this.queueSize--;
+			return envelope;
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Gives back a mailbox after processing one of its messages
+	 * If it still have messages goes to the end of the ready list so the other peers are not starved; otherwise it is removed
+	 * and kept to be reused by other peer
+	 *
+	 * @param mailbox mailbox assigned to the worker
+	 * @param envelope envelope of the processed message or null
+	 */
+	private void release(Mailbox mailbox, Envelope envelope) {
+
+		this.lock.lock();
+		try {
+			if (!this.running) {
+				return;
+			}
+
+			if (envelope != null) {
+				this.recycle(envelope);
+			}
+
+			if (mailbox.messages.isEmpty()) {
+				mailbox.scheduled = false;
+				this.mailboxes.remove(mailbox.peer);
+				mailbox.peer = null;
+				if (this.freeMailboxes.size() < this.workers.length) {
+					this.freeMailboxes.addLast(mailbox);
+				}
+			} else {
+				this.readyMailboxes.addLast(mailbox);
+				this.mailboxReady.signal();
+			}
+		} finally {
+			this.lock.unlock();
+		}
+	}
+
+	/**
+	 * Keeps an envelope to be reused by other message
+	 * Must be called with the lock held
+	 *
+	 * @param envelope envelope that is no longer used
+	 */
+	private void recycle(Envelope envelope) {
+
+		envelope.set(null, null, null, 0);
+		if (this.freeEnvelopes.size() < this.queueLimit) {
+			this.freeEnvelopes.addLast(envelope);
+		}
+	}
+
+	/**
+	 * Removes the oldest PING or ACTIVE message from all the mailboxes
+	 * Must be called with the lock held
+	 *
+	 * @return true if a message was removed ; false otherwise
+	 */
+	private boolean dropOldestDroppable() {
+
+		Mailbox oldestMailbox = null;
+		Envelope oldest = null, tmpEnvelope;
+
+		for (Mailbox mailbox : this.mailboxes.values()) {
+			// as mensagens de cada mailbox estao por ordem de chegada
+			for (Envelope envelope : mailbox.messages) {
+				if (isDroppable(envelope.type)) {
+					if ((oldest == null) || (envelope.arrival < oldest.arrival)) {
+						oldest = envelope;
+						oldestMailbox = mailbox;
+					}
+					break;
+				}
+			}
+		}
+
+		if (oldest == null) {
+			return false;
+		}
+
+		Iterator<Envelope> it = oldestMailbox.messages.iterator();
+		while (it.hasNext()) {
+			tmpEnvelope = it.next();
+			if (tmpEnvelope == oldest) {
+				it.remove();
+				break;
+			}
+		}
+
+		this.bufferPool.release(oldest.buffer);
+		this.queueSize--;
+		this.droppedMessages++;
+		System.out.println("[MessageDispatcher]:[dispatch] -> Fila cheia, descartada mensagem " + oldest.type + " mais antiga de " + oldestMailbox.peer);
+		this.recycle(oldest);
+
+		return true;
+	}
+
+	/**
+	 * Checks if the message can be dropped when the queue is full
+	 * PING and ACTIVE messages are periodically sent again so they can be lost
+	 *
+	 * @param type type of the message
+	 * @return true if can be dropped ; false otherwise
+	 */
+	private static boolean isDroppable(MessageType type) {
+		return type.equals(MessageType.PING) || type.equals(MessageType.ACTIVE);
+	}
+
+	/**
+	 * Checks if the message is an answer to a message waiting for acknowledge
+	 *
+	 * @param type type of the message
+	 * @return true if is an acknowledge ; false otherwise
+	 */
+	private static boolean isAcknowledge(MessageType type) {
+		return type.equals(MessageType.DUPLICATE) || type.equals(MessageType.PROVIDE_TITLES)
+				|| type.equals(MessageType.NEWS_ACK) || type.equals(MessageType.RANK_ACK);
+	}
+
+	/**
+	 * Messages received from a peer waiting to be processed
+	 */
+	private static class Mailbox {
+
+		/**
+		 * Identification of the peer; null while the mailbox is free
+		 */
+		IPStruct peer = null;
+		/**
+		 * Messages by order of arrival
+		 */
+		final ArrayDeque<Envelope> messages = new ArrayDeque<Envelope>();
+		/**
+		 * True while the mailbox is on the ready list or assigned to a worker
+		 */
+		boolean scheduled = false;
+	}
+
+	/**
+	 * Received message with its order of arrival to the dispatcher
+	 */
+	private static class Envelope {
+
+		ByteBuffer buffer;
+		MessageType type;
+		IPStruct source;
+		long arrival;
+
+		/**
+		 * Points the envelope to a received message
+		 *
+		 * @param buffer buffer with the received datagram
+		 * @param type type of the message
+		 * @param source sender of the message
+		 * @param arrival order of arrival
+		 */
+		void set(ByteBuffer buffer, MessageType type, IPStruct source, long arrival) {
+			this.buffer = buffer;
+			this.type = type;
+			this.source = source;
+			this.arrival = arrival;
+		}
+	}
+
+	/**
+	 * Task of the worker threads that takes a mailbox, processes its next message and gives it back
+	 *
+	 * @see ExecutionMode
+	 */
+	private class DispatchWorker implements Runnable {
+
+		private final HandleReceivedMessages handler;
+
+		/**
+		 * Initializes the worker with its own message handler
+		 *
+		 * @param handler handler of the messages processed by this worker
+		 */
+		DispatchWorker(HandleReceivedMessages handler) {
+			this.handler = handler;
+		}
+
+		@Override
+		public void run() {
+
+			Mailbox mailbox;
+			Envelope envelope;
+
+			while ((mailbox = take()) != null) {
+				if ((envelope = next(mailbox)) != null) {
+					try {
+						this.handler.process(envelope.buffer, envelope.type, envelope.source);
+					} catch (RuntimeException ex) {
+						// uma mensagem mal formada nao pode terminar o worker
+						Logger.getLogger(MessageDispatcher.class.getName()).log(Level.SEVERE, null, ex);
+					}
+				}
+				release(mailbox, envelope);
+			}
+		}
+	}
+}
@@ -0,0 +1,938 @@
+package inews.server;
+
+import inews.ExecutionMode;
+import inews.dataStructures.IPStruct;
+import inews.dataStructures.NewsStream;
+import inews.interfaces.INewsWindow;
+import inews.interfaces.NewsListener;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * TCP server that receives the news of all the NEWS requests on one port
+ * The connections are accepted and read on one selector thread, so the news of many users can be received at once
+ *
+ * Each transfer is matched to its request by the sequence number of the NEWS message, sent after the version of the
+ * binary stream; the text transfer of the old nodes doesn't have it and is matched to the oldest request to the address
+ * of the connection. The news are delivered to the listener of the request when their content arrives and the ones
+ * bigger than the system property inews.news.spillBytes are written to a temporary file while received
+ *
+ * The connections of the binary stream are kept open after each transfer, so the user can send other transfers on them
+ * The requests without connection and the connections without data for inews.news.timeout milliseconds are ended
+ *
+ * The listeners are called on one delivery thread, by the order of the news, so a slow listener doesn't stop the
+ * selector thread; the selector, the connections and the transfers are only used by the selector thread
+ * @author Luis Portela
+ * @see NewsStream
+ * @see NewsListener
+ */
+public class NewsReceiver implements Runnable {
+
+	/**
+	 * Default size of the news written to disk while received
+	 */
+	public static final int DEFAULT_SPILL_BYTES = 1024 * 1024;
+
+	/**
+	 * Default time to wait for the connection of a request or for the data of a connection, in milliseconds
+	 */
+	public static final long DEFAULT_TIMEOUT = 30000;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_INITIAL_ENTRIES = 1024;
+	private static final byte[] TRANSMISSION_OVER = "TRANSMISSION_OVER\n".getBytes();
+
+	private static NewsReceiver mySelf = null;
+
+	private final ServerSocketChannel serverChannel;
+	private final Selector selector;
+	private final int port;
+	private INewsWindow newsWindow = null;
+	private final int spillBytes = Integer.getInteger("inews.news.spillBytes", DEFAULT_SPILL_BYTES);
+	private final long timeout = Long.getLong("inews.news.timeout", DEFAULT_TIMEOUT);
+	// pedidos pela ordem em que foram feitos
+	private final LinkedHashMap<Integer, Request> requests = new LinkedHashMap<Integer, Request>();
+	private final ArrayList<Transfer> transfers = new ArrayList<Transfer>();
+	private final ThreadPoolExecutor delivery;
+
+	private volatile boolean running = false;
+
+	/**
+	 * Opens the server on the provided port or on other free port if it is in use
+	 * @param newsWindow instance of the news window
+	 * @param port port to create the TCP server
+	 * @throws IOException if the server can't be opened
+	 */
+	private NewsReceiver(INewsWindow newsWindow, int port) throws IOException {
+
+		this.newsWindow = newsWindow;
+		this.serverChannel = ServerSocketChannel.open();
+
+		try {
+			this.serverChannel.bind(new InetSocketAddress(port));
+		} catch (BindException ex) {
+			this.serverChannel.bind(new InetSocketAddress(0));
+		}
+
+		this.port = this.serverChannel.socket().getLocalPort();
+		this.serverChannel.configureBlocking(false);
+		this.selector = Selector.open();
+		this.serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+		this.delivery = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+
+			@Override
+			public Thread newThread(Runnable task) {
+				Thread thread = new Thread(task, "NewsDelivery");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+
+		this.logMessage("Constructor", "Servidor TCP a escuta na porta: " + this.port);
+	}
+
+	/**
+	 * Returns the instance of this class or creates and starts a new one if it doesn't exists
+	 * @param newsWindow instance of the news window
+	 * @param port port to create the TCP server
+	 * @return the receiver of the news
+	 * @throws IOException if the server can't be opened
+	 */
+	public static synchronized NewsReceiver getInstance(INewsWindow newsWindow, int port) throws IOException {
+
+		if (mySelf == null) {
+			mySelf = new NewsReceiver(newsWindow, port);
+			mySelf.running = true;
+			ExecutionMode.current().start("NewsReceiver", mySelf);
+		}
+
+		return mySelf;
+	}
+
+	/**
+	 * Returns the port of the TCP server, sent on the NEWS messages
+	 * @return port of the server
+	 */
+	public int getPort() {
+		return this.port;
+	}
+
+	/**
+	 * Registers a NEWS request whose transfer will be received
+	 * @param sequence sequence number of the NEWS message
+	 * @param source address of the user asked for the news
+	 * @param listener listener of the news of the transfer
+	 */
+	public void expect(int sequence, IPStruct source, NewsListener listener) {
+		synchronized (this.requests) {
+			this.requests.put(sequence, new Request(source.getIp(), listener));
+		}
+	}
+
+	/**
+	 * Removes a NEWS request that wasn't sent
+	 * @param sequence sequence number of the NEWS message
+	 */
+	public void cancel(int sequence) {
+		synchronized (this.requests) {
+			this.requests.remove(sequence);
+		}
+	}
+
+	/**
+	 * Removes a NEWS request answered in the NEWS_ACK, without a transfer
+	 * @param sequence sequence number of the NEWS message
+	 * @param source address of the NEWS_ACK
+	 * @return listener of the request or null if there is no request with the sequence number to the address
+	 * @see inews.dataStructures.MessageDataType#INLINE
+	 */
+	public NewsListener claim(int sequence, IPStruct source) {
+
+		Request request = this.takeRequest(sequence, source.getIp());
+
+		return request != null ? request.listener : null;
+	}
+
+	/**
+	 * Runs a task on the delivery thread, after the news already delivered to the listeners
+	 * @param task task calling a listener
+	 */
+	public void deliver(final Runnable task) {
+		try {
+			this.delivery.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						task.run();
+					} catch (RuntimeException ex) {
+						Logger.getLogger(NewsReceiver.class.getName()).log(Level.SEVERE, null, ex);
+					}
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			this.logMessage("deliver", "Receptor terminado, noticias descartadas");
+		}
+	}
+
+	/**
+	 * Accepts the connections and reads the transfers until the receiver is ended
+	 * A transfer that fails is closed without stopping the others; when the receiver is ended the transfers and the
+	 * requests are ended on this thread and the server is closed
+	 */
+	@Override
+	public void run() {
+
+		Iterator<SelectionKey> keys;
+		SelectionKey key;
+
+		try {
+			while (this.running) {
+
+				this.selector.select(1000);
+				keys = this.selector.selectedKeys().iterator();
+
+				while (keys.hasNext() && this.running) {
+					key = keys.next();
+					keys.remove();
+
+					if (!key.isValid()) {
+						continue;
+					}
+
+					if (key.isAcceptable()) {
+						this.accept();
+					}
+					else if (key.isReadable()) {
+						Transfer transfer = (Transfer) key.attachment();
+						try {
+							transfer.read();
+						} catch (RuntimeException ex) {
+							Logger.getLogger(NewsReceiver.class.getName()).log(Level.SEVERE, null, ex);
+							transfer.fail(new IOException("Erro ao ler a transferencia: " + ex));
+						}
+					}
+				}
+
+				this.expire();
+			}
+		} catch (IOException ex) {
+			Logger.getLogger(NewsReceiver.class.getName()).log(Level.SEVERE, null, ex);
+		} catch (ClosedSelectorException ex) {
+			this.logMessage("run()", "Receptor terminado!");
+		}
+
+		this.running = false;
+		this.shutdown();
+	}
+
+	/**
+	 * Accepts the waiting connections
+	 * A connection that can't be configured is closed and the others are still accepted
+	 */
+	private void accept() {
+
+		SocketChannel channel;
+
+		while (true) {
+			try {
+				if ((channel = this.serverChannel.accept()) == null) {
+					return;
+				}
+			} catch (IOException ex) {
+				Logger.getLogger(NewsReceiver.class.getName()).log(Level.SEVERE, null, ex);
+				return;
+			}
+
+			try {
+				this.logMessage("run()", "IP que se ligou: " + channel.socket().getInetAddress().getHostAddress());
+				channel.configureBlocking(false);
+				Transfer transfer = new Transfer(channel);
+				channel.register(this.selector, SelectionKey.OP_READ, transfer);
+				this.transfers.add(transfer);
+			} catch (IOException ex) {
+				Logger.getLogger(NewsReceiver.class.getName()).log(Level.SEVERE, null, ex);
+				try {
+					channel.close();
+				} catch (IOException closeEx) {
+					Logger.getLogger(NewsReceiver.class.getName()).log(Level.SEVERE, null, closeEx);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Ends the transfers and the requests, closes the server and stops the delivery thread after the news already queued
+	 * Only called by the selector thread when it stops
+	 */
+	private void shutdown() {
+
+		ArrayList<Request> pending;
+
+		for (Transfer transfer : new ArrayList<Transfer>(this.transfers)) {
+			transfer.fail(new IOException("Receptor terminado"));
+		}
+
+		synchronized (this.requests) {
+			pending = new ArrayList<Request>(this.requests.values());
+			this.requests.clear();
+		}
+
+		for (Request request : pending) {
+			this.ended(request.listener, false);
+		}
+
+		try {
+			this.selector.close();
+			this.serverChannel.close();
+		} catch (IOException ex) {
+			Logger.getLogger(NewsReceiver.class.getName()).log(Level.SEVERE, null, ex);
+		}
+
+		this.delivery.shutdown();
+	}
+
+	/**
+	 * Ends the requests without connection and the connections without data for more than the timeout
+	 */
+	private void expire() {
+
+		long now = System.currentTimeMillis();
+		ArrayList<Request> expired = new ArrayList<Request>();
+
+		synchronized (this.requests) {
+			Iterator<Request> it = this.requests.values().iterator();
+			while (it.hasNext()) {
+				Request request = it.next();
+				if ((now - request.created) > this.timeout) {
+					expired.add(request);
+					it.remove();
+				}
+			}
+		}
+
+		for (Request request : expired) {
+			this.logMessage("expire", "Nao foi recebida a ligacao do utilizador " + request.ip);
+			this.ended(request.listener, false);
+		}
+
+		for (Transfer transfer : new ArrayList<Transfer>(this.transfers)) {
+			if ((now - transfer.lastRead) > this.timeout) {
+				transfer.fail(new IOException("Sem dados durante " + this.timeout + " ms"));
+			}
+		}
+	}
+
+	/**
+	 * Ends the receiver, closing the server and the transfers
+	 * The selector thread is woken up and closes them, and the listeners of the requests are told that their transfers
+	 * weren't complete
+	 */
+	public void endReceiver() {
+
+		this.running = false;
+		this.selector.wakeup();
+
+		synchronized (NewsReceiver.class) {
+			mySelf = null;
+		}
+	}
+
+	/**
+	 * Removes the request of a transfer of the binary stream
+	 * The request is only removed when the connection comes from the address of the user asked for the news, so other
+	 * host can't take the transfer of a request guessing its sequence number
+	 * @param sequence sequence number sent by the user
+	 * @param ip address of the connection
+	 * @return the request or null if there is no request with the sequence number from the address
+	 */
+	private Request takeRequest(int sequence, String ip) {
+		synchronized (this.requests) {
+			Request request = this.requests.get(sequence);
+			if ((request == null) || (!request.ip.equals(ip))) {
+				return null;
+			}
+			return this.requests.remove(sequence);
+		}
+	}
+
+	/**
+	 * Removes the oldest request to an address, for the text transfer without sequence number
+	 * @param ip address of the connection
+	 * @return the request or null if there is no request to the address
+	 */
+	private Request takeRequest(String ip) {
+		synchronized (this.requests) {
+			Iterator<Request> it = this.requests.values().iterator();
+			while (it.hasNext()) {
+				Request request = it.next();
+				if (request.ip.equals(ip)) {
+					it.remove();
+					return request;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Tells a listener on the delivery thread that a transfer started
+	 * @param listener listener of the request
+	 * @param count number of news of the transfer or -1 if not known
+	 */
+	private void started(final NewsListener listener, final int count) {
+		this.deliver(new Runnable() {
+
+			@Override
+			public void run() {
+				listener.newsStarted(count);
+			}
+		});
+	}
+
+	/**
+	 * Delivers a news to a listener on the delivery thread
+	 * @param listener listener of the request
+	 * @param date date of the news or -1 if not known
+	 * @param title title of the news
+	 * @param content content of the news
+	 */
+	private void received(final NewsListener listener, final long date, final String title, final String content) {
+		this.deliver(new Runnable() {
+
+			@Override
+			public void run() {
+				listener.newsReceived(date, title, content);
+			}
+		});
+	}
+
+	/**
+	 * Delivers a news written to disk to a listener on the delivery thread and removes its file after it
+	 * @param listener listener of the request
+	 * @param date date of the news
+	 * @param title title of the news
+	 * @param content file with the content of the news
+	 */
+	private void received(final NewsListener listener, final long date, final String title, final File content) {
+		try {
+			this.delivery.execute(new Runnable() {
+
+				@Override
+				public void run() {
+					try {
+						listener.newsReceived(date, title, content);
+					} catch (RuntimeException ex) {
+						Logger.getLogger(NewsReceiver.class.getName()).log(Level.SEVERE, null, ex);
+					} finally {
+						content.delete();
+					}
+				}
+			});
+		} catch (RejectedExecutionException ex) {
+			content.delete();
+		}
+	}
+
+	/**
+	 * Tells a listener on the delivery thread that a transfer ended
+	 * @param listener listener of the request
+	 * @param complete true if all the news of the transfer were received
+	 */
+	private void ended(final NewsListener listener, final boolean complete) {
+		this.deliver(new Runnable() {
+
+			@Override
+			public void run() {
+				listener.newsEnded(complete);
+			}
+		});
+	}
+
+	/**
+	 * Prints the message to the system output and the news window log area
+	 * @param func function sending the message
+	 * @param message message to print
+	 * @see INewsWindow#appendTextToLogArea(java.lang.String)
+	 */
+	private void logMessage(String func, String message) {
+		this.newsWindow.appendTextToLogArea("[NewsReceiver]:[" + func + "] -> " + message);
+		System.out.println("[NewsReceiver]:[" + func + "] -> " + message);
+	}
+
+	/**
+	 * NEWS request waiting for its transfer
+	 */
+	private static final class Request {
+
+		private final String ip;
+		private final NewsListener listener;
+		private final long created = System.currentTimeMillis();
+
+		Request(String ip, NewsListener listener) {
+			this.ip = ip;
+			this.listener = listener;
+		}
+	}
+
+	/**
+	 * States of the reading of a transfer
+	 */
+	private enum State {
+		MAGIC, VERSION, COUNT, ENTRY, TITLE, CONTENT, TEXT, DONE
+	}
+
+	/**
+	 * Connection of a transfer, read as the data arrives
+	 * The binary stream is read by parts with the sizes of the manifest and the text transfer by lines
+	 */
+	private final class Transfer {
+
+		private final SocketChannel channel;
+		private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		private State state = State.MAGIC;
+		private NewsListener listener = null;
+		private long lastRead = System.currentTimeMillis();
+		private int completed = 0;
+
+		// manifesto e noticia a ser lida
+		private List<NewsStream.Entry> entries;
+		private int entryCount;
+		private int index = 0;
+		private long entryDate;
+		private int entryLength;
+		private int titleLength;
+		private byte[] content = null;
+		private int contentRead = 0;
+		private File spillFile = null;
+		private FileChannel spillChannel = null;
+
+		// transferencia de texto
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+		private final StringBuilder textNews = new StringBuilder();
+		private boolean countLine = true;
+
+		Transfer(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		/**
+		 * Reads the available data of the connection
+		 */
+		void read() {
+
+			int read;
+
+			try {
+				read = this.channel.read(this.buffer);
+				this.lastRead = System.currentTimeMillis();
+				this.buffer.flip();
+				this.parse();
+				this.buffer.compact();
+
+				if ((read == -1) && (this.state != State.DONE)) {
+					this.endOfStream();
+				}
+			} catch (IOException ex) {
+				this.fail(ex);
+			}
+		}
+
+		/**
+		 * Reads the data of the buffer while there is enough for the current state
+		 * @throws IOException if the data isn't valid
+		 */
+		private void parse() throws IOException {
+
+			boolean progress = true;
+
+			while (progress && (this.state != State.DONE)) {
+				switch (this.state) {
+					case MAGIC:
+						progress = this.readMagic();
+						break;
+					case VERSION:
+						if ((progress = this.buffer.remaining() >= 1 + 4)) {
+							int version = this.buffer.get() & 0xFF;
+							if (version != NewsStream.VERSION) {
+								throw new IOException("Versao da transferencia nao suportada: " + version);
+							}
+							int sequence = this.buffer.getInt();
+							String ip = this.channel.socket().getInetAddress().getHostAddress();
+							Request request = takeRequest(sequence, ip);
+							if (request == null) {
+								throw new IOException("Transferencia de " + ip + " sem pedido com o sequence number " + sequence);
+							}
+							this.listener = request.listener;
+							this.state = State.COUNT;
+						}
+						break;
+					case COUNT:
+						if ((progress = this.buffer.remaining() >= 4)) {
+							int count = this.buffer.getInt();
+							if (count < 0) {
+								throw new IOException("Numero de noticias invalido: " + count);
+							}
+							// a lista cresce com as noticias lidas, o numero anunciado nao reserva memoria
+							this.entryCount = count;
+							this.entries = new ArrayList<NewsStream.Entry>(Math.min(count, MAX_INITIAL_ENTRIES));
+							this.nextEntry();
+						}
+						break;
+					case ENTRY:
+						if ((progress = this.buffer.remaining() >= 8 + 4 + 4)) {
+							this.entryDate = this.buffer.getLong();
+							this.entryLength = this.buffer.getInt();
+							this.titleLength = this.buffer.getInt();
+							if ((this.entryLength < 0) || (this.titleLength < 0) || (this.titleLength > NewsStream.MAX_TITLE_BYTES)) {
+								throw new IOException("Cabecalho da noticia " + this.entryDate + " invalido");
+							}
+							this.state = State.TITLE;
+						}
+						break;
+					case TITLE:
+						if ((progress = this.buffer.remaining() >= this.titleLength)) {
+							byte[] title = new byte[this.titleLength];
+							this.buffer.get(title);
+							this.entries.add(new NewsStream.Entry(this.entryDate, NewsStream.decodeTitle(title), this.entryLength));
+							this.index++;
+							this.nextEntry();
+						}
+						break;
+					case CONTENT:
+						progress = this.readContent();
+						break;
+					case TEXT:
+						progress = this.readText();
+						break;
+					default:
+						progress = false;
+				}
+			}
+		}
+
+		/**
+		 * Checks the first bytes of the connection for the magic bytes of the binary stream
+		 * Other bytes start a text transfer, matched to the oldest request to the address of the connection
+		 * @return true if the state changed ; false if more data is needed
+		 * @throws IOException if there is no request for the text transfer
+		 */
+		private boolean readMagic() throws IOException {
+
+			int available = Math.min(this.buffer.remaining(), NewsStream.MAGIC.length);
+
+			for (int i = 0; i < available; i++) {
+				if (this.buffer.get(this.buffer.position() + i) != NewsStream.MAGIC[i]) {
+					String ip = this.channel.socket().getInetAddress().getHostAddress();
+					Request request = takeRequest(ip);
+					if (request == null) {
+						throw new IOException("Transferencia de texto sem pedido para " + ip);
+					}
+					this.listener = request.listener;
+					started(this.listener, -1);
+					this.state = State.TEXT;
+					return true;
+				}
+			}
+
+			if (available < NewsStream.MAGIC.length) {
+				return false;
+			}
+
+			this.buffer.position(this.buffer.position() + NewsStream.MAGIC.length);
+			this.state = State.VERSION;
+			return true;
+		}
+
+		/**
+		 * Moves to the next entry of the manifest or to the contents when all the entries were read
+		 * @throws IOException if the spill file can't be created
+		 */
+		private void nextEntry() throws IOException {
+
+			if (this.index < this.entryCount) {
+				this.state = State.ENTRY;
+				return;
+			}
+
+			started(this.listener, this.entryCount);
+			this.index = 0;
+			this.nextContent();
+		}
+
+		/**
+		 * Prepares the reading of the next content or ends the transfer after the last one
+		 * @throws IOException if the spill file can't be created
+		 */
+		private void nextContent() throws IOException {
+
+			NewsStream.Entry entry;
+
+			if (this.index >= this.entryCount) {
+				this.complete();
+				return;
+			}
+
+			entry = this.entries.get(this.index);
+			this.contentRead = 0;
+
+			if (entry.getLength() > spillBytes) {
+				this.spillFile = File.createTempFile("inews-" + entry.getDate() + "-", ".news");
+				this.spillChannel = new FileOutputStream(this.spillFile).getChannel();
+				this.content = null;
+			}
+			else {
+				this.content = new byte[entry.getLength()];
+			}
+
+			this.state = State.CONTENT;
+		}
+
+		/**
+		 * Copies the available data of the current content to memory or to the spill file
+		 * @return true if the content was complete ; false if more data is needed
+		 * @throws IOException if the spill file can't be written
+		 */
+		private boolean readContent() throws IOException {
+
+			NewsStream.Entry entry = this.entries.get(this.index);
+			int count = Math.min(this.buffer.remaining(), entry.getLength() - this.contentRead);
+
+			if (this.spillChannel != null) {
+				ByteBuffer part = this.buffer.duplicate();
+				part.limit(part.position() + count);
+				while (part.hasRemaining()) {
+					this.spillChannel.write(part);
+				}
+				this.buffer.position(this.buffer.position() + count);
+			}
+			else {
+				this.buffer.get(this.content, this.contentRead, count);
+			}
+			this.contentRead += count;
+
+			if (this.contentRead < entry.getLength()) {
+				return false;
+			}
+
+			if (this.spillChannel != null) {
+				this.spillChannel.close();
+				this.spillChannel = null;
+				logMessage("readContent", "Noticia " + entry.getDate() + " com " + entry.getLength() + " bytes escrita em disco");
+				// o ficheiro e removido pela thread de entrega depois de entregue
+				received(this.listener, entry.getDate(), entry.getTitle(), this.spillFile);
+				this.spillFile = null;
+			}
+			// como na transferencia de texto o conteudo termina sempre com '\n'
+			else if ((this.content.length == 0) || (this.content[this.content.length - 1] != '\n')) {
+				received(this.listener, entry.getDate(), entry.getTitle(), new String(this.content) + '\n');
+			}
+			else {
+				received(this.listener, entry.getDate(), entry.getTitle(), new String(this.content));
+			}
+
+			this.content = null;
+			this.index++;
+			this.nextContent();
+			return true;
+		}
+
+		/**
+		 * Reads the complete lines of the text transfer
+		 * The first line is the number of lines of the transfer and the news are separated by '\0' at the start of a line
+		 * @return true if the transfer ended ; false if more data is needed
+		 * @throws IOException if the confirmation can't be sent
+		 */
+		private boolean readText() throws IOException {
+
+			String text;
+			byte read;
+
+			while (this.buffer.hasRemaining()) {
+				read = this.buffer.get();
+				if (read != '\n') {
+					this.line.write(read);
+					continue;
+				}
+
+				text = this.line.toString();
+				this.line.reset();
+				if (text.endsWith("\r")) {
+					text = text.substring(0, text.length() - 1);
+				}
+
+				if (this.countLine) {
+					this.countLine = false;
+				}
+				else if (text.equals("TRANSMISSION_OVER")) {
+					this.deliverText();
+					this.complete();
+					return true;
+				}
+				else {
+					if (text.startsWith("\0")) {
+						this.deliverText();
+						text = text.substring(1);
+					}
+					this.textNews.append(text).append('\n');
+				}
+			}
+
+			return false;
+		}
+
+		/**
+		 * Delivers the news of the text transfer read until now
+		 * The date is read from the first line of the news if it was requested
+		 */
+		private void deliverText() {
+
+			String news = this.textNews.toString();
+			long date = -1;
+			int lineEnd;
+
+			this.textNews.setLength(0);
+
+			if (news.trim().isEmpty()) {
+				return;
+			}
+
+			if (news.startsWith("DATE: ") && ((lineEnd = news.indexOf('\n')) != -1)) {
+				try {
+					date = Long.parseLong(news.substring(6, lineEnd));
+				} catch (NumberFormatException ex) {
+					date = -1;
+				}
+				news = news.substring(lineEnd + 1);
+			}
+
+			lineEnd = news.indexOf('\n');
+			received(this.listener, date, lineEnd != -1 ? news.substring(0, lineEnd) : news, news);
+		}
+
+		/**
+		 * Ends the transfer when the connection is closed by the user
+		 * The text transfer ends with the connection; the binary stream is not complete unless the connection was kept
+		 * open after a transfer
+		 */
+		private void endOfStream() {
+
+			if (this.state == State.TEXT) {
+				if (this.line.size() > 0) {
+					this.textNews.append(this.line.toString()).append('\n');
+				}
+				this.deliverText();
+				this.close();
+				ended(this.listener, true);
+				return;
+			}
+
+			if ((this.state == State.MAGIC) && (this.completed > 0) && (this.buffer.position() == 0)) {
+				logMessage("endOfStream", "Ligacao fechada pelo utilizador");
+				this.close();
+				this.state = State.DONE;
+				return;
+			}
+
+			this.fail(new IOException("A ligacao foi fechada antes do fim da transferencia"));
+		}
+
+		/**
+		 * Confirms the transfer and tells the listener
+		 * The connection of the binary stream is kept open for the next transfer of the user; the one of the text
+		 * transfer is closed
+		 * @throws IOException if the confirmation can't be sent
+		 */
+		private void complete() throws IOException {
+
+			ByteBuffer reply = ByteBuffer.wrap(TRANSMISSION_OVER);
+			NewsListener completed = this.listener;
+			boolean keepOpen = this.state != State.TEXT;
+
+			this.state = keepOpen ? State.MAGIC : State.DONE;
+			this.listener = null;
+			this.entries = null;
+			this.index = 0;
+			this.completed++;
+
+			try {
+				while (reply.hasRemaining()) {
+					this.channel.write(reply);
+				}
+			} finally {
+				if (!keepOpen) {
+					this.close();
+				}
+				logMessage("complete", "Fim da comunicacao");
+				ended(completed, true);
+			}
+		}
+
+		/**
+		 * Ends a transfer that failed
+		 * @param ex cause of the failure
+		 */
+		void fail(IOException ex) {
+
+			// uma ligacao mantida entre transferencias pode ser fechada sem perder noticias
+			if ((this.state == State.MAGIC) && (this.completed > 0)) {
+				logMessage("fail", "Ligacao inativa fechada: " + ex);
+			}
+			else {
+				logMessage("fail", "Transferencia incompleta: " + ex);
+			}
+
+			this.close();
+
+			if (this.spillChannel != null) {
+				try {
+					this.spillChannel.close();
+				} catch (IOException closeEx) {
+					Logger.getLogger(NewsReceiver.class.getName()).log(Level.SEVERE, null, closeEx);
+				}
+				this.spillChannel = null;
+			}
+			if (this.spillFile != null) {
+				this.spillFile.delete();
+				this.spillFile = null;
+			}
+
+			if ((this.listener != null) && (this.state != State.DONE)) {
+				this.state = State.DONE;
+				ended(this.listener, false);
+			}
+			this.state = State.DONE;
+		}
+
+		/**
+		 * Closes the connection and removes the transfer
+		 */
+		private void close() {
+
+			transfers.remove(this);
+
+			try {
+				this.channel.close();
+			} catch (IOException ex) {
+				Logger.getLogger(NewsReceiver.class.getName()).log(Level.SEVERE, null, ex);
+			}
+		}
+	}
+}
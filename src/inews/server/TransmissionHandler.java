@@ -1,32 +1,70 @@
 package inews.server;
 
+import inews.ExecutionMode;
 import inews.dataStructures.*;
 import inews.interfaces.INewsWindow;
 import inews.interfaces.NewsWindowClient;
 import inews.interfaces.UDPConnection;
 import java.io.IOException;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.SocketException;
-import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.net.InetSocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Class that listen the network and sends message
+ * The datagrams are received by a non blocking channel into a pool of direct buffers
+ * The messages waiting for acknowledge are removed when completed and a periodic sweep expires the ones that passed their deadline
+ * Each peer receives the messages in the encoding it announced on its last message, and the peers that don't announce it are
+ * the old nodes that only get the fields of the first version
+ * The address of each sender is kept, so the datagrams of a known peer are dispatched without creating objects
  *
+ * @see PacketCodec
+ * @see DatagramBufferPool
  * @author Luis Portela
  */
 public class TransmissionHandler extends Thread implements UDPConnection {
 
+	/**
+	 * Default time between the sweeps of the acknowledge list in milliseconds
+	 */
+	public static final long DEFAULT_ACK_SWEEP_PERIOD = 5000;
+	/**
+	 * Maximum number of senders whose address is kept
+	 */
+	public static final int SENDERS_CACHE_SIZE = 1024;
+
+	// os logs de cada pacote e de cada ack so com a propriedade inews.log.verbose, como no HandleReceivedMessages
+	private static final boolean verbose = Boolean.getBoolean("inews.log.verbose");
+
 	private static TransmissionHandler mySelf = null;
-	private boolean running = true;
-	private DatagramSocket socket = null;
+	private volatile boolean running = true;
+	private DatagramChannel channel = null;
+	private Selector selector = null;
+	private DatagramBufferPool bufferPool = null;
 	private INewsWindow newsWindow = null;
 	private NewsWindowClient clientNews = null;
 	private UserStruct me = null;
-	private NavigableMap<Integer, AckMessage> waitingList = null;
+	private AckTable waitingList = null;
+	private MessageDispatcher dispatcher = null;
+	private ScheduledThreadPoolExecutor retransmitScheduler = null;
+	private ConcurrentHashMap<String, RttEstimator> peersRtt = null;
+	private ConcurrentHashMap<String, Integer> peersVersion = null;
+	private LinkedHashMap<InetSocketAddress, Sender> senders = null;
 
 	/**
 	 * Initializes the class with the provided information
@@ -40,13 +78,52 @@ public class TransmissionHandler extends Thread implements UDPConnection {
 	 */
 	private TransmissionHandler(UserStruct myID, INewsWindow newsWindow, NewsWindowClient clientNews) {
 		try {
-			this.socket = new DatagramSocket(myID.getIp().getPort());
+			this.channel = DatagramChannel.open(StandardProtocolFamily.INET);
+			// o DatagramSocket permitia broadcast por omissao mas o DatagramChannel nao
+			this.channel.setOption(StandardSocketOptions.SO_BROADCAST, true);
+			this.channel.bind(new InetSocketAddress(myID.getIp().getPort()));
+			this.channel.configureBlocking(false);
+			this.selector = Selector.open();
+			this.channel.register(this.selector, SelectionKey.OP_READ);
+
 			this.me = myID;
 			this.newsWindow = (INewsWindow) newsWindow;
 			this.clientNews = (NewsWindowClient) clientNews;
-			this.waitingList = new TreeMap<Integer, AckMessage>();
+			this.waitingList = new AckTable();
+			this.bufferPool = new DatagramBufferPool(Integer.getInteger("inews.dispatch.queue", MessageDispatcher.DEFAULT_QUEUE_LIMIT), Packet.MAX_DATAGRAM_SIZE);
+			this.dispatcher = new MessageDispatcher(Integer.getInteger("inews.dispatch.workers", MessageDispatcher.getDefaultWorkers(ExecutionMode.current())),
+					Integer.getInteger("inews.dispatch.queue", MessageDispatcher.DEFAULT_QUEUE_LIMIT), ExecutionMode.current(), this.bufferPool,
+					new Supplier<HandleReceivedMessages>() {
+
+						@Override
+						public HandleReceivedMessages get() {
+							return new HandleReceivedMessages(TransmissionHandler.this.me, TransmissionHandler.this, TransmissionHandler.this.bufferPool,
+									(INewsWindow) TransmissionHandler.this.newsWindow, (NewsWindowClient) TransmissionHandler.this.clientNews);
+						}
+					});
+			// uma unica thread agenda todas as retransmissoes em vez de uma thread por mensagem
+			this.retransmitScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+
+				@Override
+				public Thread newThread(Runnable task) {
+					Thread thread = new Thread(task, "RetransmissionScheduler");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			this.retransmitScheduler.setRemoveOnCancelPolicy(true);
+			this.peersRtt = new ConcurrentHashMap<String, RttEstimator>();
+			this.peersVersion = new ConcurrentHashMap<String, Integer>();
+			// so e usado pela thread de rececao; os mais antigos saem quando passa o limite
+			this.senders = new LinkedHashMap<InetSocketAddress, Sender>(16, 0.75f, true) {
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<InetSocketAddress, Sender> eldest) {
+					return this.size() > SENDERS_CACHE_SIZE;
+				}
+			};
 
-		} catch (SocketException ex) {
+		} catch (IOException ex) {
 			Logger.getLogger(TransmissionHandler.class.getName()).log(Level.SEVERE, null, ex);
 		}
 	}
@@ -71,9 +148,11 @@ public class TransmissionHandler extends Thread implements UDPConnection {
 	}
 
 	/**
-	 * List the network for messages and create a new thread to process it If is a BYE message from the local user it exits
+	 * List the network for messages and dispatch them to be processed If is a BYE message from the local user it exits
+	 * On each wake up all the datagrams ready on the channel are received
 	 *
 	 * @see HandleReceivedMessages
+	 * @see MessageDispatcher
 	 */
 	@Override
 	public void run() {
@@ -81,78 +160,144 @@ public class TransmissionHandler extends Thread implements UDPConnection {
 			try {
 
 				System.out.println("[UDPServerNews]:[run()] -> Iniciei Server");
+				this.dispatcher.start();
+				this.startAckSweep();
 
 				while (running) {
 
-					byte buf[] = new byte[1024];
-					DatagramPacket receivePacket = new DatagramPacket(buf, buf.length);
-
-					System.out.println("[UDPServerNews]:[run()] -> Em espera de pacotes");
+					if (verbose) {
+						System.out.println("[UDPServerNews]:[run()] -> Em espera de pacotes");
+					}
 
 					// A espera da rede
-					this.socket.receive(receivePacket);
-					System.out.println("[UDPServerNews]:[run()] ->  -> Recebido pacote de: " + receivePacket.getAddress().getHostAddress());
-					if ((!receivePacket.getAddress().getHostAddress().equalsIgnoreCase(this.me.getIp().getIp()))
-							&& (!receivePacket.getAddress().getHostAddress().equalsIgnoreCase("127.0.0.1")) && this.isRunning()) {
-						HandleReceivedMessages handleNews = new HandleReceivedMessages(this.me, this, receivePacket, (INewsWindow) this.newsWindow,
-								(NewsWindowClient) this.clientNews);
-						handleNews.start();
-					} else {
-						Packet tmp = new Packet(receivePacket.getData(), receivePacket.getLength(), new IPStruct(receivePacket.getAddress().getHostAddress(), receivePacket.getPort()));
-						if (tmp.getType().equals(MessageType.BYE)) {
-							this.setRunning(false);
-						}
-					}
+					this.selector.select();
+					this.selector.selectedKeys().clear();
 
-					// Permite que a Thread que vai tratar da mensagem recebida ganhe processador
-					Thread.sleep(10);
+					while (running && this.receiveDatagram());
 				}
 			} catch (IOException ex) {
 				Logger.getLogger(TransmissionHandler.class.getName()).log(Level.SEVERE, null, ex);
 			}
+			this.dispatcher.shutdown();
+			this.retransmitScheduler.shutdown();
+			this.channel.close();
+			this.selector.close();
 			System.out.println("[UDPServerNews] -> Sai Server");
-			//this.serverSocket.close();
 			this.finalize();
 		} catch (Throwable ex) {
 			Logger.getLogger(TransmissionHandler.class.getName()).log(Level.SEVERE, null, ex);
 		}
 	}
 
+	/**
+	 * Receives one datagram from the channel and dispatch it to be processed
+	 *
+	 * @return true if a datagram was received ; false if there are no more datagrams ready
+	 * @throws IOException
+	 */
+	private boolean receiveDatagram() throws IOException {
+
+		ByteBuffer buf = this.bufferPool.acquire();
+		InetSocketAddress sender = (InetSocketAddress) this.channel.receive(buf);
+
+		if (sender == null) {
+			this.bufferPool.release(buf);
+			return false;
+		}
+
+		buf.flip();
+
+		Sender peer = this.getSender(sender);
+		MessageType type = Packet.peekType(buf);
+
+		if (verbose) {
+			System.out.println("[UDPServerNews]:[run()] ->  -> Recebido pacote de: " + peer.ip);
+		}
+
+		if (type == null) {
+			System.out.println("[UDPServerNews]:[run()] -> Pacote invalido descartado");
+			this.bufferPool.release(buf);
+		} else if ((!peer.local) && this.isRunning()) {
+			// um peer que volte a uma versao antiga deixa de anunciar o binario e volta ao texto
+			this.peersVersion.put(peer.ip, PacketCodec.peekPeerVersion(buf));
+			this.dispatcher.dispatch(buf, type, peer.source);
+		} else {
+			if (type.equals(MessageType.BYE)) {
+				this.setRunning(false);
+			}
+			this.bufferPool.release(buf);
+		}
+
+		return true;
+	}
+
+	/**
+	 * Returns the sender of a datagram, created on the first datagram received from its address
+	 * The channel returns the same address object while the datagrams come from the same sender, so the lookup doesn't create objects
+	 *
+	 * @param address address of the sender
+	 * @return the sender with the same IPStruct for all its datagrams
+	 */
+	private Sender getSender(InetSocketAddress address) {
+
+		Sender sender = this.senders.get(address);
+
+		if (sender == null) {
+			String ip = address.getAddress().getHostAddress();
+			sender = new Sender(new IPStruct(ip, address.getPort()), ip,
+					ip.equalsIgnoreCase(this.me.getIp().getIp()) || ip.equalsIgnoreCase("127.0.0.1"));
+			this.senders.put(address, sender);
+		}
+
+		return sender;
+	}
+
 	/**
 	 * Sends packets to the network
+	 * The packet is encoded in binary if the destination announced it; otherwise in text (broadcast and unknown peers)
 	 *
 	 * @param sendPacket packet to send
 	 * @see Packet
+	 * @see PacketCodec
 	 */
 	@Override
 	public void send(Packet sendPacket) {
 
 		try {
-			socket.send(sendPacket.buildDatagramPacket());
-
+			IPStruct destination = sendPacket.getPacketIP();
+			Integer version = this.peersVersion.get(destination.getIp());
+			PacketCodec codec = PacketCodec.forVersion(version != null ? version : PacketCodec.OLD_VERSION);
 
+			if (this.channel.send(ByteBuffer.wrap(codec.encode(sendPacket)), new InetSocketAddress(destination.getIp(), destination.getPort())) == 0) {
+				System.out.println("[UDPServerNews]:[send] -> Buffer do socket cheio, pacote " + sendPacket.getType() + " perdido");
+			}
 		} catch (IOException ex) {
 			Logger.getLogger(TransmissionHandler.class.getName()).log(Level.SEVERE, null, ex);
 		}
 	}
 
 	/**
-	 * Add to the acknowledge message list the received message and creates a thread to process it
+	 * Add to the acknowledge message list the received message and schedules its transmission
+	 * The retransmissions are made by the retransmission scheduler without a thread for each message
 	 *
 	 * @param sendPacket message to be sent and wait for acknowledge or to be retransmited
 	 * @param retries number of times that the message should be send if not ack is received
-	 * @param timeout time between retries
+	 * @param timeout default time between retries, used while there is no round trip time measured to the destination
 	 * @see Packet
+	 * @see Retransmission
+	 * @see TransmissionHandler#getRetransmissionTimeout(inews.dataStructures.AckMessage)
 	 */
 	@Override
-	public synchronized void sendWithAck(Packet sendPacket, int retries, int timeout) {
+	public void sendWithAck(Packet sendPacket, int retries, int timeout) {
 
 		System.out.println("[UDPServerNews]:[sendWithAck] -> Numero de tentativas: " + retries + " timeout: " + timeout);
 
 		AckMessage ackMsg = new AckMessage(sendPacket.getSequence(), retries, timeout, sendPacket);
 		this.waitingList.put(sendPacket.getSequence(), ackMsg);
-		AckHandler ackMsgHandle = new AckHandler(ackMsg);
-		ackMsgHandle.start();
+
+		synchronized (ackMsg) {
+			ackMsg.setTimer(this.schedule(new Retransmission(ackMsg), 0));
+		}
 	}
 
 	/**
@@ -173,7 +318,6 @@ public class TransmissionHandler extends Thread implements UDPConnection {
 					this.setRunning(false);
 					this.newsWindow.failedLogin();
 				}
-				this.removeAck(ackMessage.getSequenceNumber());
 				break;
 			}
 
@@ -184,8 +328,6 @@ public class TransmissionHandler extends Thread implements UDPConnection {
 					this.newsWindow.refreshUsersList();
 				}
 
-				this.removeAck(ackMessage.getSequenceNumber());
-
 				break;
 			}
 
@@ -194,7 +336,13 @@ public class TransmissionHandler extends Thread implements UDPConnection {
 					this.newsWindow.appendCommandResultToOutputArea("news", "Nao foi obtida resposta!");
 				}
 
-				this.removeAck(ackMessage.getSequenceNumber());
+				break;
+			}
+
+			case TITLES: {
+				if (!ackMessage.isAckReceived()) {
+					this.newsWindow.appendCommandResultToOutputArea("titles", "Nao foi obtida resposta!");
+				}
 
 				break;
 			}
@@ -203,9 +351,68 @@ public class TransmissionHandler extends Thread implements UDPConnection {
 				if (!ackMessage.isAckReceived()) {
 					this.clientNews.processRankForUser(ackMessage.getSendPacket().getDataList().getFirst().getValue(), 0, false);
 				}
-				
-				this.removeAck(ackMessage.getSequenceNumber());
+
+				break;
+			}
+		}
+
+		// qualquer mensagem terminada sai da lista, seja qual for o tipo
+		this.removeAck(ackMessage.getSequenceNumber());
+	}
+
+	/**
+	 * Starts the periodic sweep of the acknowledge list on the retransmission scheduler
+	 * The period is defined by the system property inews.ack.sweep
+	 *
+	 * @see TransmissionHandler#sweepAcks()
+	 */
+	private void startAckSweep() {
+
+		long period = Long.getLong("inews.ack.sweep", DEFAULT_ACK_SWEEP_PERIOD);
+
+		this.retransmitScheduler.scheduleWithFixedDelay(new Runnable() {
+
+			@Override
+			public void run() {
+				sweepAcks();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Expires the messages waiting for acknowledge that passed their deadline
+	 * A message whose retransmission was lost is completed as if it had no answer; a message already completed is only removed
+	 *
+	 * @see AckMessage#isExpired(long)
+	 */
+	private void sweepAcks() {
+
+		long now = System.currentTimeMillis();
+		int expired = 0;
+
+		try {
+			for (AckMessage ackMessage : this.waitingList.values()) {
+				if (ackMessage.isExpired(now)) {
+					ackMessage.cancelTimer();
+					if (ackMessage.complete()) {
+						readAckPacket(ackMessage);
+					} else {
+						this.removeAck(ackMessage.getSequenceNumber());
+					}
+					expired++;
+				}
 			}
+		} catch (RuntimeException ex) {
+			// uma excepcao terminaria o agendamento periodico
+			Logger.getLogger(TransmissionHandler.class.getName()).log(Level.SEVERE, null, ex);
+		}
+
+		if (expired > 0) {
+			System.out.println("[UDPServerNews]:[sweepAcks] -> Expiradas " + expired + " mensagens sem resposta");
+		}
+
+		if (this.getPendingAcks() > 0) {
+			System.out.println("[UDPServerNews]:[sweepAcks] -> Mensagens a espera de ack: " + this.getPendingAcks() + " - mais antiga: " + this.getOldestAckAge() + "ms");
 		}
 	}
 
@@ -227,6 +434,10 @@ public class TransmissionHandler extends Thread implements UDPConnection {
 	@Override
 	public void setRunning(boolean running) {
 		this.running = running;
+		// acorda o selector para o ciclo de rececao terminar
+		if ((!running) && (this.selector != null)) {
+			this.selector.wakeup();
+		}
 	}
 
 	// Metodos para operar a lista de mensagens com acknowledge
@@ -238,22 +449,27 @@ public class TransmissionHandler extends Thread implements UDPConnection {
 	 * @see AckMessage
 	 */
 	@Override
-	synchronized public AckMessage getAck(int sequence) {
+	public AckMessage getAck(int sequence) {
 		return this.waitingList.get(sequence);
 	}
 
 	/**
 	 * Sets the message on the messages list with the provided sequence number as received
+	 * The pending retransmission is cancelled and the message is processed right away
 	 *
 	 * @param sequence sequence number of the message to mark as received
 	 */
 	@Override
-	synchronized public void receivedAck(int sequence) {
+	public void receivedAck(int sequence) {
 
 		AckMessage tmpAckMessage;
 
-		if ((tmpAckMessage = this.getAck(sequence)) != null) {
-			tmpAckMessage.ackReceived();
+		if (((tmpAckMessage = this.getAck(sequence)) != null) && tmpAckMessage.ackReceived()) {
+			this.addRttSample(tmpAckMessage);
+			// se a retransmissao ja estiver a correr vai ver o ack e terminar sozinha
+			if (tmpAckMessage.cancelTimer()) {
+				this.schedule(new Retransmission(tmpAckMessage), 0);
+			}
 		}
 	}
 
@@ -263,50 +479,226 @@ public class TransmissionHandler extends Thread implements UDPConnection {
 	 * @param sequence sequence number da mensagem a retirar da lista
 	 */
 	@Override
-	synchronized public void removeAck(int sequence) {
+	public void removeAck(int sequence) {
 		this.waitingList.remove(sequence);
+	}
 
+	/**
+	 * Returns the number of messages waiting for acknowledge
+	 *
+	 * @return number of messages on the acknowledge list
+	 */
+	@Override
+	public int getPendingAcks() {
+		return this.waitingList.size();
+	}
+
+	/**
+	 * Returns the time the oldest message on the acknowledge list is waiting
+	 *
+	 * @return age of the oldest message in milliseconds or 0 if the list is empty
+	 */
+	@Override
+	public long getOldestAckAge() {
+
+		long now = System.currentTimeMillis();
+		long oldest = now;
+
+		for (AckMessage ackMessage : this.waitingList.values()) {
+			oldest = Math.min(oldest, ackMessage.getCreationTime());
+		}
+
+		return now - oldest;
+	}
+
+	/**
+	 * Adds the round trip time of an acknowledged message to the estimator of its destination
+	 * Only unicast requests answered by the destination are measured and retransmited messages are ignored (Karn's rule)
+	 *
+	 * @param ackMessage acknowledged message
+	 * @see RttEstimator
+	 */
+	private void addRttSample(AckMessage ackMessage) {
+
+		long rtt = ackMessage.getRoundTripSample();
+		Packet sendPacket = ackMessage.getSendPacket();
+		RttEstimator estimator;
+
+		// o SENSE e enviado para o broadcast e a resposta nao vem do destino
+		if ((rtt < 0) || sendPacket.getType().equals(MessageType.SENSE)) {
+			return;
+		}
+
+		if ((estimator = this.peersRtt.get(sendPacket.getPacketIP().getIp())) == null) {
+			this.peersRtt.putIfAbsent(sendPacket.getPacketIP().getIp(), new RttEstimator());
+			estimator = this.peersRtt.get(sendPacket.getPacketIP().getIp());
+		}
 
+		estimator.addSample(rtt);
+		if (verbose) {
+			System.out.println("[UDPServerNews]:[receivedAck] -> RTT " + sendPacket.getPacketIP().getIp() + ": " + rtt + "ms - " + estimator);
+		}
 	}
 
-	// Thread responsavel por tratar das mensagens de acknowledge
 	/**
-	 * Class to process the message it acknowledge
+	 * Returns the time to wait before retransmiting the message
+	 * If there are round trip times measured to the destination the timeout is calculated from them and doubles on each retransmission;
+	 * otherwise the default timeout of the message is used
+	 *
+	 * @param ackMessage message waiting for acknowledge
+	 * @return time to wait in milliseconds
+	 * @see RttEstimator
+	 */
+	private long getRetransmissionTimeout(AckMessage ackMessage) {
+
+		RttEstimator estimator = this.peersRtt.get(ackMessage.getSendPacket().getPacketIP().getIp());
+
+		if ((estimator == null) || (!estimator.hasSamples()) || ackMessage.getSendPacket().getType().equals(MessageType.SENSE)) {
+			return ackMessage.getTimeout();
+		}
+
+		// backoff exponencial como no TCP
+		long timeout = estimator.getTimeout() << Math.min(ackMessage.getTransmissions() - 1, 6);
+
+		return Math.min(timeout, RttEstimator.MAX_TIMEOUT);
+	}
+
+	/**
+	 * Checks if the peer understands the fields added after the first version of the protocol
+	 * The peers that announce their version on the messages ignore the fields they don't know; the old nodes fail on them
+	 *
+	 * @param peer address of the peer
+	 * @return true if the peer announced its version on its last message ; false if it is an old node or never sent a message
+	 * @see PacketCodec#peekPeerVersion(java.nio.ByteBuffer)
+	 */
+	@Override
+	public boolean supportsExtensions(IPStruct peer) {
+
+		Integer version = this.peersVersion.get(peer.getIp());
+
+		return (version != null) && (version != PacketCodec.OLD_VERSION);
+	}
+
+	/**
+	 * Returns the time a message sent with acknowledge to the destination waits for the answer before giving up
+	 * It is the sum of the timeouts of all the transmissions, calculated like the retransmissions of the message
+	 *
+	 * @param destination destination of the message
+	 * @param retries number of transmissions of the message
+	 * @param timeout default time between retries, used while there is no round trip time measured to the destination
+	 * @return time to wait in milliseconds
+	 * @see TransmissionHandler#getRetransmissionTimeout(inews.dataStructures.AckMessage)
+	 */
+	@Override
+	public long getAckTimeout(IPStruct destination, int retries, int timeout) {
+
+		RttEstimator estimator = this.peersRtt.get(destination.getIp());
+		long total = 0;
+
+		if ((estimator == null) || (!estimator.hasSamples())) {
+			return (long) retries * timeout;
+		}
+
+		for (int i = 0; i < retries; i++) {
+			total += Math.min(estimator.getTimeout() << Math.min(i, 6), RttEstimator.MAX_TIMEOUT);
+		}
+
+		return total;
+	}
+
+	/**
+	 * Schedules a task on the retransmission scheduler
+	 * The tasks must be short because all of them run on the same thread
+	 *
+	 * @param task task to run
+	 * @param delay time to wait before running the task in milliseconds
+	 * @return the scheduled task or null if the scheduler is already stopped
+	 */
+	@Override
+	public ScheduledFuture<?> schedule(Runnable task, long delay) {
+		try {
+			return this.retransmitScheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException ex) {
+			System.out.println("[UDPServerNews]:[schedule] -> Scheduler terminado, tarefa ignorada");
+			return null;
+		}
+	}
+
+	/**
+	 * Address of a peer that sent datagrams
+	 */
+	private static class Sender {
+
+		/**
+		 * IP and port of the peer, given to the processing of all its messages
+		 */
+		final IPStruct source;
+		/**
+		 * IP of the peer without the port
+		 */
+		final String ip;
+		/**
+		 * True if the datagrams are sent by the local user
+		 */
+		final boolean local;
+
+		/**
+		 * Initializes the sender with the provided values
+		 *
+		 * @param source IP and port of the peer
+		 * @param ip IP of the peer without the port
+		 * @param local true if the datagrams are sent by the local user
+		 */
+		Sender(IPStruct source, String ip, boolean local) {
+			this.source = source;
+			this.ip = ip;
+			this.local = local;
+		}
+	}
+
+	// Tarefa responsavel por retransmitir as mensagens com acknowledge
+	/**
+	 * Task that sends a message waiting for acknowledge and schedules itself again until the acknowledge is received or there are no more retries
+	 * All the retransmissions run on the same scheduler thread
 	 *
 	 * @see AckMessage
-	 * @see Thread
+	 * @see ScheduledThreadPoolExecutor
 	 */
-	private class AckHandler extends Thread {
+	private class Retransmission implements Runnable {
 
 		/**
 		 * Mensagem a ser tratada
 		 */
-		AckMessage ackInfo;
+		private final AckMessage ackInfo;
 
 		/**
-		 * Initializes the thread to send the packets with acknowledge and retransmission
+		 * Initializes the task to send the packets with acknowledge and retransmission
 		 *
 		 * @param ackInfo message with acknowledge and/or needs to be retransmited
 		 */
-		public AckHandler(AckMessage ackInfo) {
+		public Retransmission(AckMessage ackInfo) {
 			this.ackInfo = ackInfo;
 		}
 
 		@Override
 		public void run() {
+
+			if (ackInfo.isCompleted()) {
+				return;
+			}
+
 			// Envia a mensagem caso esta ainda não tenha sido recebida ou o numero de tentativas ainda não tenha chegado ao limite
-			while ((!ackInfo.isAckReceived()) && (ackInfo.getRetries() != 0) && isRunning()) {
-				try {
-					// Chama o metodo que envia a mensagem
-					send(ackInfo.getSendPacket());
-					// Adormece a thread pelo tempo especificado na mensagem
-					Thread.sleep(ackInfo.getTimeout());
-				} catch (InterruptedException ex) {
-					Logger.getLogger(TransmissionHandler.class.getName()).log(Level.SEVERE, null, ex);
+			if ((!ackInfo.isAckReceived()) && (ackInfo.getRetries() != 0) && isRunning()) {
+				// Chama o metodo que envia a mensagem
+				ackInfo.markSent();
+				send(ackInfo.getSendPacket());
+				// Agenda a proxima tentativa pelo tempo calculado para o destino
+				synchronized (ackInfo) {
+					ackInfo.setTimer(schedule(this, getRetransmissionTimeout(ackInfo)));
 				}
+			} else if (ackInfo.complete()) {
+				readAckPacket(ackInfo);
 			}
-
-			readAckPacket(ackInfo);
 		}
 	}
-}
\ No newline at end of file
+}